@@ -0,0 +1,111 @@
+package com.atharion.commons.benchmarks;
+
+import com.atharion.commons.concurrent.promise.ContinuationPolicy;
+import com.atharion.commons.concurrent.promise.Promise;
+import com.atharion.commons.scheduler.HelperExecutors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the cost of a chain of stages on {@link Promise} with the same chain on a
+ * {@link CompletableFuture}, which promises used to wrap.
+ *
+ * <p>Run with {@code -prof gc} to get the allocation per chain - divide by {@link #stages}
+ * for the allocation per stage.</p>
+ *
+ * <ul>
+ *     <li>the {@code dispatched} benchmarks complete the chain from the benchmark thread, so
+ *     the first stage has to hop onto the async executor. Later promise stages are fused
+ *     onto that thread, unless the chain uses {@link ContinuationPolicy#STRICT}, whereas
+ *     every {@link CompletableFuture#thenApplyAsync(Function, Executor)} stage hops.</li>
+ *     <li>the {@code fused} benchmarks build and complete the chain on an async thread,
+ *     where promise stages run inline, and compare against the non-async
+ *     {@link CompletableFuture#thenApply(Function)}.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseChainBenchmark {
+    private static final Function<Integer, Integer> INCREMENT = i -> i + 1;
+
+    @Param({"1", "8", "32"})
+    public int stages;
+
+    private final Executor executor = HelperExecutors.asyncHelper();
+
+    @Benchmark
+    public Integer promiseDispatched() {
+        Promise<Integer> head = Promise.empty();
+        Promise<Integer> tail = head;
+        for (int i = 0; i < this.stages; i++) {
+            tail = tail.thenApplyAsync(INCREMENT);
+        }
+        head.supply(0);
+        return tail.join();
+    }
+
+    @Benchmark
+    public Integer promiseDispatchedStrict() {
+        Promise<Integer> head = Promise.<Integer>empty().withContinuationPolicy(ContinuationPolicy.STRICT);
+        Promise<Integer> tail = head;
+        for (int i = 0; i < this.stages; i++) {
+            tail = tail.thenApplyAsync(INCREMENT);
+        }
+        head.supply(0);
+        return tail.join();
+    }
+
+    @Benchmark
+    public Integer completableFutureDispatched() {
+        CompletableFuture<Integer> head = new CompletableFuture<>();
+        CompletableFuture<Integer> tail = head;
+        for (int i = 0; i < this.stages; i++) {
+            tail = tail.thenApplyAsync(INCREMENT, this.executor);
+        }
+        head.complete(0);
+        return tail.join();
+    }
+
+    @Benchmark
+    public Integer promiseFused() {
+        return CompletableFuture.supplyAsync(() -> {
+            Promise<Integer> head = Promise.empty();
+            Promise<Integer> tail = head;
+            for (int i = 0; i < this.stages; i++) {
+                tail = tail.thenApplyAsync(INCREMENT);
+            }
+            head.supply(0);
+            return tail.getNow(null);
+        }, this.executor).join();
+    }
+
+    @Benchmark
+    public Integer completableFutureFused() {
+        return CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<Integer> head = new CompletableFuture<>();
+            CompletableFuture<Integer> tail = head;
+            for (int i = 0; i < this.stages; i++) {
+                tail = tail.thenApply(INCREMENT);
+            }
+            head.complete(0);
+            return tail.getNow(null);
+        }, this.executor).join();
+    }
+}
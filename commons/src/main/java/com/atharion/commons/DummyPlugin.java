@@ -1,5 +1,6 @@
 package com.atharion.commons;
 
+import com.atharion.commons.event.SubscriptionProfilingCommand;
 import com.atharion.commons.hologram.BukkitHologramFactory;
 import com.atharion.commons.hologram.HologramFactory;
 import com.atharion.commons.hologram.individual.IndividualHologramFactory;
@@ -9,6 +10,8 @@ import com.atharion.commons.music.SongFactory;
 import com.atharion.commons.npc.CitizensNpcFactory;
 import com.atharion.commons.npc.NpcFactory;
 import com.atharion.commons.plugin.AtharionPlugin;
+import com.atharion.commons.profiler.MainThreadProfiler;
+import com.atharion.commons.profiler.ProfilerCommand;
 import com.atharion.commons.quests.registry.QuestRegistry;
 import com.atharion.commons.quests.registry.SimpleQuestRegistry;
 import com.atharion.commons.scheduler.HelperExecutors;
@@ -17,6 +20,8 @@ import com.atharion.commons.scoreboard.ScoreboardProvider;
 import com.atharion.commons.signprompt.PacketSignPromptFactory;
 import com.atharion.commons.signprompt.SignPromptFactory;
 
+import java.io.File;
+
 public class DummyPlugin extends AtharionPlugin {
 
     @Override
@@ -24,6 +29,14 @@ public class DummyPlugin extends AtharionPlugin {
         provideService(HologramFactory.class, new BukkitHologramFactory());
         provideService(QuestRegistry.class, new SimpleQuestRegistry());
         provideService(SongFactory.class, new NbsSongFactory());
+
+        MainThreadProfiler profiler = bind(new MainThreadProfiler(new File(getDataFolder(), "profiler")));
+        provideService(MainThreadProfiler.class, profiler);
+        ProfilerCommand.create(profiler).registerAndBind(this, "profiler");
+        SubscriptionProfilingCommand.create(new File(getDataFolder(), "profiler")).registerAndBind(this, "subscriptions");
+        if (Boolean.getBoolean("atharion.profiler.autostart")) {
+            profiler.start();
+        }
         if (isPluginPresent("ProtocolLib")) {
             PacketScoreboardProvider scoreboardProvider = new PacketScoreboardProvider(this);
             provideService(ScoreboardProvider.class, scoreboardProvider);
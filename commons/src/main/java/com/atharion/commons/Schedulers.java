@@ -27,11 +27,17 @@
 package com.atharion.commons;
 
 import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.concurrent.promise.Promise;
+import com.atharion.commons.metrics.Histogram;
 import com.atharion.commons.scheduler.HelperExecutors;
 import com.atharion.commons.scheduler.Scheduler;
 import com.atharion.commons.scheduler.Task;
+import com.atharion.commons.scheduler.TaskPriority;
+import com.atharion.commons.scheduler.TaskRegistry;
+import com.atharion.commons.scheduler.TickPhaseBalancer;
 import com.atharion.commons.scheduler.Ticks;
 import com.atharion.commons.scheduler.builder.TaskBuilder;
+import com.atharion.commons.utils.function.Delegates;
 import com.atharion.commons.utils.function.LoaderUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.scheduler.BukkitRunnable;
@@ -39,18 +45,23 @@ import org.bukkit.scheduler.BukkitScheduler;
 
 import javax.annotation.Nonnull;
 import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Provides common instances of {@link Scheduler}.
  */
 public final class Schedulers {
-    private static final Scheduler SYNC_SCHEDULER = new SyncScheduler();
+    private static final Scheduler SYNC_SCHEDULER = new SyncScheduler(TaskPriority.NORMAL);
+    private static final Scheduler SYNC_CRITICAL_SCHEDULER = new SyncScheduler(TaskPriority.CRITICAL);
+    private static final Scheduler SYNC_DEFERRABLE_SCHEDULER = new SyncScheduler(TaskPriority.DEFERRABLE);
     private static final Scheduler ASYNC_SCHEDULER = new AsyncScheduler();
+    private static final Scheduler IO_SCHEDULER = new IoScheduler();
 
     /**
      * Gets a scheduler for the given context.
@@ -78,6 +89,31 @@ public final class Schedulers {
         return SYNC_SCHEDULER;
     }
 
+    /**
+     * Returns a "sync" scheduler for work of the given priority.
+     *
+     * <p>Repeating tasks scheduled via the {@link TaskPriority#DEFERRABLE deferrable}
+     * scheduler skip runs while the server is over its tick budget, until the max
+     * staleness has passed since they last ran.</p>
+     *
+     * @param priority the priority
+     * @return a sync executor instance
+     * @see HelperExecutors#sync(TaskPriority)
+     */
+    public static Scheduler sync(@Nonnull TaskPriority priority) {
+        Objects.requireNonNull(priority, "priority");
+        switch (priority) {
+            case CRITICAL:
+                return SYNC_CRITICAL_SCHEDULER;
+            case NORMAL:
+                return SYNC_SCHEDULER;
+            case DEFERRABLE:
+                return SYNC_DEFERRABLE_SCHEDULER;
+            default:
+                throw new AssertionError();
+        }
+    }
+
     /**
      * Returns an "async" scheduler, which executes tasks asynchronously.
      *
@@ -87,6 +123,22 @@ public final class Schedulers {
         return ASYNC_SCHEDULER;
     }
 
+    /**
+     * Returns an "io" scheduler, which executes tasks on the blocking io lane.
+     *
+     * <p>This scheduler should be used for work which spends most of its time waiting,
+     * e.g. file, database or network access. It reports {@link ThreadContext#ASYNC} as
+     * its context.</p>
+     *
+     * <p>Repeating tasks scheduled via this instance run on the regular async lane.</p>
+     *
+     * @return an io executor instance
+     * @see HelperExecutors#io()
+     */
+    public static Scheduler io() {
+        return IO_SCHEDULER;
+    }
+
     /**
      * Gets Bukkit's scheduler.
      *
@@ -106,10 +158,15 @@ public final class Schedulers {
     }
 
     private static final class SyncScheduler implements Scheduler {
+        private final TaskPriority priority;
+
+        private SyncScheduler(TaskPriority priority) {
+            this.priority = priority;
+        }
 
         @Override
         public void execute(@Nonnull Runnable runnable) {
-            HelperExecutors.sync().execute(runnable);
+            HelperExecutors.sync(this.priority).execute(runnable);
         }
 
         @Nonnull
@@ -120,17 +177,40 @@ public final class Schedulers {
 
         @Nonnull
         @Override
-        public Task runRepeating(@Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        public Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+            Objects.requireNonNull(name, "name");
             Objects.requireNonNull(consumer, "consumer");
-            HelperTask task = new HelperTask(consumer);
+            HelperTask task = new HelperTask(name, consumer, true, this.priority);
             task.runTaskTimer(LoaderUtils.getPlugin(), delayTicks, intervalTicks);
             return task;
         }
 
         @Nonnull
         @Override
-        public Task runRepeating(@Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
-            return runRepeating(consumer, Ticks.from(delay, delayUnit), Ticks.from(interval, intervalUnit));
+        public Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+            return runRepeating(name, consumer, Ticks.from(delay, delayUnit), Ticks.from(interval, intervalUnit));
+        }
+
+        @Nonnull
+        @Override
+        public Task runRepeatingSpread(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+            Objects.requireNonNull(name, "name");
+            Objects.requireNonNull(consumer, "consumer");
+            if (this.priority == TaskPriority.DEFERRABLE) {
+                // the balancer doesn't defer runs, so keep deferrable tasks on their own timer
+                return runRepeating(name, consumer, delayTicks, intervalTicks);
+            }
+            if (intervalTicks > TickPhaseBalancer.MAX_PERIOD_TICKS) {
+                // too long to be worth spreading
+                return runRepeating(name, consumer, delayTicks, intervalTicks);
+            }
+            return HelperExecutors.phaseBalancer().schedule(name, consumer, delayTicks, intervalTicks);
+        }
+
+        @Nonnull
+        @Override
+        public Task runRepeatingSpread(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+            return runRepeatingSpread(name, consumer, Ticks.from(delay, delayUnit), Ticks.from(interval, intervalUnit));
         }
     }
 
@@ -149,29 +229,134 @@ public final class Schedulers {
 
         @Nonnull
         @Override
-        public Task runRepeating(@Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        public Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+            Objects.requireNonNull(name, "name");
             Objects.requireNonNull(consumer, "consumer");
-            HelperTask task = new HelperTask(consumer);
+            HelperTask task = new HelperTask(name, consumer, false, TaskPriority.NORMAL);
             task.runTaskTimerAsynchronously(LoaderUtils.getPlugin(), delayTicks, intervalTicks);
             return task;
         }
 
         @Nonnull
         @Override
-        public Task runRepeating(@Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+        public Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+            Objects.requireNonNull(name, "name");
             Objects.requireNonNull(consumer, "consumer");
-            return new HelperAsyncTask(consumer, delay, delayUnit, interval, intervalUnit);
+            return new HelperAsyncTask(name, consumer, delay, delayUnit, interval, intervalUnit);
+        }
+    }
+
+    private static final class IoScheduler implements Scheduler {
+
+        @Override
+        public void execute(@Nonnull Runnable runnable) {
+            HelperExecutors.io().execute(runnable);
+        }
+
+        @Nonnull
+        @Override
+        public ThreadContext getContext() {
+            return ThreadContext.ASYNC;
+        }
+
+        @Nonnull
+        @Override
+        public <T> Promise<T> supply(@Nonnull Supplier<T> supplier) {
+            Objects.requireNonNull(supplier, "supplier");
+            return Promise.supplyingIo(supplier);
+        }
+
+        @Nonnull
+        @Override
+        public <T> Promise<T> call(@Nonnull Callable<T> callable) {
+            Objects.requireNonNull(callable, "callable");
+            return Promise.supplyingExceptionallyIo(callable);
+        }
+
+        @Nonnull
+        @Override
+        public Promise<Void> run(@Nonnull Runnable runnable) {
+            Objects.requireNonNull(runnable, "runnable");
+            return Promise.supplyingIo(Delegates.runnableToSupplier(runnable));
+        }
+
+        // delayed tasks wait on the async timer, then hop onto the io lane
+
+        @Nonnull
+        @Override
+        public <T> Promise<T> supplyLater(@Nonnull Supplier<T> supplier, long delayTicks) {
+            Objects.requireNonNull(supplier, "supplier");
+            return Promise.start().thenComposeDelayedAsync(v -> Promise.supplyingIo(supplier), delayTicks);
+        }
+
+        @Nonnull
+        @Override
+        public <T> Promise<T> supplyLater(@Nonnull Supplier<T> supplier, long delay, @Nonnull TimeUnit unit) {
+            Objects.requireNonNull(supplier, "supplier");
+            return Promise.start().thenComposeDelayedAsync(v -> Promise.supplyingIo(supplier), delay, unit);
+        }
+
+        @Nonnull
+        @Override
+        public <T> Promise<T> callLater(@Nonnull Callable<T> callable, long delayTicks) {
+            Objects.requireNonNull(callable, "callable");
+            return supplyLater(Delegates.callableToSupplier(callable), delayTicks);
+        }
+
+        @Nonnull
+        @Override
+        public <T> Promise<T> callLater(@Nonnull Callable<T> callable, long delay, @Nonnull TimeUnit unit) {
+            Objects.requireNonNull(callable, "callable");
+            return supplyLater(Delegates.callableToSupplier(callable), delay, unit);
+        }
+
+        @Nonnull
+        @Override
+        public Promise<Void> runLater(@Nonnull Runnable runnable, long delayTicks) {
+            Objects.requireNonNull(runnable, "runnable");
+            return supplyLater(Delegates.runnableToSupplier(runnable), delayTicks);
+        }
+
+        @Nonnull
+        @Override
+        public Promise<Void> runLater(@Nonnull Runnable runnable, long delay, @Nonnull TimeUnit unit) {
+            Objects.requireNonNull(runnable, "runnable");
+            return supplyLater(Delegates.runnableToSupplier(runnable), delay, unit);
+        }
+
+        @Nonnull
+        @Override
+        public Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+            return ASYNC_SCHEDULER.runRepeating(name, consumer, delayTicks, intervalTicks);
+        }
+
+        @Nonnull
+        @Override
+        public Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+            return ASYNC_SCHEDULER.runRepeating(name, consumer, delay, delayUnit, interval, intervalUnit);
         }
     }
 
     private static class HelperTask extends BukkitRunnable implements Task {
+        private final String name;
         private final Consumer<Task> backingTask;
+        private final boolean sync;
+        private final TaskPriority priority;
 
         private final AtomicInteger counter = new AtomicInteger(0);
         private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final Histogram timings = new Histogram();
+
+        // used to postpone runs of deferrable tasks. only accessed by the main thread
+        private long lastRun = 0;
+        private long skippedSince = 0;
 
-        private HelperTask(Consumer<Task> backingTask) {
+        private HelperTask(String name, Consumer<Task> backingTask, boolean sync, TaskPriority priority) {
+            this.name = name;
             this.backingTask = backingTask;
+            this.sync = sync;
+            this.priority = priority;
+            TaskRegistry.register(this, backingTask);
         }
 
         @Override
@@ -181,26 +366,78 @@ public final class Schedulers {
                 return;
             }
 
+            if (this.priority == TaskPriority.DEFERRABLE && shouldDefer()) {
+                return;
+            }
+
+            long start = System.nanoTime();
             try {
                 this.backingTask.accept(this);
                 this.counter.incrementAndGet();
             } catch (Throwable e) {
                 e.printStackTrace();
             }
+            long duration = System.nanoTime() - start;
+            this.timings.record(duration);
+            if (this.sync) {
+                TaskRegistry.checkSlow(this, duration);
+            }
 
             if (this.cancelled.get()) {
                 cancel();
             }
         }
 
+        private boolean shouldDefer() {
+            long now = System.nanoTime();
+            if (this.lastRun != 0 && HelperExecutors.deferringSync().shouldSkip(now - this.lastRun)) {
+                if (this.skippedSince == 0) {
+                    this.skippedSince = now;
+                }
+                return true;
+            }
+
+            if (this.skippedSince != 0) {
+                HelperExecutors.deferringSync().recordDeferral(now - this.skippedSince);
+                this.skippedSince = 0;
+            }
+            this.lastRun = now;
+            return false;
+        }
+
         @Override
         public int getTimesRan() {
             return this.counter.get();
         }
 
+        @Nonnull
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Nonnull
+        @Override
+        public Histogram getTimings() {
+            return this.timings;
+        }
+
         @Override
         public boolean stop() {
-            return !this.cancelled.getAndSet(true);
+            if (!this.cancelled.getAndSet(true)) {
+                TaskRegistry.unregister(this);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() throws IllegalStateException {
+            // reached when the task is cancelled through its BukkitRunnable, rather than stop()
+            this.cancelled.set(true);
+            TaskRegistry.unregister(this);
+            super.cancel();
         }
 
         @Override
@@ -210,19 +447,33 @@ public final class Schedulers {
 
         @Override
         public boolean isClosed() {
-            return this.cancelled.get();
+            return this.cancelled.get() || isCancelledByBukkit();
+        }
+
+        // if the task was cancelled through the bukkit scheduler directly, e.g. when its plugin was disabled
+        private boolean isCancelledByBukkit() {
+            try {
+                return isCancelled();
+            } catch (IllegalStateException e) {
+                // not scheduled yet
+                return false;
+            }
         }
     }
 
     private static class HelperAsyncTask implements Runnable, Task {
+        private final String name;
         private final Consumer<Task> backingTask;
         private final ScheduledFuture<?> future;
 
         private final AtomicInteger counter = new AtomicInteger(0);
         private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final Histogram timings = new Histogram();
 
-        private HelperAsyncTask(Consumer<Task> backingTask, long delay, TimeUnit delayUnit, long interval, TimeUnit intervalUnit) {
+        private HelperAsyncTask(String name, Consumer<Task> backingTask, long delay, TimeUnit delayUnit, long interval, TimeUnit intervalUnit) {
+            this.name = name;
             this.backingTask = backingTask;
+            TaskRegistry.register(this, backingTask);
             this.future = HelperExecutors.asyncHelper().scheduleAtFixedRate(this, delayUnit.toNanos(delay), intervalUnit.toNanos(interval), TimeUnit.NANOSECONDS);
         }
 
@@ -232,12 +483,14 @@ public final class Schedulers {
                 return;
             }
 
+            long start = System.nanoTime();
             try {
                 this.backingTask.accept(this);
                 this.counter.incrementAndGet();
             } catch (Throwable e) {
                 e.printStackTrace();
             }
+            this.timings.record(System.nanoTime() - start);
         }
 
         @Override
@@ -245,10 +498,23 @@ public final class Schedulers {
             return this.counter.get();
         }
 
+        @Nonnull
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Nonnull
+        @Override
+        public Histogram getTimings() {
+            return this.timings;
+        }
+
         @Override
         public boolean stop() {
             if (!this.cancelled.getAndSet(true)) {
                 this.future.cancel(false);
+                TaskRegistry.unregister(this);
                 return true;
             } else {
                 return false;
@@ -257,7 +523,8 @@ public final class Schedulers {
 
         @Override
         public int getBukkitId() {
-            throw new UnsupportedOperationException();
+            // async tasks run on the helper executor, not the bukkit scheduler
+            return -1;
         }
 
         @Override
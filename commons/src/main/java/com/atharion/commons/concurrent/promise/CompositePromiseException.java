@@ -0,0 +1,36 @@
+package com.atharion.commons.concurrent.promise;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exception used to complete the promise returned by {@link Promises#any(java.util.Collection)}
+ * when all of the given promises complete exceptionally.
+ *
+ * <p>The cause is the first exception to occur, and the others are added as suppressed.</p>
+ */
+public class CompositePromiseException extends Exception {
+    private final List<? extends Throwable> causes;
+
+    public CompositePromiseException(List<? extends Throwable> causes, Throwable first) {
+        super("All promises completed exceptionally: " + causes.toString(), first);
+        if (causes.isEmpty()) {
+            throw new IllegalArgumentException("No causes");
+        }
+        this.causes = Collections.unmodifiableList(causes);
+        for (Throwable cause : causes) {
+            if (cause != first) {
+                addSuppressed(cause);
+            }
+        }
+    }
+
+    /**
+     * Gets the exception of each promise, in the order the promises were given.
+     *
+     * @return the exceptions
+     */
+    public List<? extends Throwable> getCauses() {
+        return this.causes;
+    }
+}
@@ -0,0 +1,34 @@
+package com.atharion.commons.concurrent.promise;
+
+/**
+ * Controls how the stages of a {@link Promise} chain are handed to their executor.
+ *
+ * @see Promise#withContinuationPolicy(ContinuationPolicy)
+ * @see Promise#setDefaultContinuationPolicy(ContinuationPolicy)
+ */
+public enum ContinuationPolicy {
+
+    /**
+     * Stages which complete on a thread already in the context of the next stage run
+     * the next stage inline, rather than submitting it to the executor again.
+     *
+     * <p>For example, a chain of sync stages completes in the same tick when the first
+     * stage completes on the main thread, and a chain of async stages stays on the same
+     * pool thread. Delayed and {@link com.atharion.commons.scheduler.TaskPriority#DEFERRABLE deferrable}
+     * stages are never fused.</p>
+     */
+    FUSED,
+
+    /**
+     * Stages are handed to their executor as they were before stages were fused.
+     *
+     * <p>Async and io stages are always submitted to their executor, and so run after
+     * any work already queued there. Sync stages completed on the main thread still run
+     * straight away, without a limit on how many run nested in one another.</p>
+     *
+     * <p>This should be used where the ordering of an async stage relative to other
+     * tasks on the same executor matters.</p>
+     */
+    STRICT
+
+}
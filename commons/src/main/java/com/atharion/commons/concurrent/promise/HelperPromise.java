@@ -27,19 +27,25 @@ package com.atharion.commons.concurrent.promise;
 
 import com.atharion.commons.concurrent.ThreadContext;
 import com.atharion.commons.scheduler.HelperExecutors;
+import com.atharion.commons.scheduler.TaskPriority;
 import com.atharion.commons.scheduler.Ticks;
+import com.atharion.commons.scheduler.TimingWheel;
 import com.atharion.commons.utils.function.Delegate;
 import com.atharion.commons.utils.function.LoaderUtils;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.bukkit.Bukkit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Objects;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -47,11 +53,101 @@ import java.util.function.Supplier;
 /**
  * Implementation of {@link Promise} using the server scheduler.
  *
+ * <p>The state of the promise is held in a single field, which is either the stack of
+ * completions waiting for the result, or the result itself. Completions are pushed onto
+ * the stack with a CAS, and the stage objects themselves form the stack, so chaining a
+ * stage costs two allocations - the stage, and the promise it returns.</p>
+ *
  * @param <V> the result type
  */
 public class HelperPromise<V> implements Promise<V> {
     private static final Consumer<Throwable> EXCEPTION_CONSUMER = Throwable::printStackTrace;
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<HelperPromise, Object> STATE = AtomicReferenceFieldUpdater.newUpdater(HelperPromise.class, Object.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<HelperPromise> FLAGS = AtomicIntegerFieldUpdater.newUpdater(HelperPromise.class, "flags");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<HelperPromise> DEPENDENTS = AtomicIntegerFieldUpdater.newUpdater(HelperPromise.class, "dependents");
+
+    // the result of a promise completed with null
+    private static final Object NIL = new Object();
+
+    // set once the promise is being supplied
+    private static final int SUPPLIED = 1;
+    // set once the promise is cancelled
+    private static final int CANCELLED = 2;
+    // set once something other than a stage depends on the promise, so it is never
+    // cancelled because its dependent stages were
+    private static final int PINNED = 4;
+
+    // the max number of stages which can be fused into one another on a thread, before
+    // the next is dispatched normally. bounds the stack depth of long chains
+    private static final int MAX_FUSION_DEPTH = 32;
+    private static final ThreadLocal<int[]> FUSION_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private static volatile ContinuationPolicy defaultPolicy = parsePolicy(System.getProperty("atharion.promise.continuationPolicy"));
+
+    // dispatchers for the non-delayed contexts - these don't capture, so are only allocated once
+    private static final Dispatcher SYNC = new Dispatcher() {
+        @Override
+        public void dispatch(Runnable runnable) {
+            HelperExecutors.sync().execute(runnable);
+        }
+
+        @Override
+        public void dispatchStrict(Runnable runnable) {
+            executeSync(runnable);
+        }
+
+        @Override
+        public boolean isCurrent() {
+            return ThreadContext.forCurrentThread() == ThreadContext.SYNC;
+        }
+    };
+    private static final Dispatcher ASYNC = new Dispatcher() {
+        @Override
+        public void dispatch(Runnable runnable) {
+            executeAsync(runnable);
+        }
+
+        @Override
+        public boolean isCurrent() {
+            return HelperExecutors.isAsyncThread();
+        }
+    };
+    private static final Dispatcher IO = new Dispatcher() {
+        @Override
+        public void dispatch(Runnable runnable) {
+            executeIo(runnable);
+        }
+
+        @Override
+        public boolean isCurrent() {
+            return HelperExecutors.isIoThread();
+        }
+    };
+
+    static void setDefaultPolicy(@Nonnull ContinuationPolicy policy) {
+        defaultPolicy = Objects.requireNonNull(policy, "policy");
+    }
+
+    @Nonnull
+    static ContinuationPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    private static ContinuationPolicy parsePolicy(@Nullable String value) {
+        if (value != null) {
+            for (ContinuationPolicy policy : ContinuationPolicy.values()) {
+                if (policy.name().equalsIgnoreCase(value)) {
+                    return policy;
+                }
+            }
+        }
+        return ContinuationPolicy.FUSED;
+    }
+
     @Nonnull
     static <U> HelperPromise<U> empty() {
         return new HelperPromise<>();
@@ -69,18 +165,27 @@ public class HelperPromise<V> implements Promise<V> {
 
     @Nonnull
     static <U> Promise<U> wrapFuture(@Nonnull Future<U> future) {
-        if (future instanceof CompletableFuture<?>) {
-            return new HelperPromise<>(((CompletableFuture<U>) future).thenApply(Function.identity()));
-
-        } else if (future instanceof CompletionStage<?>) {
+        if (future instanceof CompletionStage<?>) {
             //noinspection unchecked
             CompletionStage<U> fut = (CompletionStage<U>) future;
-            return new HelperPromise<>(fut.toCompletableFuture().thenApply(Function.identity()));
+            HelperPromise<U> promise = empty();
+            promise.flags = SUPPLIED;
+
+            fut.whenComplete((value, t) -> {
+                if (t != null) {
+                    // dependent stages wrap the exception - unwrap it to match the other sources
+                    promise.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                } else {
+                    promise.complete(value);
+                }
+            });
+
+            return promise;
 
         } else if (future instanceof ListenableFuture<?>) {
             ListenableFuture<U> fut = (ListenableFuture<U>) future;
             HelperPromise<U> promise = empty();
-            promise.supplied.set(true);
+            promise.flags = SUPPLIED;
 
             Futures.addCallback(fut, new FutureCallback<U>() {
                 @Override
@@ -92,7 +197,7 @@ public class HelperPromise<V> implements Promise<V> {
                 public void onFailure(@Nonnull Throwable t) {
                     promise.completeExceptionally(t);
                 }
-            });
+            }, MoreExecutors.directExecutor());
 
             return promise;
 
@@ -112,44 +217,101 @@ public class HelperPromise<V> implements Promise<V> {
     }
 
     /**
-     * If the promise is currently being supplied
+     * The state of the promise.
+     *
+     * <p>While incomplete, this is null or the top of the stack of {@link Completion}s
+     * waiting for the result. Once complete, it holds the result - {@link #NIL} for null,
+     * a {@link Failure} for an exception, or the value itself.</p>
      */
-    private final AtomicBoolean supplied = new AtomicBoolean(false);
+    private volatile Object state;
 
     /**
-     * If the execution of the promise is cancelled
+     * The {@link #SUPPLIED} and {@link #CANCELLED} flags
      */
-    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private volatile int flags;
 
     /**
-     * The completable future backing this promise
+     * How stages chained from this promise are dispatched
      */
-    @Nonnull
-    private final CompletableFuture<V> fut;
+    private volatile ContinuationPolicy policy = defaultPolicy;
+
+    /**
+     * The number of stages chained from this promise which haven't been cancelled
+     */
+    private volatile int dependents;
+
+    /**
+     * The promise this one is a stage of, so cancellation can be passed upstream.
+     * Cleared once this promise completes.
+     */
+    private HelperPromise<?> upstream;
+
+    /**
+     * The scope this promise was started in, if any. Inherited by stages.
+     */
+    private PromiseScope scope;
+
+    /**
+     * The name the stage which completes this promise is traced under
+     */
+    private volatile String name;
 
     private HelperPromise() {
-        this.fut = new CompletableFuture<>();
+        this.state = null;
     }
 
     private HelperPromise(@Nullable V v) {
-        this.fut = CompletableFuture.completedFuture(v);
-        this.supplied.set(true);
+        this.state = v == null ? NIL : v;
+        this.flags = SUPPLIED;
     }
 
     private HelperPromise(@Nonnull Throwable t) {
-        (this.fut = new CompletableFuture<>()).completeExceptionally(t);
-        this.supplied.set(true);
+        this.state = new Failure(Objects.requireNonNull(t, "t"));
+        this.flags = SUPPLIED;
+    }
+
+    /**
+     * Passes the result of the promise to the callback once it completes, on the
+     * completing thread, without dispatching it to an executor.
+     *
+     * @param promise the promise
+     * @param callback the callback, accepting the value or the exception
+     * @param <U> the result type
+     */
+    static <U> void whenComplete(@Nonnull Promise<U> promise, @Nonnull BiConsumer<? super U, ? super Throwable> callback) {
+        whenComplete(promise, callback, true);
     }
 
-    private HelperPromise(@Nonnull CompletableFuture<V> fut) {
-        this.fut = Objects.requireNonNull(fut, "future");
-        this.supplied.set(true);
-        this.cancelled.set(fut.isCancelled());
+    /**
+     * Passes the result of the promise to the callback once it completes, on the
+     * completing thread, without dispatching it to an executor.
+     *
+     * @param promise the promise
+     * @param callback the callback, accepting the value or the exception
+     * @param pin if the promise should be kept from being cancelled when all of its stages are
+     * @param <U> the result type
+     */
+    static <U> void whenComplete(@Nonnull Promise<U> promise, @Nonnull BiConsumer<? super U, ? super Throwable> callback, boolean pin) {
+        if (promise instanceof HelperPromise<?>) {
+            HelperPromise<U> helperPromise = (HelperPromise<U>) promise;
+            if (pin) {
+                helperPromise.pin();
+            }
+            helperPromise.whenDone(new CallbackCompletion<>(callback));
+        } else {
+            promise.toCompletableFuture().whenComplete((value, t) -> {
+                if (t != null) {
+                    callback.accept(null, t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                } else {
+                    callback.accept(value, null);
+                }
+            });
+        }
     }
 
     /* utility methods */
 
-    private void executeSync(@Nonnull Runnable runnable) {
+    private static void executeSync(@Nonnull Runnable runnable) {
         if (ThreadContext.forCurrentThread() == ThreadContext.SYNC) {
             HelperExecutors.wrapRunnable(runnable).run();
         } else {
@@ -157,11 +319,15 @@ public class HelperPromise<V> implements Promise<V> {
         }
     }
 
-    private void executeAsync(@Nonnull Runnable runnable) {
+    private static void executeAsync(@Nonnull Runnable runnable) {
         HelperExecutors.asyncHelper().execute(runnable);
     }
 
-    private void executeDelayedSync(@Nonnull Runnable runnable, long delayTicks) {
+    private static void executeIo(@Nonnull Runnable runnable) {
+        HelperExecutors.io().execute(runnable);
+    }
+
+    private static void executeDelayedSync(@Nonnull Runnable runnable, long delayTicks) {
         if (delayTicks <= 0) {
             executeSync(runnable);
         } else {
@@ -169,7 +335,7 @@ public class HelperPromise<V> implements Promise<V> {
         }
     }
 
-    private void executeDelayedAsync(@Nonnull Runnable runnable, long delayTicks) {
+    private static void executeDelayedAsync(@Nonnull Runnable runnable, long delayTicks) {
         if (delayTicks <= 0) {
             executeAsync(runnable);
         } else {
@@ -177,7 +343,7 @@ public class HelperPromise<V> implements Promise<V> {
         }
     }
 
-    private void executeDelayedSync(@Nonnull Runnable runnable, long delay, TimeUnit unit) {
+    private static void executeDelayedSync(@Nonnull Runnable runnable, long delay, TimeUnit unit) {
         if (delay <= 0) {
             executeSync(runnable);
         } else {
@@ -185,7 +351,7 @@ public class HelperPromise<V> implements Promise<V> {
         }
     }
 
-    private void executeDelayedAsync(@Nonnull Runnable runnable, long delay, TimeUnit unit) {
+    private static void executeDelayedAsync(@Nonnull Runnable runnable, long delay, TimeUnit unit) {
         if (delay <= 0) {
             executeAsync(runnable);
         } else {
@@ -193,61 +359,430 @@ public class HelperPromise<V> implements Promise<V> {
         }
     }
 
+    private static Dispatcher syncDispatcher(TaskPriority priority) {
+        return new Dispatcher() {
+            @Override
+            public void dispatch(Runnable runnable) {
+                HelperExecutors.sync(priority).execute(runnable);
+            }
+
+            @Override
+            public boolean isCurrent() {
+                // deferrable work is always queued, even when already on the main thread
+                return priority != TaskPriority.DEFERRABLE && ThreadContext.forCurrentThread() == ThreadContext.SYNC;
+            }
+        };
+    }
+
+    /**
+     * Runs a stage chained from this promise, either inline or via its dispatcher,
+     * depending on the {@link #policy}.
+     *
+     * @param dispatcher the dispatcher for the stage's context
+     * @param stage the stage
+     */
+    private void dispatch(Dispatcher dispatcher, Runnable stage) {
+        if (this.policy == ContinuationPolicy.STRICT) {
+            dispatcher.dispatchStrict(stage);
+            return;
+        }
+        if (dispatcher.isCurrent()) {
+            int[] depth = FUSION_DEPTH.get();
+            if (depth[0] < MAX_FUSION_DEPTH) {
+                depth[0]++;
+                try {
+                    stage.run();
+                } finally {
+                    depth[0]--;
+                }
+                return;
+            }
+        }
+        dispatcher.dispatch(stage);
+    }
+
+    private static boolean isDone(Object state) {
+        return state != null && !(state instanceof Completion);
+    }
+
+    /**
+     * Pushes a completion onto the stack.
+     *
+     * @param completion the completion
+     * @return false if the promise has already completed, and the completion was not pushed
+     */
+    private boolean push(Completion completion) {
+        Object state;
+        do {
+            state = this.state;
+            if (isDone(state)) {
+                return false;
+            }
+            completion.next = (Completion) state;
+        } while (!STATE.compareAndSet(this, state, completion));
+        return true;
+    }
+
+    /**
+     * Runs the completion once the promise completes, or straight away if it already has.
+     *
+     * @param completion the completion
+     */
+    private void whenDone(Completion completion) {
+        if (!push(completion)) {
+            completion.next = null;
+            completion.onComplete(this.state);
+        }
+    }
+
+    private boolean completeState(Object result) {
+        Object state;
+        do {
+            state = this.state;
+            if (isDone(state)) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, state, result));
+        this.upstream = null;
+
+        // reverse the stack, so completions run in the order they were added
+        Completion head = null;
+        Completion completion = (Completion) state;
+        while (completion != null) {
+            Completion next = completion.next;
+            completion.next = head;
+            head = completion;
+            completion = next;
+        }
+
+        while (head != null) {
+            Completion next = head.next;
+            head.next = null;
+            try {
+                head.onComplete(result);
+            } catch (Throwable t) {
+                EXCEPTION_CONSUMER.accept(t);
+            }
+            head = next;
+        }
+        return true;
+    }
+
     private boolean complete(V value) {
-        return !this.cancelled.get() && this.fut.complete(value);
+        return !isCancelledFlag() && completeState(box(value));
+    }
+
+    private boolean completeResult(Object result) {
+        return !isCancelledFlag() && completeState(result);
     }
 
     private boolean completeExceptionally(@Nonnull Throwable t) {
-        return !this.cancelled.get() && this.fut.completeExceptionally(t);
+        return !isCancelledFlag() && completeState(new Failure(t));
+    }
+
+    /**
+     * Completes the promise without waiting for its upstream stage, which is then
+     * told that this promise no longer depends on it.
+     *
+     * @param result the result
+     * @return if the promise was completed by this call
+     */
+    private boolean completeAndRelease(Object result) {
+        HelperPromise<?> upstream = this.upstream;
+        if (!completeState(result)) {
+            return false;
+        }
+        if (upstream != null) {
+            upstream.onDependentCancelled();
+        }
+        return true;
+    }
+
+    private void setFlag(int flag) {
+        int flags;
+        do {
+            flags = this.flags;
+        } while ((flags & flag) == 0 && !FLAGS.compareAndSet(this, flags, flags | flag));
+    }
+
+    private void pin() {
+        if ((this.flags & PINNED) == 0) {
+            setFlag(PINNED);
+        }
+    }
+
+    /**
+     * Registers a stage chained from this promise as a dependent.
+     *
+     * @param stage the promise of the stage
+     */
+    private void addDependent(HelperPromise<?> stage) {
+        stage.policy = this.policy;
+        stage.scope = this.scope;
+        stage.upstream = this;
+        DEPENDENTS.incrementAndGet(this);
+    }
+
+    /**
+     * Called when the promise of a stage chained from this promise is cancelled. Once
+     * every stage has been cancelled, nothing needs the result, so this promise is
+     * cancelled too, and any work which hasn't started yet is skipped.
+     */
+    private void onDependentCancelled() {
+        // a promise which has already completed has nothing left to skip
+        if (DEPENDENTS.decrementAndGet(this) == 0 && (this.flags & PINNED) == 0 && !isDone()) {
+            cancel();
+        }
+    }
+
+    void setScope(@Nonnull PromiseScope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Gets if the scope this promise belongs to has closed. The stages of such a promise
+     * are dropped rather than run.
+     *
+     * @return if the scope has closed
+     */
+    private boolean isScopeClosed() {
+        PromiseScope scope = this.scope;
+        return scope != null && scope.isClosed();
+    }
+
+    private boolean isCancelledFlag() {
+        return (this.flags & CANCELLED) != 0;
     }
 
     private void markAsSupplied() {
-        if (!this.supplied.compareAndSet(false, true)) {
-            throw new IllegalStateException("Promise is already being supplied.");
+        int flags;
+        do {
+            flags = this.flags;
+            if ((flags & SUPPLIED) != 0) {
+                throw new IllegalStateException("Promise is already being supplied.");
+            }
+        } while (!FLAGS.compareAndSet(this, flags, flags | SUPPLIED));
+    }
+
+    private static Object box(@Nullable Object value) {
+        return value == null ? NIL : value;
+    }
+
+    /**
+     * Records a run of a stage with the {@link PromiseTracing tracer}, if enabled.
+     *
+     * @param promise the promise completed by the stage
+     * @param function the function of the stage, used to name the stage if the promise wasn't named
+     * @param enqueued when the stage was handed to its executor
+     * @param started when the stage started to run
+     */
+    private static void trace(HelperPromise<?> promise, Object function, long enqueued, long started) {
+        if (PromiseTracing.ENABLED) {
+            String name = promise.name;
+            PromiseTracing.record(name != null ? name : PromiseTracing.nameOf(function), enqueued, started, System.nanoTime());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unbox(Object state) {
+        return state == NIL ? null : (T) state;
+    }
+
+    /**
+     * Blocks until the promise completes.
+     *
+     * @param interruptible if an interrupt should abort the wait
+     * @param timeoutNanos the max time to wait, or a negative value to wait forever
+     * @return the completed state, or null if the wait timed out
+     * @throws InterruptedException if interruptible and the thread was interrupted
+     */
+    private Object waitFor(boolean interruptible, long timeoutNanos) throws InterruptedException {
+        Object state = this.state;
+        if (isDone(state)) {
+            return state;
+        }
+
+        // a signaller left behind by a timeout or interrupt is released once the promise completes
+        pin();
+        Signaller signaller = new Signaller(Thread.currentThread());
+        if (!push(signaller)) {
+            return this.state;
+        }
+
+        boolean timed = timeoutNanos >= 0;
+        long deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+        boolean interrupted = false;
+        try {
+            while (!isDone(state = this.state)) {
+                if (timed) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+
+                if (Thread.interrupted()) {
+                    if (interruptible) {
+                        throw new InterruptedException();
+                    }
+                    interrupted = true;
+                }
+            }
+            return state;
+        } finally {
+            signaller.thread = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static <T> T reportGet(Object state) throws ExecutionException {
+        if (state instanceof Failure) {
+            Throwable cause = ((Failure) state).cause;
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw new ExecutionException(cause);
+        }
+        return unbox(state);
+    }
+
+    private static <T> T reportJoin(Object state) {
+        if (state instanceof Failure) {
+            Throwable cause = ((Failure) state).cause;
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            if (cause instanceof CompletionException) {
+                throw (CompletionException) cause;
+            }
+            throw new CompletionException(cause);
         }
+        return unbox(state);
     }
 
     /* future methods */
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        this.cancelled.set(true);
-        return this.fut.cancel(mayInterruptIfRunning);
+        // only mark the promise as cancelled if it actually was - stages chained from
+        // a promise which already completed must still run
+        if (!completeAndRelease(new Failure(new CancellationException()))) {
+            return false;
+        }
+        setFlag(CANCELLED);
+        return true;
     }
 
     @Override
     public boolean isCancelled() {
-        return this.fut.isCancelled();
+        Object state = this.state;
+        return state instanceof Failure && ((Failure) state).cause instanceof CancellationException;
     }
 
     @Override
     public boolean isDone() {
-        return this.fut.isDone();
+        return isDone(this.state);
     }
 
     @Override
     public V get() throws InterruptedException, ExecutionException {
-        return this.fut.get();
+        return reportGet(waitFor(true, -1));
     }
 
     @Override
     public V get(long timeout, @Nonnull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        return this.fut.get(timeout, unit);
+        Object state = waitFor(true, Math.max(unit.toNanos(timeout), 0));
+        if (state == null) {
+            throw new TimeoutException();
+        }
+        return reportGet(state);
     }
 
     @Override
     public V join() {
-        return this.fut.join();
+        try {
+            return reportJoin(waitFor(false, -1));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
     }
 
     @Override
     public V getNow(V valueIfAbsent) {
-        return this.fut.getNow(valueIfAbsent);
+        Object state = this.state;
+        return isDone(state) ? reportJoin(state) : valueIfAbsent;
     }
 
     @Override
     public CompletableFuture<V> toCompletableFuture() {
-        return this.fut.thenApply(Function.identity());
+        CompletableFuture<V> future = new CompletableFuture<>();
+        pin();
+        whenDone(new FutureCompletion<>(future));
+        return future;
+    }
+
+    @Nonnull
+    @Override
+    public Promise<V> orTimeout(long timeout, @Nonnull TimeUnit unit) {
+        return scheduleTimeout(null, timeout, unit);
+    }
+
+    @Nonnull
+    @Override
+    public Promise<V> completeOnTimeout(@Nullable V value, long timeout, @Nonnull TimeUnit unit) {
+        return scheduleTimeout(box(value), timeout, unit);
+    }
+
+    /**
+     * Completes the promise with the result if it hasn't completed before the timeout.
+     *
+     * @param result the result to complete with, or null to complete with a {@link TimeoutException}
+     * @param timeout the timeout
+     * @param unit the unit of timeout
+     * @return this promise
+     */
+    private Promise<V> scheduleTimeout(@Nullable Object result, long timeout, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        if (isDone()) {
+            return this;
+        }
+
+        // the timer thread must only hand work off, as completing runs the dependent stages
+        TimingWheel.Timeout handle = HelperExecutors.timer().newTimeout(() -> executeAsync(() -> {
+            if (!isCancelledFlag()) {
+                completeAndRelease(result != null ? result : new Failure(new TimeoutException()));
+            }
+        }), timeout, unit);
+        whenDone(new TimeoutCompletion(handle));
+        return this;
+    }
+
+    @Nonnull
+    @Override
+    public Promise<V> named(@Nonnull String name) {
+        this.name = Objects.requireNonNull(name, "name");
+        return this;
+    }
+
+    @Nonnull
+    @Override
+    public Promise<V> withContinuationPolicy(@Nonnull ContinuationPolicy policy) {
+        this.policy = Objects.requireNonNull(policy, "policy");
+        return this;
+    }
+
+    @Nonnull
+    @Override
+    public ContinuationPolicy getContinuationPolicy() {
+        return this.policy;
     }
 
     @Override
@@ -294,6 +829,14 @@ public class HelperPromise<V> implements Promise<V> {
         return this;
     }
 
+    @Nonnull
+    @Override
+    public Promise<V> supplyIo(@Nonnull Supplier<V> supplier) {
+        markAsSupplied();
+        executeIo(new SupplyRunnable(supplier));
+        return this;
+    }
+
     @Nonnull
     @Override
     public Promise<V> supplyDelayedSync(@Nonnull Supplier<V> supplier, long delayTicks) {
@@ -342,6 +885,14 @@ public class HelperPromise<V> implements Promise<V> {
         return this;
     }
 
+    @Nonnull
+    @Override
+    public Promise<V> supplyExceptionallyIo(@Nonnull Callable<V> callable) {
+        markAsSupplied();
+        executeIo(new ThrowingSupplyRunnable(callable));
+        return this;
+    }
+
     @Nonnull
     @Override
     public Promise<V> supplyExceptionallyDelayedSync(@Nonnull Callable<V> callable, long delayTicks) {
@@ -377,259 +928,271 @@ public class HelperPromise<V> implements Promise<V> {
     @Nonnull
     @Override
     public <U> Promise<U> thenApplySync(@Nonnull Function<? super V, ? extends U> fn) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeSync(new ApplyRunnable<>(promise, fn, value));
-            }
-        });
-        return promise;
+        return thenApply(fn, SYNC);
+    }
+
+    @Nonnull
+    @Override
+    public <U> Promise<U> thenApplySync(@Nonnull TaskPriority priority, @Nonnull Function<? super V, ? extends U> fn) {
+        Objects.requireNonNull(priority, "priority");
+        return thenApply(fn, syncDispatcher(priority));
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenApplyAsync(@Nonnull Function<? super V, ? extends U> fn) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeAsync(new ApplyRunnable<>(promise, fn, value));
-            }
-        });
-        return promise;
+        return thenApply(fn, ASYNC);
+    }
+
+    @Nonnull
+    @Override
+    public <U> Promise<U> thenApplyIo(@Nonnull Function<? super V, ? extends U> fn) {
+        return thenApply(fn, IO);
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenApplyDelayedSync(@Nonnull Function<? super V, ? extends U> fn, long delayTicks) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedSync(new ApplyRunnable<>(promise, fn, value), delayTicks);
-            }
-        });
-        return promise;
+        return thenApply(fn, r -> executeDelayedSync(r, delayTicks));
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenApplyDelayedSync(@Nonnull Function<? super V, ? extends U> fn, long delay, @Nonnull TimeUnit unit) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedSync(new ApplyRunnable<>(promise, fn, value), delay, unit);
-            }
-        });
-        return promise;
+        return thenApply(fn, r -> executeDelayedSync(r, delay, unit));
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenApplyDelayedAsync(@Nonnull Function<? super V, ? extends U> fn, long delayTicks) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedAsync(new ApplyRunnable<>(promise, fn, value), delayTicks);
-            }
-        });
-        return promise;
+        return thenApply(fn, r -> executeDelayedAsync(r, delayTicks));
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenApplyDelayedAsync(@Nonnull Function<? super V, ? extends U> fn, long delay, @Nonnull TimeUnit unit) {
+        return thenApply(fn, r -> executeDelayedAsync(r, delay, unit));
+    }
+
+    private <U> Promise<U> thenApply(Function<? super V, ? extends U> fn, Dispatcher dispatcher) {
         HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedAsync(new ApplyRunnable<>(promise, fn, value), delay, unit);
-            }
-        });
+        addDependent(promise);
+        whenDone(new ApplyStage<>(promise, fn, dispatcher));
         return promise;
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenComposeSync(@Nonnull Function<? super V, ? extends Promise<U>> fn) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeSync(new ComposeRunnable<>(promise, fn, value, true));
-            }
-        });
-        return promise;
+        return thenCompose(fn, SYNC, true);
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenComposeAsync(@Nonnull Function<? super V, ? extends Promise<U>> fn) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeAsync(new ComposeRunnable<>(promise, fn, value, false));
-            }
-        });
-        return promise;
+        return thenCompose(fn, ASYNC, false);
+    }
+
+    @Nonnull
+    @Override
+    public <U> Promise<U> thenComposeIo(@Nonnull Function<? super V, ? extends Promise<U>> fn) {
+        return thenCompose(fn, IO, false);
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenComposeDelayedSync(@Nonnull Function<? super V, ? extends Promise<U>> fn, long delayTicks) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedSync(new ComposeRunnable<>(promise, fn, value, true), delayTicks);
-            }
-        });
-        return promise;
+        return thenCompose(fn, r -> executeDelayedSync(r, delayTicks), true);
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenComposeDelayedSync(@Nonnull Function<? super V, ? extends Promise<U>> fn, long delay, @Nonnull TimeUnit unit) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedSync(new ComposeRunnable<>(promise, fn, value, true), delay, unit);
-            }
-        });
-        return promise;
+        return thenCompose(fn, r -> executeDelayedSync(r, delay, unit), true);
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenComposeDelayedAsync(@Nonnull Function<? super V, ? extends Promise<U>> fn, long delayTicks) {
-        HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedAsync(new ComposeRunnable<>(promise, fn, value, false), delayTicks);
-            }
-        });
-        return promise;
+        return thenCompose(fn, r -> executeDelayedAsync(r, delayTicks), false);
     }
 
     @Nonnull
     @Override
     public <U> Promise<U> thenComposeDelayedAsync(@Nonnull Function<? super V, ? extends Promise<U>> fn, long delay, @Nonnull TimeUnit unit) {
+        return thenCompose(fn, r -> executeDelayedAsync(r, delay, unit), false);
+    }
+
+    private <U> Promise<U> thenCompose(Function<? super V, ? extends Promise<U>> fn, Dispatcher dispatcher, boolean sync) {
         HelperPromise<U> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t != null) {
-                promise.completeExceptionally(t);
-            } else {
-                executeDelayedAsync(new ComposeRunnable<>(promise, fn, value, false), delay, unit);
-            }
-        });
+        addDependent(promise);
+        whenDone(new ComposeStage<>(promise, fn, dispatcher, sync));
         return promise;
     }
 
     @Nonnull
     @Override
     public Promise<V> exceptionallySync(@Nonnull Function<Throwable, ? extends V> fn) {
-        HelperPromise<V> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t == null) {
-                promise.complete(value);
-            } else {
-                executeSync(new ExceptionallyRunnable<>(promise, fn, t));
-            }
-        });
-        return promise;
+        return exceptionally(fn, SYNC);
     }
 
     @Nonnull
     @Override
     public Promise<V> exceptionallyAsync(@Nonnull Function<Throwable, ? extends V> fn) {
-        HelperPromise<V> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t == null) {
-                promise.complete(value);
-            } else {
-                executeAsync(new ExceptionallyRunnable<>(promise, fn, t));
-            }
-        });
-        return promise;
+        return exceptionally(fn, ASYNC);
     }
 
     @Nonnull
     @Override
     public Promise<V> exceptionallyDelayedSync(@Nonnull Function<Throwable, ? extends V> fn, long delayTicks) {
-        HelperPromise<V> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t == null) {
-                promise.complete(value);
-            } else {
-                executeDelayedSync(new ExceptionallyRunnable<>(promise, fn, t), delayTicks);
-            }
-        });
-        return promise;
+        return exceptionally(fn, r -> executeDelayedSync(r, delayTicks));
     }
 
     @Nonnull
     @Override
     public Promise<V> exceptionallyDelayedSync(@Nonnull Function<Throwable, ? extends V> fn, long delay, @Nonnull TimeUnit unit) {
-        HelperPromise<V> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t == null) {
-                promise.complete(value);
-            } else {
-                executeDelayedSync(new ExceptionallyRunnable<>(promise, fn, t), delay, unit);
-            }
-        });
-        return promise;
+        return exceptionally(fn, r -> executeDelayedSync(r, delay, unit));
     }
 
     @Nonnull
     @Override
     public Promise<V> exceptionallyDelayedAsync(@Nonnull Function<Throwable, ? extends V> fn, long delayTicks) {
-        HelperPromise<V> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t == null) {
-                promise.complete(value);
-            } else {
-                executeDelayedAsync(new ExceptionallyRunnable<>(promise, fn, t), delayTicks);
-            }
-        });
-        return promise;
+        return exceptionally(fn, r -> executeDelayedAsync(r, delayTicks));
     }
 
     @Nonnull
     @Override
     public Promise<V> exceptionallyDelayedAsync(@Nonnull Function<Throwable, ? extends V> fn, long delay, @Nonnull TimeUnit unit) {
+        return exceptionally(fn, r -> executeDelayedAsync(r, delay, unit));
+    }
+
+    private Promise<V> exceptionally(Function<Throwable, ? extends V> fn, Dispatcher dispatcher) {
         HelperPromise<V> promise = empty();
-        this.fut.whenComplete((value, t) -> {
-            if (t == null) {
-                promise.complete(value);
+        addDependent(promise);
+        whenDone(new ExceptionallyStage(promise, fn, dispatcher));
+        return promise;
+    }
+
+    /* completion state */
+
+    /**
+     * The result of a promise which completed exceptionally
+     */
+    private static final class Failure {
+        private final Throwable cause;
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Something waiting for a promise to complete. Completions link themselves
+     * together to form the stack held in {@link #state}.
+     */
+    private abstract static class Completion {
+        Completion next;
+
+        /**
+         * Called once the promise has completed.
+         *
+         * @param state the completed state
+         */
+        abstract void onComplete(Object state);
+    }
+
+    private static final class Signaller extends Completion {
+        private volatile Thread thread;
+        private Signaller(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        void onComplete(Object state) {
+            Thread thread = this.thread;
+            if (thread != null) {
+                this.thread = null;
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private static final class CallbackCompletion<V> extends Completion {
+        private final BiConsumer<? super V, ? super Throwable> callback;
+        private CallbackCompletion(BiConsumer<? super V, ? super Throwable> callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        void onComplete(Object state) {
+            if (state instanceof Failure) {
+                this.callback.accept(null, ((Failure) state).cause);
             } else {
-                executeDelayedAsync(new ExceptionallyRunnable<>(promise, fn, t), delay, unit);
+                this.callback.accept(unbox(state), null);
             }
-        });
-        return promise;
+        }
+    }
+
+    private static final class TimeoutCompletion extends Completion {
+        private final TimingWheel.Timeout timeout;
+        private TimeoutCompletion(TimingWheel.Timeout timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        void onComplete(Object state) {
+            this.timeout.cancel();
+        }
+    }
+
+    private static final class FutureCompletion<V> extends Completion {
+        private final CompletableFuture<V> future;
+        private FutureCompletion(CompletableFuture<V> future) {
+            this.future = future;
+        }
+
+        @Override
+        void onComplete(Object state) {
+            if (state instanceof Failure) {
+                this.future.completeExceptionally(((Failure) state).cause);
+            } else {
+                this.future.complete(unbox(state));
+            }
+        }
+    }
+
+    /**
+     * Hands a stage to the executor for its context
+     */
+    @FunctionalInterface
+    private interface Dispatcher {
+        void dispatch(Runnable runnable);
+
+        /**
+         * Hands the stage over the way promises did before stages were fused, for
+         * the {@link ContinuationPolicy#STRICT strict} policy.
+         *
+         * @param runnable the stage
+         */
+        default void dispatchStrict(Runnable runnable) {
+            dispatch(runnable);
+        }
+
+        /**
+         * Gets if the current thread is already in the context this dispatches to,
+         * so the stage can be fused into the one which completed it.
+         *
+         * @return if the current thread is in the same context
+         */
+        default boolean isCurrent() {
+            return false;
+        }
     }
 
     /* delegating behaviour runnables */
 
     private final class ThrowingSupplyRunnable implements Runnable, Delegate<Callable<V>> {
         private final Callable<V> supplier;
+        private final long enqueued = PromiseTracing.ENABLED ? System.nanoTime() : 0;
         private ThrowingSupplyRunnable(Callable<V> supplier) {
             this.supplier = supplier;
         }
@@ -637,20 +1200,26 @@ public class HelperPromise<V> implements Promise<V> {
 
         @Override
         public void run() {
-            if (HelperPromise.this.cancelled.get()) {
+            // skip the work if the promise was cancelled or timed out before it started
+            if (isDone()) {
                 return;
             }
+            long started = PromiseTracing.ENABLED ? System.nanoTime() : 0;
+            Object result;
             try {
-                HelperPromise.this.fut.complete(this.supplier.call());
+                result = box(this.supplier.call());
             } catch (Throwable t) {
                 EXCEPTION_CONSUMER.accept(t);
-                HelperPromise.this.fut.completeExceptionally(t);
+                result = new Failure(t);
             }
+            trace(HelperPromise.this, this.supplier, this.enqueued, started);
+            completeResult(result);
         }
     }
 
     private final class SupplyRunnable implements Runnable, Delegate<Supplier<V>> {
         private final Supplier<V> supplier;
+        private final long enqueued = PromiseTracing.ENABLED ? System.nanoTime() : 0;
         private SupplyRunnable(Supplier<V> supplier) {
             this.supplier = supplier;
         }
@@ -658,63 +1227,112 @@ public class HelperPromise<V> implements Promise<V> {
 
         @Override
         public void run() {
-            if (HelperPromise.this.cancelled.get()) {
+            // skip the work if the promise was cancelled or timed out before it started
+            if (isDone()) {
                 return;
             }
+            long started = PromiseTracing.ENABLED ? System.nanoTime() : 0;
+            Object result;
             try {
-                HelperPromise.this.fut.complete(this.supplier.get());
+                result = box(this.supplier.get());
             } catch (Throwable t) {
                 EXCEPTION_CONSUMER.accept(t);
-                HelperPromise.this.fut.completeExceptionally(t);
+                result = new Failure(t);
             }
+            trace(HelperPromise.this, this.supplier, this.enqueued, started);
+            completeResult(result);
         }
     }
 
-    private final class ApplyRunnable<U> implements Runnable, Delegate<Function<? super V, ? extends U>> {
+    private final class ApplyStage<U> extends Completion implements Runnable, Delegate<Function<? super V, ? extends U>> {
         private final HelperPromise<U> promise;
         private final Function<? super V, ? extends U> function;
-        private final V value;
-        private ApplyRunnable(HelperPromise<U> promise, Function<? super V, ? extends U> function, V value) {
+        private final Dispatcher dispatcher;
+        private V value;
+        private long enqueued;
+        private ApplyStage(HelperPromise<U> promise, Function<? super V, ? extends U> function, Dispatcher dispatcher) {
             this.promise = promise;
             this.function = function;
-            this.value = value;
+            this.dispatcher = dispatcher;
         }
         @Override public Function<? super V, ? extends U> getDelegate() { return this.function; }
 
+        @Override
+        void onComplete(Object state) {
+            if (state instanceof Failure) {
+                this.promise.completeExceptionally(((Failure) state).cause);
+            } else {
+                this.value = unbox(state);
+                if (PromiseTracing.ENABLED) {
+                    this.enqueued = System.nanoTime();
+                }
+                dispatch(this.dispatcher, this);
+            }
+        }
+
         @Override
         public void run() {
-            if (HelperPromise.this.cancelled.get()) {
+            if (this.promise.isDone()) {
+                return;
+            }
+            if (this.promise.isScopeClosed()) {
+                this.promise.cancel();
                 return;
             }
+            long started = PromiseTracing.ENABLED ? System.nanoTime() : 0;
+            Object result;
             try {
-                this.promise.complete(this.function.apply(this.value));
+                result = box(this.function.apply(this.value));
             } catch (Throwable t) {
                 EXCEPTION_CONSUMER.accept(t);
-                this.promise.completeExceptionally(t);
+                result = new Failure(t);
             }
+            trace(this.promise, this.function, this.enqueued, started);
+            this.promise.completeResult(result);
         }
     }
 
-    private final class ComposeRunnable<U> implements Runnable, Delegate<Function<? super V, ? extends Promise<U>>> {
+    private final class ComposeStage<U> extends Completion implements Runnable, Delegate<Function<? super V, ? extends Promise<U>>> {
         private final HelperPromise<U> promise;
         private final Function<? super V, ? extends Promise<U>> function;
-        private final V value;
+        private final Dispatcher dispatcher;
         private final boolean sync;
-        private ComposeRunnable(HelperPromise<U> promise, Function<? super V, ? extends Promise<U>> function, V value, boolean sync) {
+        private V value;
+        private long enqueued;
+        private ComposeStage(HelperPromise<U> promise, Function<? super V, ? extends Promise<U>> function, Dispatcher dispatcher, boolean sync) {
             this.promise = promise;
             this.function = function;
-            this.value = value;
+            this.dispatcher = dispatcher;
             this.sync = sync;
         }
         @Override public Function<? super V, ? extends Promise<U>> getDelegate() { return this.function; }
 
+        @Override
+        void onComplete(Object state) {
+            if (state instanceof Failure) {
+                this.promise.completeExceptionally(((Failure) state).cause);
+            } else {
+                this.value = unbox(state);
+                if (PromiseTracing.ENABLED) {
+                    this.enqueued = System.nanoTime();
+                }
+                dispatch(this.dispatcher, this);
+            }
+        }
+
         @Override
         public void run() {
-            if (HelperPromise.this.cancelled.get()) {
+            if (this.promise.isDone()) {
                 return;
             }
+            if (this.promise.isScopeClosed()) {
+                this.promise.cancel();
+                return;
+            }
+            long started = PromiseTracing.ENABLED ? System.nanoTime() : 0;
             try {
                 Promise<U> p = this.function.apply(this.value);
+                trace(this.promise, this.function, this.enqueued, started);
                 if (p == null) {
                     this.promise.complete(null);
                 } else {
@@ -731,29 +1349,52 @@ public class HelperPromise<V> implements Promise<V> {
         }
     }
 
-    private final class ExceptionallyRunnable<U> implements Runnable, Delegate<Function<Throwable, ? extends U>> {
-        private final HelperPromise<U> promise;
-        private final Function<Throwable, ? extends U> function;
-        private final Throwable t;
-        private ExceptionallyRunnable(HelperPromise<U> promise, Function<Throwable, ? extends U> function, Throwable t) {
+    private final class ExceptionallyStage extends Completion implements Runnable, Delegate<Function<Throwable, ? extends V>> {
+        private final HelperPromise<V> promise;
+        private final Function<Throwable, ? extends V> function;
+        private final Dispatcher dispatcher;
+        private Throwable t;
+        private long enqueued;
+        private ExceptionallyStage(HelperPromise<V> promise, Function<Throwable, ? extends V> function, Dispatcher dispatcher) {
             this.promise = promise;
             this.function = function;
-            this.t = t;
+            this.dispatcher = dispatcher;
+        }
+        @Override public Function<Throwable, ? extends V> getDelegate() { return this.function; }
+
+        @Override
+        void onComplete(Object state) {
+            if (state instanceof Failure) {
+                this.t = ((Failure) state).cause;
+                if (PromiseTracing.ENABLED) {
+                    this.enqueued = System.nanoTime();
+                }
+                dispatch(this.dispatcher, this);
+            } else {
+                this.promise.complete(unbox(state));
+            }
         }
-        @Override public Function<Throwable, ? extends U> getDelegate() { return this.function; }
 
         @Override
         public void run() {
-            if (HelperPromise.this.cancelled.get()) {
+            if (this.promise.isDone()) {
                 return;
             }
+            if (this.promise.isScopeClosed()) {
+                this.promise.cancel();
+                return;
+            }
+            long started = PromiseTracing.ENABLED ? System.nanoTime() : 0;
+            Object result;
             try {
-                this.promise.complete(this.function.apply(this.t));
+                result = box(this.function.apply(this.t));
             } catch (Throwable t) {
                 EXCEPTION_CONSUMER.accept(t);
-                this.promise.completeExceptionally(t);
+                result = new Failure(t);
             }
+            trace(this.promise, this.function, this.enqueued, started);
+            this.promise.completeResult(result);
         }
     }
 
-}
\ No newline at end of file
+}
@@ -26,11 +26,14 @@
 package com.atharion.commons.concurrent.promise;
 
 import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.scheduler.TaskPriority;
 import com.atharion.commons.terminable.Terminable;
 import com.atharion.commons.utils.function.Delegates;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
@@ -121,6 +124,70 @@ public interface Promise<V> extends Future<V>, Terminable {
         return HelperPromise.wrapFuture(future);
     }
 
+    /**
+     * Returns a Promise which completes with the results of all of the given promises,
+     * once they have all completed normally.
+     *
+     * @param promises the promises
+     * @param <U> the result type
+     * @return the new promise
+     * @see Promises#all(Collection)
+     */
+    @Nonnull
+    static <U> Promise<List<U>> all(@Nonnull Collection<? extends Promise<? extends U>> promises) {
+        return Promises.all(promises);
+    }
+
+    /**
+     * Returns a Promise which completes with the result of the first of the given
+     * promises to complete normally.
+     *
+     * @param promises the promises
+     * @param <U> the result type
+     * @return the new promise
+     * @see Promises#any(Collection)
+     */
+    @Nonnull
+    static <U> Promise<U> any(@Nonnull Collection<? extends Promise<? extends U>> promises) {
+        return Promises.any(promises);
+    }
+
+    /**
+     * Returns a Promise which completes with the outcome of each of the given promises,
+     * once they have all completed.
+     *
+     * @param promises the promises
+     * @param <U> the result type
+     * @return the new promise
+     * @see Promises#allSettled(Collection)
+     */
+    @Nonnull
+    static <U> Promise<List<Settled<U>>> allSettled(@Nonnull Collection<? extends Promise<? extends U>> promises) {
+        return Promises.allSettled(promises);
+    }
+
+    /**
+     * Sets the {@link ContinuationPolicy} given to new promises.
+     *
+     * <p>The initial default is read from the {@code atharion.promise.continuationPolicy}
+     * system property, and is {@link ContinuationPolicy#FUSED} if unset.</p>
+     *
+     * @param policy the policy
+     */
+    static void setDefaultContinuationPolicy(@Nonnull ContinuationPolicy policy) {
+        HelperPromise.setDefaultPolicy(policy);
+    }
+
+    /**
+     * Gets the {@link ContinuationPolicy} given to new promises.
+     *
+     * @return the default policy
+     */
+    @Nonnull
+    static ContinuationPolicy getDefaultContinuationPolicy() {
+        return HelperPromise.getDefaultPolicy();
+    }
+
     /**
      * Returns a new Promise, and schedules it's population via the given supplier.
      *
@@ -161,6 +228,21 @@ public interface Promise<V> extends Future<V>, Terminable {
         return p.supplyAsync(supplier);
     }
 
+    /**
+     * Returns a new Promise, and schedules it's population via the given supplier
+     * on the blocking io lane.
+     *
+     * @param supplier the value supplier
+     * @param <U> the result type
+     * @return the promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    static <U> Promise<U> supplyingIo(@Nonnull Supplier<U> supplier) {
+        Promise<U> p = empty();
+        return p.supplyIo(supplier);
+    }
+
     /**
      * Returns a new Promise, and schedules it's population via the given supplier,
      * after the delay has elapsed.
@@ -296,6 +378,21 @@ public interface Promise<V> extends Future<V>, Terminable {
         return p.supplyExceptionallyAsync(callable);
     }
 
+    /**
+     * Returns a new Promise, and schedules it's population via the given callable
+     * on the blocking io lane.
+     *
+     * @param callable the value callable
+     * @param <U> the result type
+     * @return the promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    static <U> Promise<U> supplyingExceptionallyIo(@Nonnull Callable<U> callable) {
+        Promise<U> p = empty();
+        return p.supplyExceptionallyIo(callable);
+    }
+
     /**
      * Returns a new Promise, and schedules it's population via the given callable,
      * after the delay has elapsed.
@@ -394,6 +491,12 @@ public interface Promise<V> extends Future<V>, Terminable {
     /**
      * Attempts to cancel execution of this task.
      *
+     * <p>Work supplying this promise which hasn't started yet is skipped. If this
+     * promise is a stage of another, and every stage of that promise has now been
+     * cancelled, that promise is cancelled too, and so on up the chain. Promises which
+     * are also depended on in other ways, such as by a thread blocked in {@link #get()}
+     * or by {@link #toCompletableFuture()}, are never cancelled this way.</p>
+     *
      * @return {@code false} if the task could not be cancelled, typically
      * because it has already completed normally;
      * {@code true} otherwise
@@ -491,6 +594,18 @@ public interface Promise<V> extends Future<V>, Terminable {
     @Nonnull
     Promise<V> supplyAsync(@Nonnull Supplier<V> supplier);
 
+    /**
+     * Schedules the supply of the Promise's result, via the given supplier,
+     * on the blocking io lane.
+     *
+     * @param supplier the supplier
+     * @return the same promise
+     * @throws IllegalStateException if the promise is already being supplied, or has already been completed.
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    Promise<V> supplyIo(@Nonnull Supplier<V> supplier);
+
     /**
      * Schedules the supply of the Promise's result, via the given supplier,
      * after the delay has elapsed.
@@ -626,6 +741,18 @@ public interface Promise<V> extends Future<V>, Terminable {
     @Nonnull
     Promise<V> supplyExceptionallyAsync(@Nonnull Callable<V> callable);
 
+    /**
+     * Schedules the supply of the Promise's result, via the given callable,
+     * on the blocking io lane.
+     *
+     * @param callable the callable
+     * @return the same promise
+     * @throws IllegalStateException if the promise is already being supplied, or has already been completed.
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    Promise<V> supplyExceptionallyIo(@Nonnull Callable<V> callable);
+
     /**
      * Schedules the supply of the Promise's result, via the given callable,
      * after the delay has elapsed.
@@ -755,6 +882,20 @@ public interface Promise<V> extends Future<V>, Terminable {
     @Nonnull
     <U> Promise<U> thenApplySync(@Nonnull Function<? super V, ? extends U> fn);
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, is
+     * executed with this promise's result as the argument to the given
+     * function, with the given priority.
+     *
+     * @param priority the priority of the sync work
+     * @param fn the function to use to compute the value
+     * @param <U> the result type
+     * @return the new promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#sync(TaskPriority)
+     */
+    @Nonnull
+    <U> Promise<U> thenApplySync(@Nonnull TaskPriority priority, @Nonnull Function<? super V, ? extends U> fn);
+
     /**
      * Returns a new Promise that, when this promise completes normally, is
      * executed with this promise's result as the argument to the given
@@ -767,6 +908,19 @@ public interface Promise<V> extends Future<V>, Terminable {
     @Nonnull
     <U> Promise<U> thenApplyAsync(@Nonnull Function<? super V, ? extends U> fn);
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, is
+     * executed on the blocking io lane with this promise's result as the
+     * argument to the given function.
+     *
+     * @param fn the function to use to compute the value
+     * @param <U> the result type
+     * @return the new promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    <U> Promise<U> thenApplyIo(@Nonnull Function<? super V, ? extends U> fn);
+
     /**
      * Returns a new Promise that, when this promise completes normally, is
      * executed with this promise's result as the argument to the given
@@ -902,6 +1056,20 @@ public interface Promise<V> extends Future<V>, Terminable {
         return thenApplySync(Delegates.consumerToFunction(action));
     }
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, is
+     * executed with this promise's result as the argument to the given
+     * action, with the given priority.
+     *
+     * @param priority the priority of the sync work
+     * @param action the action to perform before completing the returned future
+     * @return the new promise
+     */
+    @Nonnull
+    default Promise<Void> thenAcceptSync(@Nonnull TaskPriority priority, @Nonnull Consumer<? super V> action) {
+        return thenApplySync(priority, Delegates.consumerToFunction(action));
+    }
+
     /**
      * Returns a new Promise that, when this promise completes normally, is
      * executed with this promise's result as the argument to the given
@@ -915,6 +1083,20 @@ public interface Promise<V> extends Future<V>, Terminable {
         return thenApplyAsync(Delegates.consumerToFunction(action));
     }
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, is
+     * executed on the blocking io lane with this promise's result as the
+     * argument to the given action.
+     *
+     * @param action the action to perform before completing the returned future
+     * @return the new promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    default Promise<Void> thenAcceptIo(@Nonnull Consumer<? super V> action) {
+        return thenApplyIo(Delegates.consumerToFunction(action));
+    }
+
     /**
      * Returns a new Promise that, when this promise completes normally, is
      * executed with this promise's result as the argument to the given
@@ -1050,6 +1232,19 @@ public interface Promise<V> extends Future<V>, Terminable {
         return thenApplySync(Delegates.runnableToFunction(action));
     }
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, executes
+     * the given task, with the given priority.
+     *
+     * @param priority the priority of the sync work
+     * @param action the action to run before completing the returned future
+     * @return the new promise
+     */
+    @Nonnull
+    default Promise<Void> thenRunSync(@Nonnull TaskPriority priority, @Nonnull Runnable action) {
+        return thenApplySync(priority, Delegates.runnableToFunction(action));
+    }
+
     /**
      * Returns a new Promise that, when this promise completes normally, executes
      * the given task.
@@ -1062,6 +1257,19 @@ public interface Promise<V> extends Future<V>, Terminable {
         return thenApplyAsync(Delegates.runnableToFunction(action));
     }
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, executes
+     * the given task on the blocking io lane.
+     *
+     * @param action the action to run before completing the returned future
+     * @return the new promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    default Promise<Void> thenRunIo(@Nonnull Runnable action) {
+        return thenApplyIo(Delegates.runnableToFunction(action));
+    }
+
     /**
      * Returns a new Promise that, when this promise completes normally, executes
      * the given task, after the delay has elapsed.
@@ -1205,6 +1413,19 @@ public interface Promise<V> extends Future<V>, Terminable {
     @Nonnull
     <U> Promise<U> thenComposeAsync(@Nonnull Function<? super V, ? extends Promise<U>> fn);
 
+    /**
+     * Returns a new Promise that, when this promise completes normally, is
+     * executed on the blocking io lane with this promise's result as the
+     * argument to the given function.
+     *
+     * @param fn the function to use to compute the value
+     * @param <U> the result type
+     * @return the new promise
+     * @see com.atharion.commons.scheduler.HelperExecutors#io()
+     */
+    @Nonnull
+    <U> Promise<U> thenComposeIo(@Nonnull Function<? super V, ? extends Promise<U>> fn);
+
     /**
      * Returns a new Promise that, when this promise completes normally, is
      * executed with this promise's result as the argument to the given
@@ -1468,6 +1689,72 @@ public interface Promise<V> extends Future<V>, Terminable {
     @Nonnull
     Promise<V> exceptionallyDelayedAsync(@Nonnull Function<Throwable, ? extends V> fn, long delay, @Nonnull TimeUnit unit);
 
+    /**
+     * Completes this promise exceptionally with a {@link java.util.concurrent.TimeoutException}
+     * if it hasn't completed before the timeout elapses.
+     *
+     * <p>The timeout is held on the shared {@link com.atharion.commons.scheduler.HelperExecutors#timer() timer},
+     * and is cancelled as soon as the promise completes. Work supplying this promise which hasn't
+     * started by the time it times out is skipped, and the upstream stage is released as if this
+     * promise had been {@link #cancel() cancelled}.</p>
+     *
+     * @param timeout the timeout
+     * @param unit the unit of timeout
+     * @return the same promise
+     */
+    @Nonnull
+    Promise<V> orTimeout(long timeout, @Nonnull TimeUnit unit);
+
+    /**
+     * Completes this promise with the given value if it hasn't completed before the
+     * timeout elapses.
+     *
+     * @param value the value to complete with
+     * @param timeout the timeout
+     * @param unit the unit of timeout
+     * @return the same promise
+     * @see #orTimeout(long, TimeUnit)
+     */
+    @Nonnull
+    Promise<V> completeOnTimeout(@Nullable V value, long timeout, @Nonnull TimeUnit unit);
+
+    /**
+     * Names the stage which completes this promise, for {@link PromiseTracing tracing}.
+     *
+     * <p>A stage can finish running before it is named this way, for example when it is
+     * chained from a promise which has already completed, in which case it is traced
+     * under the name of its function. To name a stage as it is created, wrap its function
+     * with {@link PromiseTracing#namedFunction(String, Function)} or one of the other
+     * {@code named} methods instead.</p>
+     *
+     * @param name the name
+     * @return the same promise
+     */
+    @Nonnull
+    Promise<V> named(@Nonnull String name);
+
+    /**
+     * Sets how stages chained from this promise are handed to their executor.
+     *
+     * <p>The policy is read when this promise completes, so it applies to every stage
+     * chained from it which hasn't yet been handed to its executor, including those added
+     * before this call. Stages copy the policy into the promises they return when they are
+     * added, so it only needs to be set at the start of a chain, before any stages are
+     * added.</p>
+     *
+     * @param policy the policy
+     * @return the same promise
+     */
+    @Nonnull
+    Promise<V> withContinuationPolicy(@Nonnull ContinuationPolicy policy);
+
+    /**
+     * Gets how stages chained from this promise are handed to their executor.
+     *
+     * @return the policy
+     */
+    @Nonnull
+    ContinuationPolicy getContinuationPolicy();
 
     /**
      * Returns a {@link CompletableFuture} maintaining the same
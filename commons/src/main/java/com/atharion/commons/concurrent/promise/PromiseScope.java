@@ -0,0 +1,171 @@
+package com.atharion.commons.concurrent.promise;
+
+import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.terminable.Terminable;
+import com.atharion.commons.terminable.TerminableConsumer;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Tracks the promises started on behalf of an owner, such as a plugin, gui or quest,
+ * so they don't outlive it.
+ *
+ * <p>When the scope is closed, every promise started through it which hasn't yet
+ * completed is {@link Promise#cancel() cancelled}, and any stages chained from them
+ * which haven't run yet are dropped - their promises are cancelled instead of the stage
+ * being run. This means callbacks never touch the owner's state after it has closed.</p>
+ *
+ * <pre>{@code
+ * PromiseScope scope = PromiseScope.create(gui);
+ * scope.supplyingIo(() -> loadData(player))
+ *         .thenAcceptSync(data -> redraw(data));
+ * }</pre>
+ */
+public final class PromiseScope implements Terminable {
+
+    /**
+     * Creates a new scope.
+     *
+     * @return a new scope
+     */
+    @Nonnull
+    public static PromiseScope create() {
+        return new PromiseScope();
+    }
+
+    /**
+     * Creates a new scope, which is closed along with the given owner.
+     *
+     * @param owner the owner of the scope
+     * @return a new scope
+     */
+    @Nonnull
+    public static PromiseScope create(@Nonnull TerminableConsumer owner) {
+        Objects.requireNonNull(owner, "owner");
+        return owner.bind(new PromiseScope());
+    }
+
+    private final Set<Promise<?>> promises = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private PromiseScope() {
+
+    }
+
+    /**
+     * Adds a promise to this scope.
+     *
+     * <p>Stages chained from the promise after this call belong to the scope too. If the
+     * scope is already closed, the promise is cancelled straight away.</p>
+     *
+     * @param promise the promise
+     * @param <U> the result type
+     * @return the same promise
+     */
+    @Nonnull
+    public <U> Promise<U> track(@Nonnull Promise<U> promise) {
+        Objects.requireNonNull(promise, "promise");
+        if (promise instanceof HelperPromise<?>) {
+            ((HelperPromise<U>) promise).setScope(this);
+        }
+
+        if (this.closed.get()) {
+            promise.cancel();
+            return promise;
+        }
+
+        this.promises.add(promise);
+        // don't pin the promise - it should still be cancelled if all of its stages are
+        HelperPromise.whenComplete(promise, (value, t) -> this.promises.remove(promise), false);
+
+        // close may have raced with adding the promise
+        if (this.closed.get()) {
+            promise.cancel();
+        }
+        return promise;
+    }
+
+    /**
+     * Returns a new empty promise which belongs to this scope.
+     *
+     * @param <U> the result type
+     * @return a new empty promise
+     * @see Promise#empty()
+     */
+    @Nonnull
+    public <U> Promise<U> empty() {
+        return track(Promise.empty());
+    }
+
+    /**
+     * Returns a new promise which belongs to this scope, and schedules its population
+     * via the given supplier.
+     *
+     * @param context the type of executor to use to supply the promise
+     * @param supplier the value supplier
+     * @param <U> the result type
+     * @return the promise
+     * @see Promise#supplying(ThreadContext, Supplier)
+     */
+    @Nonnull
+    public <U> Promise<U> supplying(@Nonnull ThreadContext context, @Nonnull Supplier<U> supplier) {
+        return track(Promise.<U>empty()).supply(context, supplier);
+    }
+
+    @Nonnull
+    public <U> Promise<U> supplyingSync(@Nonnull Supplier<U> supplier) {
+        return track(Promise.<U>empty()).supplySync(supplier);
+    }
+
+    @Nonnull
+    public <U> Promise<U> supplyingAsync(@Nonnull Supplier<U> supplier) {
+        return track(Promise.<U>empty()).supplyAsync(supplier);
+    }
+
+    @Nonnull
+    public <U> Promise<U> supplyingIo(@Nonnull Supplier<U> supplier) {
+        return track(Promise.<U>empty()).supplyIo(supplier);
+    }
+
+    @Nonnull
+    public <U> Promise<U> supplyingExceptionallyAsync(@Nonnull Callable<U> callable) {
+        return track(Promise.<U>empty()).supplyExceptionallyAsync(callable);
+    }
+
+    @Nonnull
+    public <U> Promise<U> supplyingExceptionallyIo(@Nonnull Callable<U> callable) {
+        return track(Promise.<U>empty()).supplyExceptionallyIo(callable);
+    }
+
+    /**
+     * Gets the number of promises in this scope which haven't completed yet.
+     *
+     * @return the number of active promises
+     */
+    public int getActiveCount() {
+        return this.promises.size();
+    }
+
+    @Override
+    public void close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (Promise<?> promise : this.promises) {
+            promise.cancel();
+        }
+        this.promises.clear();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed.get();
+    }
+}
@@ -0,0 +1,306 @@
+package com.atharion.commons.concurrent.promise;
+
+import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.utils.function.Delegate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Records how long promise stages wait in their executor's queue, and how long they run for.
+ *
+ * <p>Tracing is enabled with the {@code atharion.promise.tracing} system property. The flag
+ * is a constant, so when it is disabled the tracing code is removed by the JIT, and stages
+ * pay nothing for it.</p>
+ *
+ * <p>Runs are aggregated by stage name. Stages are named by wrapping their function with
+ * one of the {@code named} methods, such as {@link #namedFunction(String, Function)}, or with
+ * {@link Promise#named(String)}. Otherwise they use the class name of their function, which
+ * identifies where a lambda was declared.</p>
+ */
+public final class PromiseTracing {
+    public static final boolean ENABLED = Boolean.getBoolean("atharion.promise.tracing");
+
+    private static final Map<String, StageMetrics> METRICS = new ConcurrentHashMap<>();
+
+    static void record(String name, long enqueued, long started, long finished) {
+        StageMetrics metrics = METRICS.get(name);
+        if (metrics == null) {
+            metrics = METRICS.computeIfAbsent(name, StageMetrics::new);
+        }
+        metrics.record(enqueued, started, finished, ThreadContext.forCurrentThread());
+    }
+
+    /**
+     * Gets the name to record a run of a stage under, if its promise wasn't named.
+     *
+     * @param function the function of the stage
+     * @return the name
+     */
+    static String nameOf(Object function) {
+        while (true) {
+            if (function instanceof NamedStage) {
+                return ((NamedStage) function).getStageName();
+            }
+            if (!(function instanceof Delegate<?>)) {
+                return function.getClass().getName();
+            }
+            function = ((Delegate<?>) function).getDelegate();
+        }
+    }
+
+    /**
+     * Names a stage function. The name is carried by the function itself, so unlike
+     * {@link Promise#named(String)}, it applies even if the stage runs straight away.
+     *
+     * @param name the name
+     * @param function the function
+     * @param <T> the input type
+     * @param <R> the result type
+     * @return the named function
+     */
+    @Nonnull
+    public static <T, R> Function<T, R> namedFunction(@Nonnull String name, @Nonnull Function<T, R> function) {
+        return new NamedFunction<>(Objects.requireNonNull(name, "name"), Objects.requireNonNull(function, "function"));
+    }
+
+    /**
+     * Names a stage consumer.
+     *
+     * @param name the name
+     * @param consumer the consumer
+     * @param <T> the input type
+     * @return the named consumer
+     * @see #namedFunction(String, Function)
+     */
+    @Nonnull
+    public static <T> Consumer<T> namedConsumer(@Nonnull String name, @Nonnull Consumer<T> consumer) {
+        return new NamedConsumer<>(Objects.requireNonNull(name, "name"), Objects.requireNonNull(consumer, "consumer"));
+    }
+
+    /**
+     * Names a stage supplier.
+     *
+     * @param name the name
+     * @param supplier the supplier
+     * @param <T> the result type
+     * @return the named supplier
+     * @see #namedFunction(String, Function)
+     */
+    @Nonnull
+    public static <T> Supplier<T> namedSupplier(@Nonnull String name, @Nonnull Supplier<T> supplier) {
+        return new NamedSupplier<>(Objects.requireNonNull(name, "name"), Objects.requireNonNull(supplier, "supplier"));
+    }
+
+    /**
+     * Names a stage callable.
+     *
+     * @param name the name
+     * @param callable the callable
+     * @param <T> the result type
+     * @return the named callable
+     * @see #namedFunction(String, Function)
+     */
+    @Nonnull
+    public static <T> Callable<T> namedCallable(@Nonnull String name, @Nonnull Callable<T> callable) {
+        return new NamedCallable<>(Objects.requireNonNull(name, "name"), Objects.requireNonNull(callable, "callable"));
+    }
+
+    /**
+     * Names a stage runnable.
+     *
+     * @param name the name
+     * @param runnable the runnable
+     * @return the named runnable
+     * @see #namedFunction(String, Function)
+     */
+    @Nonnull
+    public static Runnable namedRunnable(@Nonnull String name, @Nonnull Runnable runnable) {
+        return new NamedRunnable(Objects.requireNonNull(name, "name"), Objects.requireNonNull(runnable, "runnable"));
+    }
+
+    /**
+     * Gets the metrics recorded for stages with the given name.
+     *
+     * @param name the name
+     * @return the metrics, or null if no such stage has run
+     */
+    @Nullable
+    public static StageMetrics get(@Nonnull String name) {
+        return METRICS.get(name);
+    }
+
+    /**
+     * Gets the metrics for every stage name which has run, ordered by total run time,
+     * highest first.
+     *
+     * @return the metrics
+     */
+    @Nonnull
+    public static List<StageMetrics> getAll() {
+        List<StageMetrics> metrics = new ArrayList<>(METRICS.values());
+        metrics.sort(Comparator.comparingLong((StageMetrics m) -> m.getRunTimes().getTotal(TimeUnit.NANOSECONDS)).reversed());
+        return Collections.unmodifiableList(metrics);
+    }
+
+    /**
+     * Clears all recorded metrics.
+     */
+    public static void reset() {
+        METRICS.clear();
+    }
+
+    /**
+     * Writes the recorded metrics as a tab separated table, with one row per stage name.
+     * Times are in microseconds.
+     *
+     * @param writer the writer
+     * @throws IOException if the writer throws
+     */
+    public static void export(@Nonnull Writer writer) throws IOException {
+        writer.write("name\tsync\tasync\tqueue_p50\tqueue_p99\tqueue_max\trun_p50\trun_p99\trun_max\trun_total\n");
+        for (StageMetrics metrics : getAll()) {
+            writer.write(metrics.getName());
+            writer.write('\t' + Long.toString(metrics.getSyncRuns()));
+            writer.write('\t' + Long.toString(metrics.getAsyncRuns()));
+            writer.write('\t' + Long.toString(metrics.getQueueTimes().getPercentile(50, TimeUnit.MICROSECONDS)));
+            writer.write('\t' + Long.toString(metrics.getQueueTimes().getPercentile(99, TimeUnit.MICROSECONDS)));
+            writer.write('\t' + Long.toString(metrics.getQueueTimes().getMax(TimeUnit.MICROSECONDS)));
+            writer.write('\t' + Long.toString(metrics.getRunTimes().getPercentile(50, TimeUnit.MICROSECONDS)));
+            writer.write('\t' + Long.toString(metrics.getRunTimes().getPercentile(99, TimeUnit.MICROSECONDS)));
+            writer.write('\t' + Long.toString(metrics.getRunTimes().getMax(TimeUnit.MICROSECONDS)));
+            writer.write('\t' + Long.toString(metrics.getRunTimes().getTotal(TimeUnit.MICROSECONDS)));
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Gets the recorded metrics as a tab separated table.
+     *
+     * @return the table
+     * @see #export(Writer)
+     */
+    @Nonnull
+    public static String export() {
+        StringWriter writer = new StringWriter();
+        try {
+            export(writer);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return writer.toString();
+    }
+
+    private interface NamedStage {
+        String getStageName();
+    }
+
+    private static final class NamedFunction<T, R> implements Function<T, R>, Delegate<Function<T, R>>, NamedStage {
+        private final String name;
+        private final Function<T, R> delegate;
+
+        private NamedFunction(String name, Function<T, R> delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override public String getStageName() { return this.name; }
+        @Override public Function<T, R> getDelegate() { return this.delegate; }
+
+        @Override
+        public R apply(T t) {
+            return this.delegate.apply(t);
+        }
+    }
+
+    private static final class NamedConsumer<T> implements Consumer<T>, Delegate<Consumer<T>>, NamedStage {
+        private final String name;
+        private final Consumer<T> delegate;
+
+        private NamedConsumer(String name, Consumer<T> delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override public String getStageName() { return this.name; }
+        @Override public Consumer<T> getDelegate() { return this.delegate; }
+
+        @Override
+        public void accept(T t) {
+            this.delegate.accept(t);
+        }
+    }
+
+    private static final class NamedSupplier<T> implements Supplier<T>, Delegate<Supplier<T>>, NamedStage {
+        private final String name;
+        private final Supplier<T> delegate;
+
+        private NamedSupplier(String name, Supplier<T> delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override public String getStageName() { return this.name; }
+        @Override public Supplier<T> getDelegate() { return this.delegate; }
+
+        @Override
+        public T get() {
+            return this.delegate.get();
+        }
+    }
+
+    private static final class NamedCallable<T> implements Callable<T>, Delegate<Callable<T>>, NamedStage {
+        private final String name;
+        private final Callable<T> delegate;
+
+        private NamedCallable(String name, Callable<T> delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override public String getStageName() { return this.name; }
+        @Override public Callable<T> getDelegate() { return this.delegate; }
+
+        @Override
+        public T call() throws Exception {
+            return this.delegate.call();
+        }
+    }
+
+    private static final class NamedRunnable implements Runnable, Delegate<Runnable>, NamedStage {
+        private final String name;
+        private final Runnable delegate;
+
+        private NamedRunnable(String name, Runnable delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        @Override public String getStageName() { return this.name; }
+        @Override public Runnable getDelegate() { return this.delegate; }
+
+        @Override
+        public void run() {
+            this.delegate.run();
+        }
+    }
+
+    private PromiseTracing() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
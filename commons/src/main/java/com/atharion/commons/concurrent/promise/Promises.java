@@ -0,0 +1,299 @@
+package com.atharion.commons.concurrent.promise;
+
+import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.scheduler.HelperExecutors;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Combinators for collections of {@link Promise}s.
+ *
+ * <p>Each combinator tracks its inputs with a single shared countdown, and is notified
+ * of their results directly on the completing thread, so joining any number of promises
+ * doesn't build up a chain of stages.</p>
+ */
+public final class Promises {
+
+    /**
+     * Returns a promise which completes with the results of all of the given promises,
+     * in the order they were given, once they have all completed normally.
+     *
+     * <p>If any of the promises completes exceptionally, the returned promise completes
+     * exceptionally with the same exception straight away.</p>
+     *
+     * @param promises the promises
+     * @param <V> the result type
+     * @return a promise of the results
+     */
+    @Nonnull
+    public static <V> Promise<List<V>> all(@Nonnull Collection<? extends Promise<? extends V>> promises) {
+        Objects.requireNonNull(promises, "promises");
+        int size = promises.size();
+        if (size == 0) {
+            return Promise.completed(Collections.emptyList());
+        }
+
+        Promise<List<V>> result = Promise.empty();
+        Object[] values = new Object[size];
+        AtomicInteger remaining = new AtomicInteger(size);
+
+        int i = 0;
+        for (Promise<? extends V> promise : promises) {
+            int index = i++;
+            HelperPromise.whenComplete(promise, (value, t) -> {
+                if (t != null) {
+                    if (remaining.getAndSet(-1) > 0) {
+                        result.supplyException(t);
+                    }
+                } else {
+                    values[index] = value;
+                    if (remaining.decrementAndGet() == 0) {
+                        result.supply(asList(values));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Returns a promise which completes with the result of the first of the given
+     * promises to complete normally.
+     *
+     * <p>If all of the promises complete exceptionally, the returned promise completes
+     * exceptionally with a {@link CompositePromiseException} holding each of their exceptions.</p>
+     *
+     * @param promises the promises
+     * @param <V> the result type
+     * @return a promise of the first result
+     */
+    @Nonnull
+    public static <V> Promise<V> any(@Nonnull Collection<? extends Promise<? extends V>> promises) {
+        Objects.requireNonNull(promises, "promises");
+        int size = promises.size();
+        if (size == 0) {
+            return Promise.exceptionally(new NoSuchElementException("No promises given"));
+        }
+
+        Promise<V> result = Promise.empty();
+        Throwable[] failures = new Throwable[size];
+        AtomicInteger remaining = new AtomicInteger(size);
+        AtomicReference<Throwable> first = new AtomicReference<>();
+
+        int i = 0;
+        for (Promise<? extends V> promise : promises) {
+            int index = i++;
+            HelperPromise.whenComplete(promise, (value, t) -> {
+                if (t == null) {
+                    if (remaining.getAndSet(-1) > 0) {
+                        result.supply(value);
+                    }
+                    return;
+                }
+
+                // the exceptions are only collected here, never modified, as they
+                // belong to the given promises
+                failures[index] = t;
+                first.compareAndSet(null, t);
+                if (remaining.decrementAndGet() == 0) {
+                    result.supplyException(new CompositePromiseException(Arrays.asList(failures), first.get()));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Returns a promise which completes with the outcome of each of the given promises,
+     * in the order they were given, once they have all completed.
+     *
+     * <p>The returned promise always completes normally.</p>
+     *
+     * @param promises the promises
+     * @param <V> the result type
+     * @return a promise of the outcomes
+     */
+    @Nonnull
+    public static <V> Promise<List<Settled<V>>> allSettled(@Nonnull Collection<? extends Promise<? extends V>> promises) {
+        Objects.requireNonNull(promises, "promises");
+        int size = promises.size();
+        if (size == 0) {
+            return Promise.completed(Collections.emptyList());
+        }
+
+        Promise<List<Settled<V>>> result = Promise.empty();
+        Object[] outcomes = new Object[size];
+        AtomicInteger remaining = new AtomicInteger(size);
+
+        int i = 0;
+        for (Promise<? extends V> promise : promises) {
+            int index = i++;
+            HelperPromise.whenComplete(promise, (value, t) -> {
+                outcomes[index] = t != null ? Settled.failure(t) : Settled.success(value);
+                if (remaining.decrementAndGet() == 0) {
+                    result.supply(asList(outcomes));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Applies the function to each of the inputs, with at most {@code parallelism} of the
+     * returned promises in flight at once, and collects their results.
+     *
+     * <p>The function is called on the thread which completed the previous promise, so
+     * should return quickly and leave the work itself to the returned promise.</p>
+     *
+     * <p>If any of the promises completes exceptionally, no further inputs are started, and
+     * the returned promise completes exceptionally with the same exception.</p>
+     *
+     * @param inputs the inputs
+     * @param fn the function which starts the work for each input
+     * @param parallelism the max number of promises in flight at once
+     * @param context the context to complete the returned promise in
+     * @param <T> the input type
+     * @param <U> the result type
+     * @return a promise of the results, in the order of the inputs
+     */
+    @Nonnull
+    public static <T, U> Promise<List<U>> mapParallel(@Nonnull Collection<? extends T> inputs, @Nonnull Function<? super T, ? extends Promise<U>> fn, int parallelism, @Nonnull ThreadContext context) {
+        Objects.requireNonNull(inputs, "inputs");
+        Objects.requireNonNull(fn, "fn");
+        Objects.requireNonNull(context, "context");
+        Preconditions.checkArgument(parallelism > 0, "parallelism <= 0");
+
+        Promise<List<U>> result = Promise.empty();
+        Object[] values = inputs.toArray();
+        if (values.length == 0) {
+            return result.supply(Collections.emptyList());
+        }
+
+        new ParallelMap<T, U>(values, fn, context, result).release(Math.min(parallelism, values.length));
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> List<V> asList(Object[] values) {
+        return Collections.unmodifiableList((List<V>) Arrays.asList(values));
+    }
+
+    /**
+     * Runs the runnable in the given context, inline if the current thread is already in it.
+     *
+     * @param context the context
+     * @param runnable the runnable
+     */
+    private static void execute(ThreadContext context, Runnable runnable) {
+        if (ThreadContext.forCurrentThread() == context) {
+            runnable.run();
+            return;
+        }
+
+        switch (context) {
+            case SYNC:
+                HelperExecutors.sync().execute(runnable);
+                break;
+            case ASYNC:
+                HelperExecutors.asyncHelper().execute(runnable);
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static final class ParallelMap<T, U> {
+        private final Object[] values;
+        private final Function<? super T, ? extends Promise<U>> fn;
+        private final ThreadContext context;
+        private final Promise<List<U>> result;
+
+        // the number of inputs without a result, or -1 once failed
+        private final AtomicInteger remaining;
+        // the number of slots freed which haven't yet been used to start an input. the
+        // thread which moves this off zero starts inputs until it is back to zero, so
+        // promises which complete inline don't recurse
+        private final AtomicInteger freed = new AtomicInteger(0);
+        // the next input to start. only accessed by the thread which holds the freed count
+        private int next = 0;
+
+        private ParallelMap(Object[] values, Function<? super T, ? extends Promise<U>> fn, ThreadContext context, Promise<List<U>> result) {
+            this.values = values;
+            this.fn = fn;
+            this.context = context;
+            this.result = result;
+            this.remaining = new AtomicInteger(values.length);
+        }
+
+        void release(int slots) {
+            if (this.freed.getAndAdd(slots) != 0) {
+                return;
+            }
+
+            int missed = slots;
+            do {
+                for (int i = 0; i < missed && this.next < this.values.length && this.remaining.get() > 0; i++) {
+                    start(this.next++);
+                }
+                missed = this.freed.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void start(int index) {
+            T input = (T) this.values[index];
+            // the input is replaced by its result, so isn't held onto once done with
+            this.values[index] = null;
+
+            Promise<U> promise;
+            try {
+                promise = this.fn.apply(input);
+            } catch (Throwable t) {
+                fail(t);
+                return;
+            }
+
+            if (promise == null) {
+                succeed(index, null);
+            } else {
+                HelperPromise.whenComplete(promise, (value, t) -> {
+                    if (t != null) {
+                        fail(t);
+                    } else {
+                        succeed(index, value);
+                    }
+                });
+            }
+        }
+
+        private void succeed(int index, U value) {
+            this.values[index] = value;
+            if (this.remaining.decrementAndGet() == 0) {
+                List<U> results = asList(this.values);
+                execute(this.context, () -> this.result.supply(results));
+            } else {
+                release(1);
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (this.remaining.getAndSet(-1) > 0) {
+                execute(this.context, () -> this.result.supplyException(t));
+            }
+        }
+    }
+
+    private Promises() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,77 @@
+package com.atharion.commons.concurrent.promise;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * The outcome of a {@link Promise} which has completed, either normally or exceptionally.
+ *
+ * @param <V> the result type
+ * @see Promises#allSettled(java.util.Collection)
+ */
+public final class Settled<V> {
+
+    @Nonnull
+    public static <V> Settled<V> success(@Nullable V value) {
+        return new Settled<>(value, null);
+    }
+
+    @Nonnull
+    public static <V> Settled<V> failure(@Nonnull Throwable exception) {
+        return new Settled<>(null, Objects.requireNonNull(exception, "exception"));
+    }
+
+    private final V value;
+    private final Throwable exception;
+
+    private Settled(V value, Throwable exception) {
+        this.value = value;
+        this.exception = exception;
+    }
+
+    /**
+     * Gets if the promise completed normally.
+     *
+     * @return if the promise completed normally
+     */
+    public boolean isSuccess() {
+        return this.exception == null;
+    }
+
+    /**
+     * Gets the value the promise completed with, or null if it completed exceptionally.
+     *
+     * @return the value
+     */
+    @Nullable
+    public V getValue() {
+        return this.value;
+    }
+
+    /**
+     * Gets the exception the promise completed with, or null if it completed normally.
+     *
+     * @return the exception
+     */
+    @Nullable
+    public Throwable getException() {
+        return this.exception;
+    }
+
+    /**
+     * Gets the value, or computes one from the exception if the promise completed exceptionally.
+     *
+     * @param fn the function to compute a value from the exception
+     * @return the value
+     */
+    public V orElseGet(@Nonnull Function<Throwable, ? extends V> fn) {
+        return this.exception == null ? this.value : fn.apply(this.exception);
+    }
+
+    @Override
+    public String toString() {
+        return this.exception == null ? "Settled(success=" + this.value + ")" : "Settled(failure=" + this.exception + ")";
+    }
+}
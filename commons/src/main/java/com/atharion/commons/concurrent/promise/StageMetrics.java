@@ -0,0 +1,79 @@
+package com.atharion.commons.concurrent.promise;
+
+import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.metrics.Histogram;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings of the runs of promise stages with a given name.
+ *
+ * @see PromiseTracing
+ */
+public final class StageMetrics {
+    private final String name;
+    private final Histogram queueTimes = new Histogram();
+    private final Histogram runTimes = new Histogram();
+    private final LongAdder syncRuns = new LongAdder();
+    private final LongAdder asyncRuns = new LongAdder();
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    void record(long enqueued, long started, long finished, ThreadContext context) {
+        // stages which ran inline were never queued
+        this.queueTimes.record(enqueued == 0 ? 0 : started - enqueued);
+        this.runTimes.record(finished - started);
+        if (context == ThreadContext.SYNC) {
+            this.syncRuns.increment();
+        } else {
+            this.asyncRuns.increment();
+        }
+    }
+
+    @Nonnull
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets how long stages waited between being handed to their executor and starting
+     * to run. For supplying stages, this includes any delay they were scheduled with.
+     *
+     * @return the queue times
+     */
+    @Nonnull
+    public Histogram getQueueTimes() {
+        return this.queueTimes;
+    }
+
+    /**
+     * Gets how long stages took to run, not including any stages they completed inline.
+     *
+     * @return the run times
+     */
+    @Nonnull
+    public Histogram getRunTimes() {
+        return this.runTimes;
+    }
+
+    /**
+     * Gets the number of runs on the main server thread.
+     *
+     * @return the number of sync runs
+     */
+    public long getSyncRuns() {
+        return this.syncRuns.sum();
+    }
+
+    /**
+     * Gets the number of runs off the main server thread.
+     *
+     * @return the number of async runs
+     */
+    public long getAsyncRuns() {
+        return this.asyncRuns.sum();
+    }
+}
@@ -0,0 +1,87 @@
+package com.atharion.commons.event;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The time spent in the filters and handlers of the subscriptions registered from a given
+ * site, for a given event type.
+ *
+ * @see SubscriptionProfiling
+ */
+public final class SubscriptionMetrics {
+    private final String eventType;
+    private final String site;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    SubscriptionMetrics(String eventType, String site) {
+        this.eventType = eventType;
+        this.site = site;
+    }
+
+    /**
+     * Records a call of a subscription.
+     *
+     * @param nanos the time spent in its filters and handlers
+     */
+    public void record(long nanos) {
+        this.calls.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Zeroes the metrics. A call recorded at the same time may be partly counted.
+     */
+    void reset() {
+        this.calls.reset();
+        this.totalNanos.reset();
+        this.maxNanos.reset();
+    }
+
+    /**
+     * Gets the event type, or types, the subscriptions listen to.
+     *
+     * @return the event type
+     */
+    @Nonnull
+    public String getEventType() {
+        return this.eventType;
+    }
+
+    /**
+     * Gets where the subscriptions were registered, as {@code class.method:line}.
+     *
+     * @return the registration site
+     */
+    @Nonnull
+    public String getSite() {
+        return this.site;
+    }
+
+    /**
+     * Gets the number of events which reached the subscriptions' filters.
+     *
+     * @return the number of calls
+     */
+    public long getCalls() {
+        return this.calls.sum();
+    }
+
+    public long getTotal(@Nonnull TimeUnit unit) {
+        return unit.convert(this.totalNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMax(@Nonnull TimeUnit unit) {
+        return unit.convert(this.maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMean(@Nonnull TimeUnit unit) {
+        long calls = this.calls.sum();
+        return calls == 0 ? 0 : unit.convert(this.totalNanos.sum() / calls, TimeUnit.NANOSECONDS);
+    }
+}
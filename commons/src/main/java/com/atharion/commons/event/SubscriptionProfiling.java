@@ -0,0 +1,177 @@
+package com.atharion.commons.event;
+
+import com.atharion.commons.Schedulers;
+import com.atharion.commons.concurrent.promise.Promise;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the time spent in the filters and handlers of single, merged and protocol
+ * subscriptions.
+ *
+ * <p>Profiling is enabled with the {@code atharion.events.profiling} system property. The
+ * flag is a constant, so when it is disabled the timing code is removed by the JIT.</p>
+ *
+ * <p>Calls are aggregated by event type and registration site - the first caller outside
+ * of the event packages when the subscription was registered - so subscriptions which are
+ * registered repeatedly from the same place, such as the listeners of each open GUI, are
+ * reported together.</p>
+ */
+public final class SubscriptionProfiling {
+    public static final boolean ENABLED = Boolean.getBoolean("atharion.events.profiling");
+
+    private static final String EVENT_PACKAGE = SubscriptionProfiling.class.getPackage().getName() + ".";
+
+    private static final Map<String, SubscriptionMetrics> METRICS = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the metrics to record the calls of a subscription being registered by the
+     * current thread into.
+     *
+     * <p>This walks the stack to find the registration site, so should only be called
+     * when profiling is {@link #ENABLED enabled}.</p>
+     *
+     * @param eventType the event type, or types, the subscription listens to
+     * @return the metrics
+     */
+    @Nonnull
+    public static SubscriptionMetrics track(@Nonnull String eventType) {
+        String site = findSite();
+        return METRICS.computeIfAbsent(eventType + '\t' + site, k -> new SubscriptionMetrics(eventType, site));
+    }
+
+    private static String findSite() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!element.getClassName().startsWith(EVENT_PACKAGE)) {
+                return element.getClassName() + '.' + element.getMethodName() + ':' + element.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    /**
+     * Gets the metrics for every subscription site which has recorded calls, ordered by
+     * total time, highest first.
+     *
+     * @return the metrics
+     */
+    @Nonnull
+    public static List<SubscriptionMetrics> getAll() {
+        List<SubscriptionMetrics> metrics = new ArrayList<>(METRICS.size());
+        for (SubscriptionMetrics m : METRICS.values()) {
+            if (m.getCalls() != 0) {
+                metrics.add(m);
+            }
+        }
+        metrics.sort(Comparator.comparingLong((SubscriptionMetrics m) -> m.getTotal(TimeUnit.NANOSECONDS)).reversed());
+        return Collections.unmodifiableList(metrics);
+    }
+
+    /**
+     * Gets the metrics for every subscription site which has recorded calls, grouped by
+     * event type. Event types are ordered by the total time of their subscriptions, and
+     * the subscriptions of each by their own total time, highest first.
+     *
+     * @return the metrics, by event type
+     */
+    @Nonnull
+    public static Map<String, List<SubscriptionMetrics>> getByEventType() {
+        Map<String, List<SubscriptionMetrics>> grouped = new LinkedHashMap<>();
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (SubscriptionMetrics metrics : getAll()) {
+            grouped.computeIfAbsent(metrics.getEventType(), k -> new ArrayList<>()).add(metrics);
+            totals.merge(metrics.getEventType(), metrics.getTotal(TimeUnit.NANOSECONDS), Long::sum);
+        }
+
+        List<String> eventTypes = new ArrayList<>(grouped.keySet());
+        eventTypes.sort(Comparator.comparingLong((String type) -> totals.get(type)).reversed());
+
+        Map<String, List<SubscriptionMetrics>> ordered = new LinkedHashMap<>();
+        for (String eventType : eventTypes) {
+            ordered.put(eventType, Collections.unmodifiableList(grouped.get(eventType)));
+        }
+        return Collections.unmodifiableMap(ordered);
+    }
+
+    /**
+     * Zeroes all recorded metrics.
+     *
+     * <p>The metrics are zeroed in place, rather than removed, as subscriptions which are
+     * already registered keep recording into the metrics they were given.</p>
+     */
+    public static void reset() {
+        for (SubscriptionMetrics metrics : METRICS.values()) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Writes the recorded metrics as a tab separated table, grouped by event type as
+     * in {@link #getByEventType()}. Times are in microseconds.
+     *
+     * @param writer the writer
+     * @throws IOException if the writer throws
+     */
+    public static void export(@Nonnull Writer writer) throws IOException {
+        writer.write("event\tsite\tcalls\ttotal\tmean\tmax\n");
+        for (List<SubscriptionMetrics> metrics : getByEventType().values()) {
+            for (SubscriptionMetrics m : metrics) {
+                writer.write(m.getEventType());
+                writer.write('\t' + m.getSite());
+                writer.write('\t' + Long.toString(m.getCalls()));
+                writer.write('\t' + Long.toString(m.getTotal(TimeUnit.MICROSECONDS)));
+                writer.write('\t' + Long.toString(m.getMean(TimeUnit.MICROSECONDS)));
+                writer.write('\t' + Long.toString(m.getMax(TimeUnit.MICROSECONDS)));
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the recorded metrics to a new file in the given directory.
+     *
+     * @param directory the directory
+     * @return a promise of the written file
+     * @see #export(Writer)
+     */
+    @Nonnull
+    public static Promise<File> dump(@Nonnull File directory) {
+        StringWriter out = new StringWriter();
+        try {
+            export(out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = new File(directory, "subscriptions-" + time + ".tsv");
+        return Schedulers.io().call(() -> {
+            directory.mkdirs();
+            try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+                writer.write(out.toString());
+            }
+            return file;
+        });
+    }
+
+    private SubscriptionProfiling() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -0,0 +1,98 @@
+package com.atharion.commons.event;
+
+import com.atharion.commons.Commands;
+import com.atharion.commons.command.Command;
+import com.atharion.commons.command.context.CommandContext;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The command used to inspect {@link SubscriptionProfiling}.
+ *
+ * <pre>
+ * /subscriptions top [eventType]
+ * /subscriptions dump
+ * /subscriptions reset
+ * </pre>
+ */
+public final class SubscriptionProfilingCommand {
+    public static final String PERMISSION = "atharion.profiler";
+
+    private static final int TOP_ENTRIES = 10;
+
+    /**
+     * Creates the command, which dumps metrics into the given directory.
+     *
+     * @param directory the directory to write dumps to
+     * @return the command, ready to be registered
+     */
+    @Nonnull
+    public static Command create(@Nonnull File directory) {
+        Objects.requireNonNull(directory, "directory");
+        return Commands.create()
+                .assertPermission(PERMISSION)
+                .handler(c -> handle(directory, c));
+    }
+
+    private static void handle(File directory, CommandContext<CommandSender> c) {
+        if (!SubscriptionProfiling.ENABLED) {
+            c.reply("&cSubscription profiling is disabled. Start the server with -Datharion.events.profiling=true to enable it.");
+            return;
+        }
+
+        String action = c.rawArg(0) == null ? "top" : c.rawArg(0).toLowerCase(Locale.ROOT);
+        switch (action) {
+            case "top": {
+                String eventType = c.rawArg(1);
+                if (eventType == null) {
+                    List<SubscriptionMetrics> metrics = SubscriptionProfiling.getAll();
+                    c.reply("&7Most expensive subscriptions:");
+                    reply(c, metrics);
+                    break;
+                }
+
+                for (Map.Entry<String, List<SubscriptionMetrics>> entry : SubscriptionProfiling.getByEventType().entrySet()) {
+                    if (entry.getKey().equalsIgnoreCase(eventType)) {
+                        c.reply("&7Most expensive subscriptions to &f" + entry.getKey() + "&7:");
+                        reply(c, entry.getValue());
+                        return;
+                    }
+                }
+                c.reply("&cNo subscriptions to " + eventType + " have been called.");
+                break;
+            }
+            case "dump":
+                SubscriptionProfiling.dump(directory).thenAcceptSync(file -> c.reply("&aWrote subscription profile to " + file.getPath()));
+                break;
+            case "reset":
+                SubscriptionProfiling.reset();
+                c.reply("&aCleared subscription metrics.");
+                break;
+            default:
+                c.reply("&cUsage: /" + c.label() + " <top [eventType]|dump|reset>");
+                break;
+        }
+    }
+
+    private static void reply(CommandContext<CommandSender> c, List<SubscriptionMetrics> metrics) {
+        for (int i = 0; i < metrics.size() && i < TOP_ENTRIES; i++) {
+            SubscriptionMetrics m = metrics.get(i);
+            c.reply("&f" + m.getEventType() + " &7at &f" + m.getSite() + "&7: " +
+                    m.getCalls() + " calls, " +
+                    m.getTotal(TimeUnit.MILLISECONDS) + "ms total, " +
+                    m.getMean(TimeUnit.MICROSECONDS) + "us mean, " +
+                    m.getMax(TimeUnit.MICROSECONDS) + "us max");
+        }
+    }
+
+    private SubscriptionProfilingCommand() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
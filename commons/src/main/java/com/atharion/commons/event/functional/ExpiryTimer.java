@@ -0,0 +1,57 @@
+package com.atharion.commons.event.functional;
+
+import com.atharion.commons.event.Subscription;
+import com.atharion.commons.scheduler.HelperExecutors;
+import com.atharion.commons.scheduler.TimingWheel;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unregisters subscriptions with a time limit at their deadline, using the shared
+ * {@link HelperExecutors#timer() timer}.
+ *
+ * <p>Expiring on a timer means a subscription to a rare event doesn't stay registered,
+ * holding on to whatever its handlers captured, until that event next fires, and that
+ * events don't need to read the clock to test for expiry.</p>
+ *
+ * @see SubscriptionBuilder#expireAfter(long, TimeUnit)
+ */
+public final class ExpiryTimer {
+    // the same bound as the timer places on delays, so the deadline can't overflow
+    private static final long MAX_DURATION_NANOS = Long.MAX_VALUE >> 2;
+
+    /**
+     * Gets the {@link System#nanoTime()} deadline the given duration from now.
+     *
+     * @param duration the duration until expiry
+     * @param unit the unit for the duration
+     * @return the deadline
+     * @throws IllegalArgumentException if duration is not greater than or equal to 1
+     */
+    public static long deadline(long duration, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(duration >= 1, "duration < 1");
+        return System.nanoTime() + Math.min(unit.toNanos(duration), MAX_DURATION_NANOS);
+    }
+
+    /**
+     * Schedules the given subscription to be unregistered at the deadline.
+     *
+     * @param subscription the subscription
+     * @param deadline the deadline, from {@link #deadline(long, TimeUnit)}
+     * @return the timeout, to be cancelled if the subscription is unregistered sooner
+     */
+    @Nonnull
+    public static TimingWheel.Timeout schedule(@Nonnull Subscription subscription, long deadline) {
+        Objects.requireNonNull(subscription, "subscription");
+        // the timer thread must only hand work off
+        return HelperExecutors.timer().newTimeoutAt(() -> HelperExecutors.asyncHelper().execute(subscription::unregister), deadline);
+    }
+
+    private ExpiryTimer() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -55,6 +55,9 @@ public interface SubscriptionBuilder<T> {
     /**
      * Sets the expiry time on the handler
      *
+     * <p>The handler is unregistered by a timer when the duration has passed, whether or
+     * not any more events are received. If set more than once, the earliest expiry is used.</p>
+     *
      * @param duration the duration until expiry
      * @param unit     the unit for the duration
      * @return the builder instance
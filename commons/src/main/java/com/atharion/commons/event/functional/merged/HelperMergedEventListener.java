@@ -26,6 +26,10 @@
 package com.atharion.commons.event.functional.merged;
 
 import com.atharion.commons.event.MergedSubscription;
+import com.atharion.commons.event.SubscriptionMetrics;
+import com.atharion.commons.event.SubscriptionProfiling;
+import com.atharion.commons.event.functional.ExpiryTimer;
+import com.atharion.commons.scheduler.TimingWheel;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
 import org.bukkit.Bukkit;
@@ -46,6 +50,7 @@ import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 class HelperMergedEventListener<T> implements MergedSubscription<T>, EventExecutor, Listener {
     private final TypeToken<T> handledClass;
@@ -62,23 +67,50 @@ class HelperMergedEventListener<T> implements MergedSubscription<T>, EventExecut
     private final AtomicLong callCount = new AtomicLong(0);
     private final AtomicBoolean active = new AtomicBoolean(true);
 
+    // where calls are recorded when profiling is enabled, otherwise null
+    private final SubscriptionMetrics metrics;
+
+    private final boolean expires;
+    private final long expiryDeadline;
+    // the timeout which unregisters this subscription at its deadline, if it has one
+    private volatile TimingWheel.Timeout expiry = null;
+
     @SuppressWarnings("unchecked")
     HelperMergedEventListener(MergedSubscriptionBuilderImpl<T> builder, List<BiConsumer<MergedSubscription<T>, ? super T>> handlers) {
         this.handledClass = builder.handledClass;
         this.mappings = ImmutableMap.copyOf(builder.mappings);
         this.exceptionConsumer = builder.exceptionConsumer;
+        this.expires = builder.expires;
+        this.expiryDeadline = builder.expiryDeadline;
 
         this.filters = builder.filters.toArray(new Predicate[builder.filters.size()]);
         this.preExpiryTests = builder.preExpiryTests.toArray(new BiPredicate[builder.preExpiryTests.size()]);
         this.midExpiryTests = builder.midExpiryTests.toArray(new BiPredicate[builder.midExpiryTests.size()]);
         this.postExpiryTests = builder.postExpiryTests.toArray(new BiPredicate[builder.postExpiryTests.size()]);
         this.handlers = handlers.toArray(new BiConsumer[handlers.size()]);
+
+        this.metrics = SubscriptionProfiling.ENABLED ? SubscriptionProfiling.track(this.mappings.keySet().stream().map(Class::getSimpleName).sorted().collect(Collectors.joining(","))) : null;
     }
 
     void register(Plugin plugin) {
         for (Map.Entry<Class<? extends Event>, MergedHandlerMapping<T, ? extends Event>> ent : this.mappings.entrySet()) {
             Bukkit.getPluginManager().registerEvent(ent.getKey(), this, ent.getValue().getPriority(), this, plugin, false);
         }
+
+        scheduleExpiry();
+    }
+
+    private void scheduleExpiry() {
+        if (!this.expires) {
+            return;
+        }
+
+        TimingWheel.Timeout expiry = ExpiryTimer.schedule(this, this.expiryDeadline);
+        this.expiry = expiry;
+        // unregister may have raced with scheduling the timeout
+        if (!this.active.get()) {
+            expiry.cancel();
+        }
     }
 
     @Override
@@ -109,12 +141,13 @@ class HelperMergedEventListener<T> implements MergedSubscription<T>, EventExecut
         for (BiPredicate<MergedSubscription<T>, T> test : this.preExpiryTests) {
             if (test.test(this, handledInstance)) {
                 event.getHandlers().unregister(listener);
-                this.active.set(false);
+                expire();
                 return;
             }
         }
 
         // begin "handling" of the event
+        long start = SubscriptionProfiling.ENABLED ? System.nanoTime() : 0;
         try {
             // check the filters
             for (Predicate<T> filter : this.filters) {
@@ -127,7 +160,7 @@ class HelperMergedEventListener<T> implements MergedSubscription<T>, EventExecut
             for (BiPredicate<MergedSubscription<T>, T> test : this.midExpiryTests) {
                 if (test.test(this, handledInstance)) {
                     event.getHandlers().unregister(listener);
-                    this.active.set(false);
+                    expire();
                     return;
                 }
             }
@@ -141,18 +174,37 @@ class HelperMergedEventListener<T> implements MergedSubscription<T>, EventExecut
             this.callCount.incrementAndGet();
         } catch (Throwable t) {
             this.exceptionConsumer.accept(event, t);
+        } finally {
+            if (SubscriptionProfiling.ENABLED) {
+                this.metrics.record(System.nanoTime() - start);
+            }
         }
 
         // check post-expiry tests
         for (BiPredicate<MergedSubscription<T>, T> test : this.postExpiryTests) {
             if (test.test(this, handledInstance)) {
                 event.getHandlers().unregister(listener);
-                this.active.set(false);
+                expire();
                 return;
             }
         }
     }
 
+    /**
+     * Deactivates the subscription, once one of its expiry tests has passed.
+     */
+    private void expire() {
+        this.active.set(false);
+        cancelExpiry();
+    }
+
+    private void cancelExpiry() {
+        TimingWheel.Timeout expiry = this.expiry;
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+
     @Override
     public boolean isActive() {
         return this.active.get();
@@ -175,6 +227,9 @@ class HelperMergedEventListener<T> implements MergedSubscription<T>, EventExecut
             return false;
         }
 
+        // release the timeout now, rather than at the deadline
+        cancelExpiry();
+
         // also remove the handler directly, just in case the event has a really low throughput.
         // (the event would also be unregistered next time it's called - but this obviously assumes
         // the event will be called again soon)
@@ -122,12 +122,7 @@ public interface MergedSubscriptionBuilder<T> extends SubscriptionBuilder<T> {
 
     @Nonnull
     @Override
-    default MergedSubscriptionBuilder<T> expireAfter(long duration, @Nonnull TimeUnit unit) {
-        Objects.requireNonNull(unit, "unit");
-        Preconditions.checkArgument(duration >= 1, "duration < 1");
-        long expiry = Math.addExact(System.currentTimeMillis(), unit.toMillis(duration));
-        return expireIf((handler, event) -> System.currentTimeMillis() > expiry, ExpiryTestStage.PRE);
-    }
+    MergedSubscriptionBuilder<T> expireAfter(long duration, @Nonnull TimeUnit unit);
 
     @Nonnull
     @Override
@@ -27,12 +27,14 @@ package com.atharion.commons.event.functional.merged;
 
 import com.atharion.commons.event.MergedSubscription;
 import com.atharion.commons.event.functional.ExpiryTestStage;
+import com.atharion.commons.event.functional.ExpiryTimer;
 import com.google.common.reflect.TypeToken;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
 
 import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
@@ -44,6 +46,9 @@ class MergedSubscriptionBuilderImpl<T> implements MergedSubscriptionBuilder<T> {
 
     BiConsumer<? super Event, Throwable> exceptionConsumer = DEFAULT_EXCEPTION_CONSUMER;
 
+    boolean expires = false;
+    long expiryDeadline = 0;
+
     final List<Predicate<T>> filters = new ArrayList<>();
     final List<BiPredicate<MergedSubscription<T>, T>> preExpiryTests = new ArrayList<>(0);
     final List<BiPredicate<MergedSubscription<T>, T>> midExpiryTests = new ArrayList<>(0);
@@ -93,6 +98,18 @@ class MergedSubscriptionBuilderImpl<T> implements MergedSubscriptionBuilder<T> {
         return this;
     }
 
+    @Nonnull
+    @Override
+    public MergedSubscriptionBuilder<T> expireAfter(long duration, @Nonnull TimeUnit unit) {
+        long deadline = ExpiryTimer.deadline(duration, unit);
+        // keep the earliest deadline
+        if (!this.expires || deadline - this.expiryDeadline < 0) {
+            this.expires = true;
+            this.expiryDeadline = deadline;
+        }
+        return this;
+    }
+
     @Nonnull
     @Override
     public MergedSubscriptionBuilder<T> filter(@Nonnull Predicate<T> predicate) {
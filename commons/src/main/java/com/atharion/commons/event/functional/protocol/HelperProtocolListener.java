@@ -26,9 +26,14 @@
 package com.atharion.commons.event.functional.protocol;
 
 import com.atharion.commons.event.ProtocolSubscription;
+import com.atharion.commons.event.SubscriptionMetrics;
+import com.atharion.commons.event.SubscriptionProfiling;
+import com.atharion.commons.event.functional.ExpiryTimer;
 import com.atharion.commons.packet.Protocol;
 import com.atharion.commons.utils.function.LoaderUtils;
+import com.atharion.commons.scheduler.TimingWheel;
 import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.ListenerPriority;
 import com.comphenix.protocol.events.PacketAdapter;
 import com.comphenix.protocol.events.PacketEvent;
 
@@ -39,13 +44,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 class HelperProtocolListener extends PacketAdapter implements ProtocolSubscription {
     private final Set<PacketType> types;
+    private final ListenerPriority priority;
 
     private final BiConsumer<? super PacketEvent, Throwable> exceptionConsumer;
 
+    private final Function<? super PacketEvent, ?> keyExtractor;
+    private final Object key;
+
     private final Predicate<PacketEvent>[] filters;
     private final BiPredicate<ProtocolSubscription, PacketEvent>[] preExpiryTests;
     private final BiPredicate<ProtocolSubscription, PacketEvent>[] midExpiryTests;
@@ -55,12 +66,28 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
     private final AtomicLong callCount = new AtomicLong(0);
     private final AtomicBoolean active = new AtomicBoolean(true);
 
+    // where calls are recorded when profiling is enabled, otherwise null
+    private final SubscriptionMetrics metrics;
+
+    private final boolean expires;
+    private final long expiryDeadline;
+    // the timeout which unregisters this subscription at its deadline, if it has one
+    private volatile TimingWheel.Timeout expiry = null;
+
+    // the router this subscription was added to, or null if it is registered with ProtocolLib itself
+    private KeyedProtocolRouter router = null;
+
     @SuppressWarnings("unchecked")
     HelperProtocolListener(ProtocolSubscriptionBuilderImpl builder, List<BiConsumer<ProtocolSubscription, ? super PacketEvent>> handlers) {
         super(LoaderUtils.getPlugin(), builder.priority, builder.types);
 
         this.types = builder.types;
+        this.priority = builder.priority;
         this.exceptionConsumer = builder.exceptionConsumer;
+        this.expires = builder.expires;
+        this.expiryDeadline = builder.expiryDeadline;
+        this.keyExtractor = builder.keyExtractor;
+        this.key = builder.key;
 
         this.filters = builder.filters.toArray(new Predicate[builder.filters.size()]);
         this.preExpiryTests = builder.preExpiryTests.toArray(new BiPredicate[builder.preExpiryTests.size()]);
@@ -68,7 +95,32 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
         this.postExpiryTests = builder.postExpiryTests.toArray(new BiPredicate[builder.postExpiryTests.size()]);
         this.handlers = handlers.toArray(new BiConsumer[handlers.size()]);
 
-        Protocol.manager().addPacketListener(this);
+        this.metrics = SubscriptionProfiling.ENABLED ? SubscriptionProfiling.track(this.types.stream().map(PacketType::name).sorted().collect(Collectors.joining(","))) : null;
+    }
+
+    void register() {
+        if (this.keyExtractor != null) {
+            KeyedProtocolRouter router = KeyedProtocolRouter.get(this.types, this.priority, this.keyExtractor);
+            this.router = router;
+            router.add(this);
+        } else {
+            Protocol.manager().addPacketListener(this);
+        }
+
+        scheduleExpiry();
+    }
+
+    private void scheduleExpiry() {
+        if (!this.expires) {
+            return;
+        }
+
+        TimingWheel.Timeout expiry = ExpiryTimer.schedule(this, this.expiryDeadline);
+        this.expiry = expiry;
+        // unregister may have raced with scheduling the timeout
+        if (!this.active.get()) {
+            expiry.cancel();
+        }
     }
 
     @Override
@@ -87,6 +139,15 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
             return;
         }
 
+        handle(event);
+    }
+
+    /**
+     * Handles a packet event, which is already known to be of one of the subscribed types.
+     *
+     * @param event the event
+     */
+    void handle(PacketEvent event) {
         // this handler is disabled, so don't listen
         if (!this.active.get()) {
             return;
@@ -101,6 +162,7 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
         }
 
         // begin "handling" of the event
+        long start = SubscriptionProfiling.ENABLED ? System.nanoTime() : 0;
         try {
             // check the filters
             for (Predicate<PacketEvent> filter : this.filters) {
@@ -126,6 +188,10 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
             this.callCount.incrementAndGet();
         } catch (Throwable t) {
             this.exceptionConsumer.accept(event, t);
+        } finally {
+            if (SubscriptionProfiling.ENABLED) {
+                this.metrics.record(System.nanoTime() - start);
+            }
         }
 
         // check post-expiry tests
@@ -137,6 +203,10 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
         }
     }
 
+    Object getKey() {
+        return this.key;
+    }
+
     @Nonnull
     @Override
     public Set<PacketType> getPackets() {
@@ -165,7 +235,17 @@ class HelperProtocolListener extends PacketAdapter implements ProtocolSubscripti
             return false;
         }
 
-        Protocol.manager().removePacketListener(this);
+        // release the timeout now, rather than at the deadline
+        TimingWheel.Timeout expiry = this.expiry;
+        if (expiry != null) {
+            expiry.cancel();
+        }
+
+        if (this.router != null) {
+            this.router.remove(this);
+        } else {
+            Protocol.manager().removePacketListener(this);
+        }
         return true;
     }
 }
\ No newline at end of file
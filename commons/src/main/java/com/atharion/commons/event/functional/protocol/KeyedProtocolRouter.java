@@ -0,0 +1,144 @@
+package com.atharion.commons.event.functional.protocol;
+
+import com.atharion.commons.packet.Protocol;
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketEvent;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Routes packets to the {@link com.atharion.commons.event.ProtocolSubscription}s registered
+ * for the key extracted from them.
+ *
+ * <p>A single packet listener is registered for each set of packet types, priority and key
+ * extractor. The key of each packet is extracted once, and used to look up the subscriptions
+ * for that key.</p>
+ *
+ * @see ProtocolSubscriptionBuilder#forKey(Function, Object)
+ */
+final class KeyedProtocolRouter extends PacketAdapter {
+    private static final Map<RouterKey, KeyedProtocolRouter> ROUTERS = new ConcurrentHashMap<>();
+
+    static KeyedProtocolRouter get(Set<PacketType> types, ListenerPriority priority, Function<? super PacketEvent, ?> keyExtractor) {
+        return ROUTERS.computeIfAbsent(new RouterKey(types, priority, keyExtractor), k -> {
+            KeyedProtocolRouter router = new KeyedProtocolRouter(types, priority, keyExtractor);
+            Protocol.manager().addPacketListener(router);
+            return router;
+        });
+    }
+
+    private final Set<PacketType> types;
+    private final Function<? super PacketEvent, ?> keyExtractor;
+
+    // key -> subscriptions. each array is replaced as a whole on change
+    private final Map<Object, HelperProtocolListener[]> routes = new ConcurrentHashMap<>();
+
+    private KeyedProtocolRouter(Set<PacketType> types, ListenerPriority priority, Function<? super PacketEvent, ?> keyExtractor) {
+        super(LoaderUtils.getPlugin(), priority, types);
+        this.types = types;
+        this.keyExtractor = keyExtractor;
+    }
+
+    void add(HelperProtocolListener subscription) {
+        this.routes.compute(subscription.getKey(), (key, subscriptions) -> {
+            if (subscriptions == null) {
+                return new HelperProtocolListener[]{subscription};
+            }
+            HelperProtocolListener[] copy = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            copy[subscriptions.length] = subscription;
+            return copy;
+        });
+    }
+
+    void remove(HelperProtocolListener subscription) {
+        this.routes.computeIfPresent(subscription.getKey(), (key, subscriptions) -> {
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (subscriptions[i] == subscription) {
+                    if (subscriptions.length == 1) {
+                        return null;
+                    }
+                    HelperProtocolListener[] copy = Arrays.copyOf(subscriptions, subscriptions.length - 1);
+                    System.arraycopy(subscriptions, i + 1, copy, i, subscriptions.length - i - 1);
+                    return copy;
+                }
+            }
+            return subscriptions;
+        });
+    }
+
+    @Override
+    public void onPacketReceiving(PacketEvent event) {
+        onPacket(event);
+    }
+
+    @Override
+    public void onPacketSending(PacketEvent event) {
+        onPacket(event);
+    }
+
+    private void onPacket(PacketEvent event) {
+        // check we actually want this event
+        if (!this.types.contains(event.getPacketType())) {
+            return;
+        }
+
+        Object key;
+        try {
+            key = this.keyExtractor.apply(event);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return;
+        }
+        if (key == null) {
+            return;
+        }
+
+        HelperProtocolListener[] subscriptions = this.routes.get(key);
+        if (subscriptions == null) {
+            return;
+        }
+
+        for (HelperProtocolListener subscription : subscriptions) {
+            try {
+                subscription.handle(event);
+            } catch (Throwable t) {
+                // don't let one subscription stop the packet reaching the rest
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private static final class RouterKey {
+        private final Set<PacketType> types;
+        private final ListenerPriority priority;
+        private final Function<?, ?> keyExtractor;
+
+        private RouterKey(Set<PacketType> types, ListenerPriority priority, Function<?, ?> keyExtractor) {
+            this.types = types;
+            this.priority = priority;
+            this.keyExtractor = keyExtractor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RouterKey)) return false;
+            RouterKey other = (RouterKey) o;
+            // extractors are compared by identity - there's no other meaningful way to compare functions
+            return this.types.equals(other.types) && this.priority == other.priority && this.keyExtractor == other.keyExtractor;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.types, this.priority, System.identityHashCode(this.keyExtractor));
+        }
+    }
+}
@@ -53,6 +53,8 @@ class ProtocolHandlerListImpl implements ProtocolHandlerList {
     @Nonnull
     @Override
     public ProtocolSubscription register() {
-        return new HelperProtocolListener(builder, handlers);
+        HelperProtocolListener listener = new HelperProtocolListener(this.builder, this.handlers);
+        listener.register();
+        return listener;
     }
 }
\ No newline at end of file
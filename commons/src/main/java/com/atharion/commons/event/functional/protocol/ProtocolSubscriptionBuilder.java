@@ -41,6 +41,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
@@ -83,12 +84,7 @@ public interface ProtocolSubscriptionBuilder extends SubscriptionBuilder<PacketE
 
     @Nonnull
     @Override
-    default ProtocolSubscriptionBuilder expireAfter(long duration, @Nonnull TimeUnit unit) {
-        Objects.requireNonNull(unit, "unit");
-        Preconditions.checkArgument(duration >= 1, "duration < 1");
-        long expiry = Math.addExact(System.currentTimeMillis(), unit.toMillis(duration));
-        return expireIf((handler, event) -> System.currentTimeMillis() > expiry, ExpiryTestStage.PRE);
-    }
+    ProtocolSubscriptionBuilder expireAfter(long duration, @Nonnull TimeUnit unit);
 
     @Nonnull
     @Override
@@ -101,6 +97,26 @@ public interface ProtocolSubscriptionBuilder extends SubscriptionBuilder<PacketE
     @Override
     ProtocolSubscriptionBuilder filter(@Nonnull Predicate<PacketEvent> predicate);
 
+    /**
+     * Only passes packets to the handler when the key extracted from them equals the given key.
+     *
+     * <p>This has the same effect as a filter comparing the key, but rather than every
+     * subscription testing every packet, packets are routed through a single packet listener
+     * per set of packet types, priority and key extractor, which looks up the subscriptions
+     * for the packet's key.</p>
+     *
+     * <p>Subscriptions only share a listener if they use the same extractor instance, so
+     * the extractor should be held in a constant. Packets for which the extractor returns
+     * null are ignored.</p>
+     *
+     * @param keyExtractor the function extracting the key from a packet, e.g. the player
+     * @param key the key to match
+     * @return the builder instance
+     * @throws NullPointerException if the extractor or key is null
+     */
+    @Nonnull
+    ProtocolSubscriptionBuilder forKey(@Nonnull Function<? super PacketEvent, ?> keyExtractor, @Nonnull Object key);
+
     /**
      * Add a expiry predicate.
      *
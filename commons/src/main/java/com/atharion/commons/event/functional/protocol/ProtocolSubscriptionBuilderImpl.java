@@ -32,13 +32,16 @@ import com.google.common.collect.ImmutableSet;
 
 import com.atharion.commons.event.ProtocolSubscription;
 import com.atharion.commons.event.functional.ExpiryTestStage;
+import com.atharion.commons.event.functional.ExpiryTimer;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -49,6 +52,12 @@ class ProtocolSubscriptionBuilderImpl implements ProtocolSubscriptionBuilder {
 
     BiConsumer<? super PacketEvent, Throwable> exceptionConsumer = DEFAULT_EXCEPTION_CONSUMER;
 
+    boolean expires = false;
+    long expiryDeadline = 0;
+
+    Function<? super PacketEvent, ?> keyExtractor = null;
+    Object key = null;
+
     final List<Predicate<PacketEvent>> filters = new ArrayList<>(3);
     final List<BiPredicate<ProtocolSubscription, PacketEvent>> preExpiryTests = new ArrayList<>(0);
     final List<BiPredicate<ProtocolSubscription, PacketEvent>> midExpiryTests = new ArrayList<>(0);
@@ -82,6 +91,18 @@ class ProtocolSubscriptionBuilderImpl implements ProtocolSubscriptionBuilder {
         return this;
     }
 
+    @Nonnull
+    @Override
+    public ProtocolSubscriptionBuilder expireAfter(long duration, @Nonnull TimeUnit unit) {
+        long deadline = ExpiryTimer.deadline(duration, unit);
+        // keep the earliest deadline
+        if (!this.expires || deadline - this.expiryDeadline < 0) {
+            this.expires = true;
+            this.expiryDeadline = deadline;
+        }
+        return this;
+    }
+
     @Nonnull
     @Override
     public ProtocolSubscriptionBuilder filter(@Nonnull Predicate<PacketEvent> predicate) {
@@ -90,6 +111,16 @@ class ProtocolSubscriptionBuilderImpl implements ProtocolSubscriptionBuilder {
         return this;
     }
 
+    @Nonnull
+    @Override
+    public ProtocolSubscriptionBuilder forKey(@Nonnull Function<? super PacketEvent, ?> keyExtractor, @Nonnull Object key) {
+        Objects.requireNonNull(keyExtractor, "keyExtractor");
+        Objects.requireNonNull(key, "key");
+        this.keyExtractor = keyExtractor;
+        this.key = key;
+        return this;
+    }
+
     @Nonnull
     @Override
     public ProtocolSubscriptionBuilder exceptionConsumer(@Nonnull BiConsumer<? super PacketEvent, Throwable> exceptionConsumer) {
@@ -0,0 +1,19 @@
+package com.atharion.commons.event.functional.single;
+
+import org.bukkit.event.Event;
+
+/**
+ * Something other than a dedicated Bukkit listener which passes events to a subscription.
+ *
+ * @param <T> the event type
+ */
+interface EventRoute<T extends Event> {
+
+    /**
+     * Stops passing events to the subscription.
+     *
+     * @param subscription the subscription
+     */
+    void remove(HelperEventListener<T> subscription);
+
+}
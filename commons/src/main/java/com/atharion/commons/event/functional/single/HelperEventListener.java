@@ -26,7 +26,11 @@
 package com.atharion.commons.event.functional.single;
 
 import com.atharion.commons.event.SingleSubscription;
+import com.atharion.commons.event.SubscriptionMetrics;
+import com.atharion.commons.event.SubscriptionProfiling;
+import com.atharion.commons.event.functional.ExpiryTimer;
 import com.atharion.commons.utils.function.LoaderUtils;
+import com.atharion.commons.scheduler.TimingWheel;
 import org.bukkit.Bukkit;
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
@@ -41,6 +45,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 class HelperEventListener<T extends Event> implements SingleSubscription<T>, EventExecutor, Listener {
@@ -49,6 +54,9 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
 
     private final BiConsumer<? super T, Throwable> exceptionConsumer;
 
+    private final Function<? super T, ?> keyExtractor;
+    private final Object key;
+
     private final Predicate<T>[] filters;
     private final BiPredicate<SingleSubscription<T>, T>[] preExpiryTests;
     private final BiPredicate<SingleSubscription<T>, T>[] midExpiryTests;
@@ -58,21 +66,63 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
     private final AtomicLong callCount = new AtomicLong(0);
     private final AtomicBoolean active = new AtomicBoolean(true);
 
+    // where calls are recorded when profiling is enabled, otherwise null
+    private final SubscriptionMetrics metrics;
+
+    private final boolean expires;
+    private final long expiryDeadline;
+    // the timeout which unregisters this subscription at its deadline, if it has one
+    private volatile TimingWheel.Timeout expiry = null;
+
+    // the shared dispatcher or router this subscription was added to, or null if it has its own listener
+    private EventRoute<T> route = null;
+
     @SuppressWarnings("unchecked")
     HelperEventListener(SingleSubscriptionBuilderImpl<T> builder, List<BiConsumer<SingleSubscription<T>, ? super T>> handlers) {
         this.eventClass = builder.eventClass;
         this.priority = builder.priority;
         this.exceptionConsumer = builder.exceptionConsumer;
+        this.expires = builder.expires;
+        this.expiryDeadline = builder.expiryDeadline;
+        this.keyExtractor = builder.keyExtractor;
+        this.key = builder.key;
 
         this.filters = builder.filters.toArray(new Predicate[builder.filters.size()]);
         this.preExpiryTests = builder.preExpiryTests.toArray(new BiPredicate[builder.preExpiryTests.size()]);
         this.midExpiryTests = builder.midExpiryTests.toArray(new BiPredicate[builder.midExpiryTests.size()]);
         this.postExpiryTests = builder.postExpiryTests.toArray(new BiPredicate[builder.postExpiryTests.size()]);
         this.handlers = handlers.toArray(new BiConsumer[handlers.size()]);
+
+        this.metrics = SubscriptionProfiling.ENABLED ? SubscriptionProfiling.track(this.eventClass.getSimpleName()) : null;
     }
 
     void register() {
-        Bukkit.getPluginManager().registerEvent(this.eventClass, this, this.priority, this, LoaderUtils.getPlugin(), false);
+        if (this.keyExtractor != null) {
+            KeyedEventRouter<T> router = KeyedEventRouter.get(this.eventClass, this.priority, this.keyExtractor);
+            this.route = router;
+            router.add(this);
+        } else if (SharedEventDispatcher.isEnabled()) {
+            SharedEventDispatcher.Dispatcher<T> dispatcher = SharedEventDispatcher.get(this.eventClass, this.priority);
+            this.route = dispatcher;
+            dispatcher.add(this);
+        } else {
+            Bukkit.getPluginManager().registerEvent(this.eventClass, this, this.priority, this, LoaderUtils.getPlugin(), false);
+        }
+
+        scheduleExpiry();
+    }
+
+    private void scheduleExpiry() {
+        if (!this.expires) {
+            return;
+        }
+
+        TimingWheel.Timeout expiry = ExpiryTimer.schedule(this, this.expiryDeadline);
+        this.expiry = expiry;
+        // unregister may have raced with scheduling the timeout
+        if (!this.active.get()) {
+            expiry.cancel();
+        }
     }
 
     @Override
@@ -82,10 +132,21 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
             return;
         }
 
+        if (!handle(event)) {
+            event.getHandlers().unregister(listener);
+        }
+    }
+
+    /**
+     * Handles an event, which is already known to be of the subscribed class.
+     *
+     * @param event the event
+     * @return false if the subscription is no longer active, and should be removed
+     */
+    boolean handle(Event event) {
         // this handler is disabled, so unregister from the event.
         if (!this.active.get()) {
-            event.getHandlers().unregister(listener);
-            return;
+            return false;
         }
 
         // obtain the event instance
@@ -94,27 +155,26 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
         // check pre-expiry tests
         for (BiPredicate<SingleSubscription<T>, T> test : this.preExpiryTests) {
             if (test.test(this, eventInstance)) {
-                event.getHandlers().unregister(listener);
-                this.active.set(false);
-                return;
+                expire();
+                return false;
             }
         }
 
         // begin "handling" of the event
+        long start = SubscriptionProfiling.ENABLED ? System.nanoTime() : 0;
         try {
             // check the filters
             for (Predicate<T> filter : this.filters) {
                 if (!filter.test(eventInstance)) {
-                    return;
+                    return true;
                 }
             }
 
             // check mid-expiry tests
             for (BiPredicate<SingleSubscription<T>, T> test : this.midExpiryTests) {
                 if (test.test(this, eventInstance)) {
-                    event.getHandlers().unregister(listener);
-                    this.active.set(false);
-                    return;
+                    expire();
+                    return false;
                 }
             }
 
@@ -127,16 +187,24 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
             this.callCount.incrementAndGet();
         } catch (Throwable t) {
             this.exceptionConsumer.accept(eventInstance, t);
+        } finally {
+            if (SubscriptionProfiling.ENABLED) {
+                this.metrics.record(System.nanoTime() - start);
+            }
         }
 
         // check post-expiry tests
         for (BiPredicate<SingleSubscription<T>, T> test : this.postExpiryTests) {
             if (test.test(this, eventInstance)) {
-                event.getHandlers().unregister(listener);
-                this.active.set(false);
-                return;
+                expire();
+                return false;
             }
         }
+        return true;
+    }
+
+    Object getKey() {
+        return this.key;
     }
 
     @Nonnull
@@ -145,6 +213,21 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
         return this.eventClass;
     }
 
+    /**
+     * Deactivates the subscription, once one of its expiry tests has passed.
+     */
+    private void expire() {
+        this.active.set(false);
+        cancelExpiry();
+    }
+
+    private void cancelExpiry() {
+        TimingWheel.Timeout expiry = this.expiry;
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+
     @Override
     public boolean isActive() {
         return this.active.get();
@@ -167,6 +250,14 @@ class HelperEventListener<T extends Event> implements SingleSubscription<T>, Eve
             return false;
         }
 
+        // release the timeout now, rather than at the deadline
+        cancelExpiry();
+
+        if (this.route != null) {
+            this.route.remove(this);
+            return true;
+        }
+
         // also remove the handler directly, just in case the event has a really low throughput.
         // (the event would also be unregistered next time it's called - but this obviously assumes
         // the event will be called again soon)
@@ -0,0 +1,140 @@
+package com.atharion.commons.event.functional.single;
+
+import com.atharion.commons.utils.function.LoaderUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Routes events to the {@link com.atharion.commons.event.SingleSubscription}s registered for
+ * the key extracted from them.
+ *
+ * <p>A single Bukkit listener is registered for each event class, priority and key extractor.
+ * The key of each event is extracted once, and used to look up the subscriptions for that
+ * key, so the cost of an event only depends on the number of subscriptions which match it.</p>
+ *
+ * @param <T> the event type
+ * @see SingleSubscriptionBuilder#forKey(Function, Object)
+ */
+final class KeyedEventRouter<T extends Event> implements EventExecutor, Listener, EventRoute<T> {
+    private static final Map<RouterKey, KeyedEventRouter<?>> ROUTERS = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    static <T extends Event> KeyedEventRouter<T> get(Class<T> eventClass, EventPriority priority, Function<? super T, ?> keyExtractor) {
+        return (KeyedEventRouter<T>) ROUTERS.computeIfAbsent(new RouterKey(eventClass, priority, keyExtractor), k -> {
+            KeyedEventRouter<T> router = new KeyedEventRouter<>(eventClass, keyExtractor);
+            Bukkit.getPluginManager().registerEvent(eventClass, router, priority, router, LoaderUtils.getPlugin(), false);
+            return router;
+        });
+    }
+
+    private final Class<T> eventClass;
+    private final Function<? super T, ?> keyExtractor;
+
+    // key -> subscriptions. each array is replaced as a whole on change
+    private final Map<Object, HelperEventListener<T>[]> routes = new ConcurrentHashMap<>();
+
+    private KeyedEventRouter(Class<T> eventClass, Function<? super T, ?> keyExtractor) {
+        this.eventClass = eventClass;
+        this.keyExtractor = keyExtractor;
+    }
+
+    @SuppressWarnings("unchecked")
+    void add(HelperEventListener<T> subscription) {
+        this.routes.compute(subscription.getKey(), (key, subscriptions) -> {
+            if (subscriptions == null) {
+                return new HelperEventListener[]{subscription};
+            }
+            HelperEventListener<T>[] copy = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            copy[subscriptions.length] = subscription;
+            return copy;
+        });
+    }
+
+    @Override
+    public void remove(HelperEventListener<T> subscription) {
+        this.routes.computeIfPresent(subscription.getKey(), (key, subscriptions) -> {
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (subscriptions[i] == subscription) {
+                    if (subscriptions.length == 1) {
+                        return null;
+                    }
+                    HelperEventListener<T>[] copy = Arrays.copyOf(subscriptions, subscriptions.length - 1);
+                    System.arraycopy(subscriptions, i + 1, copy, i, subscriptions.length - i - 1);
+                    return copy;
+                }
+            }
+            return subscriptions;
+        });
+    }
+
+    @Override
+    public void execute(@Nonnull Listener listener, @Nonnull Event event) {
+        // check we actually want this event
+        if (event.getClass() != this.eventClass) {
+            return;
+        }
+
+        Object key;
+        try {
+            key = this.keyExtractor.apply(this.eventClass.cast(event));
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return;
+        }
+        if (key == null) {
+            return;
+        }
+
+        HelperEventListener<T>[] subscriptions = this.routes.get(key);
+        if (subscriptions == null) {
+            return;
+        }
+
+        for (HelperEventListener<T> subscription : subscriptions) {
+            try {
+                if (!subscription.handle(event)) {
+                    remove(subscription);
+                }
+            } catch (Throwable t) {
+                // don't let one subscription stop the event reaching the rest
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private static final class RouterKey {
+        private final Class<? extends Event> eventClass;
+        private final EventPriority priority;
+        private final Function<?, ?> keyExtractor;
+
+        private RouterKey(Class<? extends Event> eventClass, EventPriority priority, Function<?, ?> keyExtractor) {
+            this.eventClass = eventClass;
+            this.priority = priority;
+            this.keyExtractor = keyExtractor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RouterKey)) return false;
+            RouterKey other = (RouterKey) o;
+            // extractors are compared by identity - there's no other meaningful way to compare functions
+            return this.eventClass == other.eventClass && this.priority == other.priority && this.keyExtractor == other.keyExtractor;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.eventClass, this.priority, System.identityHashCode(this.keyExtractor));
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.atharion.commons.event.functional.single;
+
+import com.atharion.commons.utils.function.LoaderUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches events to {@link com.atharion.commons.event.SingleSubscription}s through a single
+ * Bukkit listener per event class and priority.
+ *
+ * <p>Normally, each subscription registers its own listener with Bukkit, and registering or
+ * unregistering one causes the event's {@link org.bukkit.event.HandlerList} to be rebuilt.
+ * In shared mode, the listener for an event class and priority is registered once, and
+ * fans out to a copy-on-write array of subscriptions, so subscribing and unsubscribing
+ * never touch the handler list.</p>
+ *
+ * <p>Shared mode is enabled with the {@code atharion.events.sharedDispatch} system property,
+ * or {@link #setEnabled(boolean)}, and applies to subscriptions registered afterwards.
+ * Subscriptions sharing a listener are called in the order they were registered, at the
+ * point the listener was first registered amongst other listeners of the same priority.</p>
+ */
+public final class SharedEventDispatcher {
+    private static volatile boolean enabled = Boolean.getBoolean("atharion.events.sharedDispatch");
+
+    private static final Map<EventPriority, Map<Class<? extends Event>, Dispatcher<?>>> DISPATCHERS = new EnumMap<>(EventPriority.class);
+    static {
+        for (EventPriority priority : EventPriority.values()) {
+            DISPATCHERS.put(priority, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Sets if subscriptions registered from now on should share listeners.
+     *
+     * @param enabled if shared dispatch is enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        SharedEventDispatcher.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Gets the number of shared Bukkit listeners which have been registered.
+     *
+     * @return the number of shared listeners
+     */
+    public static int getListenerCount() {
+        int count = 0;
+        for (Map<Class<? extends Event>, Dispatcher<?>> dispatchers : DISPATCHERS.values()) {
+            count += dispatchers.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of subscriptions currently registered through shared listeners.
+     *
+     * @return the number of subscriptions
+     */
+    public static int getSubscriptionCount() {
+        int count = 0;
+        for (Map<Class<? extends Event>, Dispatcher<?>> dispatchers : DISPATCHERS.values()) {
+            for (Dispatcher<?> dispatcher : dispatchers.values()) {
+                count += dispatcher.subscriptions.length;
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T extends Event> Dispatcher<T> get(Class<T> eventClass, EventPriority priority) {
+        Map<Class<? extends Event>, Dispatcher<?>> dispatchers = DISPATCHERS.get(priority);
+        Dispatcher<?> dispatcher = dispatchers.get(eventClass);
+        if (dispatcher == null) {
+            dispatcher = dispatchers.computeIfAbsent(eventClass, c -> {
+                Dispatcher<T> d = new Dispatcher<>(eventClass);
+                Bukkit.getPluginManager().registerEvent(eventClass, d, priority, d, LoaderUtils.getPlugin(), false);
+                return d;
+            });
+        }
+        return (Dispatcher<T>) dispatcher;
+    }
+
+    static final class Dispatcher<T extends Event> implements EventExecutor, Listener, EventRoute<T> {
+        @SuppressWarnings("rawtypes")
+        private static final HelperEventListener[] EMPTY = new HelperEventListener[0];
+
+        private final Class<T> eventClass;
+
+        // replaced as a whole on each change, so events can be dispatched without locking
+        private volatile HelperEventListener<T>[] subscriptions;
+
+        @SuppressWarnings("unchecked")
+        private Dispatcher(Class<T> eventClass) {
+            this.eventClass = eventClass;
+            this.subscriptions = EMPTY;
+        }
+
+        synchronized void add(HelperEventListener<T> subscription) {
+            HelperEventListener<T>[] subscriptions = Arrays.copyOf(this.subscriptions, this.subscriptions.length + 1);
+            subscriptions[this.subscriptions.length] = subscription;
+            this.subscriptions = subscriptions;
+        }
+
+        @Override
+        public synchronized void remove(HelperEventListener<T> subscription) {
+            HelperEventListener<T>[] subscriptions = this.subscriptions;
+            for (int i = 0; i < subscriptions.length; i++) {
+                if (subscriptions[i] == subscription) {
+                    HelperEventListener<T>[] copy = Arrays.copyOf(subscriptions, subscriptions.length - 1);
+                    System.arraycopy(subscriptions, i + 1, copy, i, subscriptions.length - i - 1);
+                    this.subscriptions = copy;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void execute(@Nonnull Listener listener, @Nonnull Event event) {
+            // check we actually want this event - once, for all subscriptions
+            if (event.getClass() != this.eventClass) {
+                return;
+            }
+
+            for (HelperEventListener<T> subscription : this.subscriptions) {
+                try {
+                    if (!subscription.handle(event)) {
+                        remove(subscription);
+                    }
+                } catch (Throwable t) {
+                    // don't let one subscription stop the event reaching the rest
+                    t.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private SharedEventDispatcher() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -39,6 +39,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 /**
@@ -87,12 +88,7 @@ public interface SingleSubscriptionBuilder<T extends Event> extends Subscription
 
     @Nonnull
     @Override
-    default SingleSubscriptionBuilder<T> expireAfter(long duration, @Nonnull TimeUnit unit) {
-        Objects.requireNonNull(unit, "unit");
-        Preconditions.checkArgument(duration >= 1, "duration < 1");
-        long expiry = Math.addExact(System.currentTimeMillis(), unit.toMillis(duration));
-        return expireIf((handler, event) -> System.currentTimeMillis() > expiry, ExpiryTestStage.PRE);
-    }
+    SingleSubscriptionBuilder<T> expireAfter(long duration, @Nonnull TimeUnit unit);
 
     @Nonnull
     @Override
@@ -105,6 +101,27 @@ public interface SingleSubscriptionBuilder<T extends Event> extends Subscription
     @Override
     SingleSubscriptionBuilder<T> filter(@Nonnull Predicate<T> predicate);
 
+    /**
+     * Only passes events to the handler when the key extracted from them equals the given key.
+     *
+     * <p>This has the same effect as a filter comparing the key, but rather than every
+     * subscription testing every event, events are routed through a single listener per
+     * event class, priority and key extractor, which looks up the subscriptions for the
+     * event's key. The cost of an event then only depends on the number of subscriptions
+     * which match it.</p>
+     *
+     * <p>Subscriptions only share a listener if they use the same extractor instance, so
+     * the extractor should be held in a constant. Events for which the extractor returns
+     * null are ignored.</p>
+     *
+     * @param keyExtractor the function extracting the key from an event, e.g. the player
+     * @param key the key to match
+     * @return the builder instance
+     * @throws NullPointerException if the extractor or key is null
+     */
+    @Nonnull
+    SingleSubscriptionBuilder<T> forKey(@Nonnull Function<? super T, ?> keyExtractor, @Nonnull Object key);
+
     /**
      * Add a expiry predicate.
      *
@@ -27,6 +27,7 @@ package com.atharion.commons.event.functional.single;
 
 import com.atharion.commons.event.SingleSubscription;
 import com.atharion.commons.event.functional.ExpiryTestStage;
+import com.atharion.commons.event.functional.ExpiryTimer;
 
 import org.bukkit.event.Event;
 import org.bukkit.event.EventPriority;
@@ -34,8 +35,10 @@ import org.bukkit.event.EventPriority;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnull;
@@ -46,6 +49,12 @@ class SingleSubscriptionBuilderImpl<T extends Event> implements SingleSubscripti
 
     BiConsumer<? super T, Throwable> exceptionConsumer = DEFAULT_EXCEPTION_CONSUMER;
 
+    boolean expires = false;
+    long expiryDeadline = 0;
+
+    Function<? super T, ?> keyExtractor = null;
+    Object key = null;
+
     final List<Predicate<T>> filters = new ArrayList<>(3);
     final List<BiPredicate<SingleSubscription<T>, T>> preExpiryTests = new ArrayList<>(0);
     final List<BiPredicate<SingleSubscription<T>, T>> midExpiryTests = new ArrayList<>(0);
@@ -79,6 +88,18 @@ class SingleSubscriptionBuilderImpl<T extends Event> implements SingleSubscripti
         return this;
     }
 
+    @Nonnull
+    @Override
+    public SingleSubscriptionBuilder<T> expireAfter(long duration, @Nonnull TimeUnit unit) {
+        long deadline = ExpiryTimer.deadline(duration, unit);
+        // keep the earliest deadline
+        if (!this.expires || deadline - this.expiryDeadline < 0) {
+            this.expires = true;
+            this.expiryDeadline = deadline;
+        }
+        return this;
+    }
+
     @Nonnull
     @Override
     public SingleSubscriptionBuilder<T> filter(@Nonnull Predicate<T> predicate) {
@@ -87,6 +108,16 @@ class SingleSubscriptionBuilderImpl<T extends Event> implements SingleSubscripti
         return this;
     }
 
+    @Nonnull
+    @Override
+    public SingleSubscriptionBuilder<T> forKey(@Nonnull Function<? super T, ?> keyExtractor, @Nonnull Object key) {
+        Objects.requireNonNull(keyExtractor, "keyExtractor");
+        Objects.requireNonNull(key, "key");
+        this.keyExtractor = keyExtractor;
+        this.key = key;
+        return this;
+    }
+
     @Nonnull
     @Override
     public SingleSubscriptionBuilder<T> exceptionConsumer(@Nonnull BiConsumer<? super T, Throwable> exceptionConsumer) {
@@ -32,16 +32,19 @@ import com.atharion.commons.terminable.composite.CompositeTerminable;
 import com.atharion.commons.utils.text.Text;
 import com.google.common.base.Preconditions;
 import org.bukkit.Bukkit;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryEvent;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -56,6 +59,10 @@ import java.util.function.Function;
  */
 public abstract class Gui implements TerminableConsumer {
 
+    // Shared key extractors, so the listeners of every open GUI route through one listener per event
+    private static final Function<InventoryEvent, InventoryHolder> INVENTORY_HOLDER = e -> e.getInventory().getHolder();
+    private static final Function<InventoryCloseEvent, HumanEntity> CLOSING_PLAYER = InventoryCloseEvent::getPlayer;
+
     /**
      * Utility method to get the number of lines needed for x items
      *
@@ -299,8 +306,7 @@ public abstract class Gui implements TerminableConsumer {
                 .bindWith(this);
 
         Events.subscribe(InventoryDragEvent.class)
-                .filter(e -> e.getInventory().getHolder() != null)
-                .filter(e -> e.getInventory().getHolder().equals(this.player))
+                .forKey(INVENTORY_HOLDER, this.player)
                 .handler(e -> {
                     e.setCancelled(true);
                     if (!isValid()) {
@@ -309,8 +315,7 @@ public abstract class Gui implements TerminableConsumer {
                 }).bindWith(this);
 
         Events.subscribe(InventoryClickEvent.class)
-                .filter(e -> e.getInventory().getHolder() != null)
-                .filter(e -> e.getInventory().getHolder().equals(this.player))
+                .forKey(INVENTORY_HOLDER, this.player)
                 .handler(e -> {
                     e.setCancelled(true);
 
@@ -333,7 +338,7 @@ public abstract class Gui implements TerminableConsumer {
                 .bindWith(this);
 
         Events.subscribe(InventoryCloseEvent.class)
-                .filter(e -> e.getPlayer().equals(this.player))
+                .forKey(CLOSING_PLAYER, this.player)
                 .filter(e -> e.getInventory().equals(this.inventory))
                 .filter(e -> isValid())
                 .handler(e -> {
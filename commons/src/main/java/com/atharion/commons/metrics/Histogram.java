@@ -0,0 +1,189 @@
+package com.atharion.commons.metrics;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations, recorded in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets - each power of two is split into
+ * eight buckets, so percentiles are accurate to within 12.5%. The last, mean and
+ * max values are exact.</p>
+ */
+public final class Histogram {
+    // each power of two is split into 2^SUB_BITS buckets
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+    private volatile long last = 0;
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        this.counts.incrementAndGet(index(nanos));
+        this.count.increment();
+        this.total.add(nanos);
+        this.last = nanos;
+
+        long max;
+        while (nanos > (max = this.max.get())) {
+            if (this.max.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Gets the sum of all recorded durations.
+     *
+     * @param unit the unit to return the total in
+     * @return the total
+     */
+    public long getTotal(@Nonnull TimeUnit unit) {
+        return unit.convert(this.total.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the most recently recorded duration.
+     *
+     * @param unit the unit to return the duration in
+     * @return the last duration
+     */
+    public long getLast(@Nonnull TimeUnit unit) {
+        return unit.convert(this.last, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the longest recorded duration.
+     *
+     * @param unit the unit to return the duration in
+     * @return the max duration
+     */
+    public long getMax(@Nonnull TimeUnit unit) {
+        return unit.convert(this.max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the mean recorded duration, in nanoseconds.
+     *
+     * @return the mean duration
+     */
+    public double getMeanNanos() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) this.total.sum() / count;
+    }
+
+    /**
+     * Gets the mean recorded duration.
+     *
+     * @param unit the unit to return the duration in
+     * @return the mean duration
+     */
+    public long getMean(@Nonnull TimeUnit unit) {
+        return unit.convert((long) getMeanNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets an estimate of the given percentile of the recorded durations.
+     *
+     * <p>The returned value is the upper bound of the bucket the percentile falls in,
+     * capped at the max duration.</p>
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @param unit the unit to return the duration in
+     * @return the duration
+     */
+    public long getPercentile(double percentile, @Nonnull TimeUnit unit) {
+        Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max((long) Math.ceil(count * percentile / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                long value = Math.min(upperBound(i), this.max.get());
+                return unit.convert(value, TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(this.max.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Clears all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+        this.total.reset();
+        this.max.set(0);
+        this.last = 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exponent = (index >>> SUB_BITS) + SUB_BITS - 1;
+        long sub = index & (SUB_COUNT - 1);
+        long lower = (SUB_COUNT + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram(" +
+                "count=" + getCount() +
+                ", last=" + this.last +
+                ", mean=" + (long) getMeanNanos() +
+                ", max=" + this.max.get() +
+                ", p50=" + getPercentile(50, TimeUnit.NANOSECONDS) +
+                ", p99=" + getPercentile(99, TimeUnit.NANOSECONDS) + ")";
+    }
+}
@@ -0,0 +1,118 @@
+package com.atharion.commons.profiler;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Aggregates sampled stack traces into a tree of call frames.
+ *
+ * <p>Frames are identified by class and method name only, so samples taken at
+ * different lines of the same method are merged.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public final class CallTree {
+    private final Node root = new Node("root");
+    private long samples = 0;
+
+    /**
+     * Adds a sampled stack trace to the tree.
+     *
+     * @param stack the stack trace, innermost frame first (as returned by {@link Thread#getStackTrace()})
+     */
+    public void add(@Nonnull StackTraceElement[] stack) {
+        Objects.requireNonNull(stack, "stack");
+        if (stack.length == 0) {
+            return;
+        }
+
+        this.samples++;
+        Node node = this.root;
+        node.total++;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            node = node.child(frameName(stack[i]));
+            node.total++;
+        }
+        node.self++;
+    }
+
+    /**
+     * Removes all samples from the tree.
+     */
+    public void clear() {
+        this.root.children.clear();
+        this.root.total = 0;
+        this.root.self = 0;
+        this.samples = 0;
+    }
+
+    /**
+     * Gets the number of samples added to the tree.
+     *
+     * @return the sample count
+     */
+    public long getSampleCount() {
+        return this.samples;
+    }
+
+    /**
+     * Writes the tree in the collapsed stack format, with one line per unique stack:
+     * the frames from outermost to innermost separated by {@code ;}, followed by a
+     * space and the number of samples.
+     *
+     * @param writer the writer
+     * @throws IOException if an error occurs whilst writing
+     */
+    public void writeCollapsed(@Nonnull Writer writer) throws IOException {
+        Objects.requireNonNull(writer, "writer");
+        List<String> path = new ArrayList<>();
+        for (Node child : this.root.children.values()) {
+            writeCollapsed(child, path, writer);
+        }
+        writer.flush();
+    }
+
+    private static void writeCollapsed(Node node, List<String> path, Writer writer) throws IOException {
+        path.add(node.name);
+        if (node.self > 0) {
+            writer.write(String.join(";", path));
+            writer.write(' ');
+            writer.write(Long.toString(node.self));
+            writer.write('\n');
+        }
+        for (Node child : node.children.values()) {
+            writeCollapsed(child, path, writer);
+        }
+        path.remove(path.size() - 1);
+    }
+
+    private static String frameName(StackTraceElement element) {
+        return element.getClassName() + "." + element.getMethodName();
+    }
+
+    private static final class Node {
+        private final String name;
+        private final Map<String, Node> children = new HashMap<>();
+        private long total = 0;
+        private long self = 0;
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        Node child(String name) {
+            Node child = this.children.get(name);
+            if (child == null) {
+                child = new Node(name);
+                this.children.put(name, child);
+            }
+            return child;
+        }
+    }
+}
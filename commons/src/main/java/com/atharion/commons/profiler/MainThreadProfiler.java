@@ -0,0 +1,341 @@
+package com.atharion.commons.profiler;
+
+import com.atharion.commons.Schedulers;
+import com.atharion.commons.concurrent.promise.Promise;
+import com.atharion.commons.scheduler.Task;
+import com.atharion.commons.terminable.Terminable;
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for the main server thread.
+ *
+ * <p>While running, a daemon thread takes a stack trace of the main thread at a fixed
+ * interval. Samples are aggregated into a {@link CallTree} covering the whole session,
+ * and the samples from any tick which takes longer than the spike threshold are kept
+ * as a {@link SpikeReport}.</p>
+ *
+ * <p>Ticks are measured between consecutive runs of a marker task, so a tick which
+ * doesn't lag is seen as 50ms long. Thresholds should be set above this.</p>
+ *
+ * <p>Samples taken whilst the main thread is waiting for the next tick are ignored. Samples
+ * taken whilst it is blocked during a tick, e.g. waiting for a chunk load or a lock, are kept.</p>
+ */
+public final class MainThreadProfiler implements Terminable {
+    // the default interval between samples
+    public static final long DEFAULT_INTERVAL_MILLIS = Long.getLong("atharion.profiler.interval", 5);
+    // the default tick duration above which a spike report is captured
+    public static final long DEFAULT_SPIKE_THRESHOLD_MILLIS = Long.getLong("atharion.profiler.spikeThreshold", 100);
+    // the max number of spike reports kept in memory
+    private static final int MAX_SPIKE_REPORTS = 20;
+
+    // the classes of the server's main loop and task queue, which the main thread waits in between ticks
+    private static final Set<String> TICK_LOOP_CLASSES = ImmutableSet.of("MinecraftServer", "DedicatedServer", "IAsyncTaskHandler", "IAsyncTaskHandlerReentrant");
+    // the methods of the main loop which wait for the next tick
+    private static final Set<String> TICK_WAIT_METHODS = ImmutableSet.of("sleepForTick", "run");
+
+    private final File directory;
+
+    // the call tree for the whole session. guarded by itself
+    private final CallTree tree = new CallTree();
+    // guarded by itself
+    private final Deque<SpikeReport> spikes = new ArrayDeque<>();
+
+    private volatile Session session = null;
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param directory the directory reports are written to
+     */
+    public MainThreadProfiler(@Nonnull File directory) {
+        this.directory = Objects.requireNonNull(directory, "directory");
+    }
+
+    /**
+     * Starts the profiler with the default interval and threshold.
+     */
+    public void start() {
+        start(DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_SPIKE_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the profiler, stopping it first if it is already running.
+     *
+     * @param interval the interval between samples
+     * @param intervalUnit the unit of interval
+     * @param spikeThreshold the tick duration above which a spike report is captured
+     * @param spikeThresholdUnit the unit of spikeThreshold
+     */
+    public synchronized void start(long interval, @Nonnull TimeUnit intervalUnit, long spikeThreshold, @Nonnull TimeUnit spikeThresholdUnit) {
+        Objects.requireNonNull(intervalUnit, "intervalUnit");
+        Objects.requireNonNull(spikeThresholdUnit, "spikeThresholdUnit");
+        Preconditions.checkArgument(interval > 0, "interval <= 0");
+        Preconditions.checkArgument(spikeThreshold > 0, "spikeThreshold <= 0");
+
+        Thread mainThread = LoaderUtils.getMainThread();
+        if (mainThread == null) {
+            throw new IllegalStateException("Main thread is not known yet");
+        }
+
+        stop();
+        this.session = new Session(mainThread, intervalUnit.toNanos(interval), spikeThresholdUnit.toNanos(spikeThreshold));
+    }
+
+    /**
+     * Stops the profiler. Samples collected so far are kept.
+     */
+    public synchronized void stop() {
+        Session session = this.session;
+        if (session != null) {
+            session.stop();
+            this.session = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return this.session != null;
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Clears the samples & spike reports collected so far.
+     */
+    public void reset() {
+        synchronized (this.tree) {
+            this.tree.clear();
+        }
+        synchronized (this.spikes) {
+            this.spikes.clear();
+        }
+    }
+
+    /**
+     * Gets the number of samples in the session call tree.
+     *
+     * @return the sample count
+     */
+    public long getSampleCount() {
+        synchronized (this.tree) {
+            return this.tree.getSampleCount();
+        }
+    }
+
+    /**
+     * Gets the spike reports currently held in memory, oldest first.
+     *
+     * @return the spike reports
+     */
+    @Nonnull
+    public List<SpikeReport> getSpikeReports() {
+        synchronized (this.spikes) {
+            return new ArrayList<>(this.spikes);
+        }
+    }
+
+    /**
+     * Writes the session call tree to the report directory, in the collapsed stack format.
+     *
+     * @return a promise of the written file
+     */
+    @Nonnull
+    public Promise<File> dump() {
+        // serialize under the lock, then write the file off the lock, so sampling isn't held up by io
+        StringWriter out = new StringWriter();
+        synchronized (this.tree) {
+            try {
+                this.tree.writeCollapsed(out);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = new File(this.directory, "profile-" + time + ".txt");
+        return Schedulers.io().call(() -> {
+            this.directory.mkdirs();
+            try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+                writer.write(out.toString());
+            }
+            return file;
+        });
+    }
+
+    /**
+     * Writes the spike reports held in memory to the report directory, and removes them from memory.
+     *
+     * @return a promise of the written files
+     */
+    @Nonnull
+    public Promise<List<File>> writeSpikeReports() {
+        List<SpikeReport> reports;
+        synchronized (this.spikes) {
+            reports = new ArrayList<>(this.spikes);
+            this.spikes.clear();
+        }
+
+        return Schedulers.io().call(() -> {
+            List<File> files = new ArrayList<>(reports.size());
+            for (SpikeReport report : reports) {
+                files.add(report.writeTo(this.directory));
+            }
+            return files;
+        });
+    }
+
+    private void addSample(StackTraceElement[] stack) {
+        synchronized (this.tree) {
+            this.tree.add(stack);
+        }
+    }
+
+    private void addSpike(SpikeReport report) {
+        synchronized (this.spikes) {
+            this.spikes.addLast(report);
+            while (this.spikes.size() > MAX_SPIKE_REPORTS) {
+                this.spikes.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * A running profiler session - a sampler thread, and a marker task on the main thread.
+     */
+    private final class Session implements Runnable {
+        private final Thread mainThread;
+        private final long intervalNanos;
+        private final long spikeThresholdNanos;
+
+        private final Thread sampler;
+        private final Task marker;
+
+        // the samples taken since the last tick marker
+        private final AtomicReference<TickBuffer> current = new AtomicReference<>(new TickBuffer());
+        private long lastTick = System.nanoTime();
+
+        private volatile boolean running = true;
+
+        Session(Thread mainThread, long intervalNanos, long spikeThresholdNanos) {
+            this.mainThread = mainThread;
+            this.intervalNanos = intervalNanos;
+            this.spikeThresholdNanos = spikeThresholdNanos;
+
+            this.sampler = new Thread(this, "atharion-profiler");
+            this.sampler.setDaemon(true);
+            this.sampler.start();
+
+            this.marker = Schedulers.sync().runRepeating("atharion-profiler-marker", t -> onTick(), 1L, 1L);
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                long next = System.nanoTime() + this.intervalNanos;
+
+                Thread.State state = this.mainThread.getState();
+                StackTraceElement[] stack = this.mainThread.getStackTrace();
+
+                // don't count time spent waiting for the next tick
+                if (stack.length != 0 && (state == Thread.State.RUNNABLE || !isWaitingForTick(stack))) {
+                    this.current.get().add(stack);
+                    addSample(stack);
+                }
+
+                long wait;
+                while (this.running && (wait = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+
+        // if the (non-runnable) main thread is waiting in the server's main loop for the next tick,
+        // rather than blocked during a tick. a wait for a chunk load also parks in the task queue,
+        // but is reached through the world rather than straight from the main loop.
+        private boolean isWaitingForTick(StackTraceElement[] stack) {
+            for (StackTraceElement element : stack) {
+                String className = element.getClassName();
+                if (className.startsWith("java.") || className.startsWith("jdk.") || className.startsWith("sun.")) {
+                    continue;
+                }
+
+                String simpleName = className.substring(className.lastIndexOf('.') + 1);
+                if (!TICK_LOOP_CLASSES.contains(simpleName)) {
+                    return false;
+                }
+                if (simpleName.equals("MinecraftServer") && TICK_WAIT_METHODS.contains(element.getMethodName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // called on the main thread, once per tick
+        private void onTick() {
+            long now = System.nanoTime();
+            long duration = now - this.lastTick;
+            this.lastTick = now;
+
+            List<StackTraceElement[]> samples = this.current.getAndSet(new TickBuffer()).seal();
+            if (duration < this.spikeThresholdNanos || samples.isEmpty()) {
+                return;
+            }
+
+            CallTree tree = new CallTree();
+            for (StackTraceElement[] stack : samples) {
+                tree.add(stack);
+            }
+            addSpike(new SpikeReport(System.currentTimeMillis(), duration, tree));
+        }
+
+        void stop() {
+            this.running = false;
+            LockSupport.unpark(this.sampler);
+            this.marker.stop();
+        }
+    }
+
+    /**
+     * The samples taken during a single tick.
+     */
+    private static final class TickBuffer {
+        private final List<StackTraceElement[]> samples = new ArrayList<>();
+        private boolean sealed = false;
+
+        synchronized void add(StackTraceElement[] stack) {
+            // the sampler may still hold a reference to the buffer after it has been swapped out
+            if (!this.sealed) {
+                this.samples.add(stack);
+            }
+        }
+
+        synchronized List<StackTraceElement[]> seal() {
+            this.sealed = true;
+            return this.samples;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.atharion.commons.profiler;
+
+import com.atharion.commons.Commands;
+import com.atharion.commons.command.Command;
+import com.atharion.commons.command.context.CommandContext;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The command used to control a {@link MainThreadProfiler}.
+ *
+ * <pre>
+ * /profiler start [intervalMillis] [spikeThresholdMillis]
+ * /profiler stop
+ * /profiler dump
+ * /profiler spikes
+ * /profiler reset
+ * </pre>
+ */
+public final class ProfilerCommand {
+    public static final String PERMISSION = "atharion.profiler";
+
+    /**
+     * Creates the command for the given profiler.
+     *
+     * @param profiler the profiler
+     * @return the command, ready to be registered
+     */
+    @Nonnull
+    public static Command create(@Nonnull MainThreadProfiler profiler) {
+        Objects.requireNonNull(profiler, "profiler");
+        return Commands.create()
+                .assertPermission(PERMISSION)
+                .handler(c -> handle(profiler, c));
+    }
+
+    private static void handle(MainThreadProfiler profiler, CommandContext<CommandSender> c) {
+        String action = c.rawArg(0) == null ? "status" : c.rawArg(0).toLowerCase(Locale.ROOT);
+        switch (action) {
+            case "start": {
+                long interval = c.arg(1).isPresent() ? c.arg(1).parse(Long.class).orElse(-1L) : MainThreadProfiler.DEFAULT_INTERVAL_MILLIS;
+                long threshold = c.arg(2).isPresent() ? c.arg(2).parse(Long.class).orElse(-1L) : MainThreadProfiler.DEFAULT_SPIKE_THRESHOLD_MILLIS;
+                if (interval <= 0 || threshold <= 0) {
+                    c.reply("&cThe interval and threshold must be positive numbers.");
+                    return;
+                }
+
+                profiler.start(interval, TimeUnit.MILLISECONDS, threshold, TimeUnit.MILLISECONDS);
+                c.reply("&aProfiler started, sampling every " + interval + "ms with a spike threshold of " + threshold + "ms.");
+                break;
+            }
+            case "stop":
+                profiler.stop();
+                c.reply("&aProfiler stopped after " + profiler.getSampleCount() + " samples.");
+                break;
+            case "dump":
+                profiler.dump().thenAcceptSync(file -> c.reply("&aWrote profile to " + file.getPath()));
+                break;
+            case "spikes":
+                profiler.writeSpikeReports().thenAcceptSync(files -> c.reply("&aWrote " + files.size() + " spike reports."));
+                break;
+            case "reset":
+                profiler.reset();
+                c.reply("&aCleared profiler samples.");
+                break;
+            case "status":
+                c.reply("&7Profiler is " + (profiler.isRunning() ? "&arunning" : "&cstopped") + "&7, with " +
+                        profiler.getSampleCount() + " samples and " + profiler.getSpikeReports().size() + " spike reports.");
+                break;
+            default:
+                c.reply("&cUsage: /" + c.label() + " <start|stop|dump|spikes|reset|status>");
+                break;
+        }
+    }
+
+    private ProfilerCommand() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
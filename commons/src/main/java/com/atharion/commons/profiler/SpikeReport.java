@@ -0,0 +1,94 @@
+package com.atharion.commons.profiler;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The main thread samples captured during a single slow tick.
+ */
+public final class SpikeReport {
+    private final long timestamp;
+    private final long durationNanos;
+    private final CallTree tree;
+
+    SpikeReport(long timestamp, long durationNanos, CallTree tree) {
+        this.timestamp = timestamp;
+        this.durationNanos = durationNanos;
+        this.tree = tree;
+    }
+
+    /**
+     * Gets the time the tick ended, in milliseconds since the epoch.
+     *
+     * @return the timestamp
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Gets how long the tick took.
+     *
+     * @param unit the unit to return the duration in
+     * @return the duration
+     */
+    public long getDuration(@Nonnull TimeUnit unit) {
+        return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the samples taken during the tick.
+     *
+     * @return the call tree
+     */
+    @Nonnull
+    public CallTree getTree() {
+        return this.tree;
+    }
+
+    /**
+     * Gets a file name for this report, containing the time and duration of the tick.
+     *
+     * @return a file name
+     */
+    @Nonnull
+    public String getFileName() {
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(this.timestamp));
+        return "spike-" + time + "-" + getDuration(TimeUnit.MILLISECONDS) + "ms.txt";
+    }
+
+    /**
+     * Writes the report to a file in the given directory, in the collapsed stack format.
+     *
+     * @param directory the directory
+     * @return the file written
+     * @throws IOException if an error occurs whilst writing
+     */
+    @Nonnull
+    public File writeTo(@Nonnull File directory) throws IOException {
+        Objects.requireNonNull(directory, "directory");
+        directory.mkdirs();
+        File file = new File(directory, getFileName());
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            this.tree.writeCollapsed(writer);
+        }
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "SpikeReport(" +
+                "timestamp=" + this.timestamp +
+                ", duration=" + getDuration(TimeUnit.MILLISECONDS) + "ms" +
+                ", samples=" + this.tree.getSampleCount() + ")";
+    }
+}
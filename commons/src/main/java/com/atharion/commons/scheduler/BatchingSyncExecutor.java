@@ -0,0 +1,178 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.google.common.base.Preconditions;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link Executor} which runs tasks on the main server thread by queueing them,
+ * and draining the queue once per tick from a single repeating task.
+ *
+ * <p>Unlike {@link HelperExecutors#sync()} in its default mode, submitting a task does not
+ * create a new Bukkit task, so the cost of a submission is a single lock-free queue insert.</p>
+ *
+ * <p>Each tick, queued tasks are executed in submission order until the tick budget is used up.
+ * Remaining tasks are carried over to the next tick. At least one task is executed per tick,
+ * so the queue always makes progress.</p>
+ *
+ * <p>Once the executor has been shutdown, tasks are rejected with a
+ * {@link RejectedExecutionException}.</p>
+ */
+public final class BatchingSyncExecutor implements Executor {
+    // the default amount of time the executor may spend running tasks each tick
+    public static final long DEFAULT_TICK_BUDGET_MILLIS = 10;
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    // the number of tasks in the queue. ConcurrentLinkedQueue#size is O(n), so we track it ourselves
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final AtomicLong executed = new AtomicLong(0);
+    private final AtomicLong carriedOver = new AtomicLong(0);
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile BukkitTask drainTask = null;
+    private volatile boolean shutdown = false;
+
+    private volatile long tickBudgetNanos;
+
+    public BatchingSyncExecutor(long tickBudget, @Nonnull TimeUnit unit) {
+        setTickBudget(tickBudget, unit);
+    }
+
+    public BatchingSyncExecutor() {
+        this(DEFAULT_TICK_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        if (this.shutdown) {
+            throw new RejectedExecutionException("Task " + runnable + " rejected, as the executor has been shutdown");
+        }
+
+        Runnable wrapped = HelperExecutors.wrapRunnable(runnable);
+        this.queue.offer(wrapped);
+        this.pending.incrementAndGet();
+
+        // shutdown may have drained the queue between the check and the offer, in which
+        // case the task would never run
+        if (this.shutdown && this.queue.remove(wrapped)) {
+            this.pending.decrementAndGet();
+            throw new RejectedExecutionException("Task " + runnable + " rejected, as the executor has been shutdown");
+        }
+        ensureStarted();
+    }
+
+    private void ensureStarted() {
+        if (this.started.get() || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+        this.drainTask = Bukkit.getScheduler().runTaskTimer(LoaderUtils.getPlugin(), this::drain, 0L, 1L);
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        long budget = this.tickBudgetNanos;
+
+        Runnable runnable;
+        while ((runnable = this.queue.poll()) != null) {
+            this.pending.decrementAndGet();
+            runnable.run();
+            this.executed.incrementAndGet();
+
+            if (System.nanoTime() - start >= budget) {
+                break;
+            }
+        }
+
+        int remaining = this.pending.get();
+        if (remaining > 0) {
+            this.carriedOver.addAndGet(remaining);
+        }
+    }
+
+    /**
+     * Sets the amount of time the executor may spend running tasks each tick.
+     *
+     * @param tickBudget the budget
+     * @param unit the unit of the budget
+     */
+    public void setTickBudget(long tickBudget, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(tickBudget >= 0, "tickBudget < 0");
+        this.tickBudgetNanos = unit.toNanos(tickBudget);
+    }
+
+    /**
+     * Gets the amount of time the executor may spend running tasks each tick.
+     *
+     * @param unit the unit to return the budget in
+     * @return the tick budget
+     */
+    public long getTickBudget(@Nonnull TimeUnit unit) {
+        return unit.convert(this.tickBudgetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the number of tasks currently waiting to be executed.
+     *
+     * @return the number of queued tasks
+     */
+    public int getQueuedCount() {
+        return this.pending.get();
+    }
+
+    /**
+     * Gets the total number of tasks executed by this executor.
+     *
+     * @return the number of executed tasks
+     */
+    public long getExecutedCount() {
+        return this.executed.get();
+    }
+
+    /**
+     * Gets the total number of times a task was carried over to the next tick
+     * because the tick budget had been used up.
+     *
+     * @return the number of carried over tasks
+     */
+    public long getCarriedOverCount() {
+        return this.carriedOver.get();
+    }
+
+    /**
+     * Stops the drain task, and rejects any further tasks. If called from the main thread,
+     * any remaining tasks are executed immediately, regardless of the tick budget.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+
+        BukkitTask task = this.drainTask;
+        if (task != null) {
+            task.cancel();
+            this.drainTask = null;
+        }
+
+        if (Bukkit.isPrimaryThread()) {
+            Runnable runnable;
+            while ((runnable = this.queue.poll()) != null) {
+                this.pending.decrementAndGet();
+                runnable.run();
+                this.executed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.event.Events;
+import com.atharion.commons.metrics.Histogram;
+import com.atharion.commons.terminable.composite.CompositeTerminable;
+import com.atharion.commons.utils.function.Delegate;
+import com.atharion.commons.world.ChunkPosition;
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs repeating tasks which are bound to a chunk or an entity, and only run while
+ * it is loaded.
+ *
+ * <p>While its chunk is unloaded or its entity is removed from the world, a task is
+ * suspended - its underlying repeating task is stopped, so it costs nothing. It is
+ * rescheduled when the chunk loads or the entity is added back.</p>
+ *
+ * <p>Tasks are indexed by chunk key and entity uuid, and a single set of listeners
+ * is shared between all of them. The index is only accessed on the main thread.</p>
+ *
+ * @see Scheduler#runRepeating(ChunkPosition, String, Consumer, long, long)
+ * @see Scheduler#runRepeating(Entity, String, Consumer, long, long)
+ */
+public final class BoundTaskIndex {
+
+    // world name -> chunk key -> tasks
+    private final Map<String, Map<Long, List<BoundTask>>> chunkTasks = new HashMap<>();
+    private final Map<UUID, List<BoundTask>> entityTasks = new HashMap<>();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CompositeTerminable listeners = CompositeTerminable.create();
+    // whether entity removal is signalled by events, rather than checked on each run
+    private volatile boolean entityEvents = false;
+
+    BoundTaskIndex() {
+
+    }
+
+    /**
+     * Schedules a repeating task which only runs while the given chunk is loaded.
+     *
+     * @param scheduler the scheduler to run the task with
+     * @param chunk the chunk
+     * @param name the name of the task
+     * @param consumer the task
+     * @param delayTicks the initial delay in ticks
+     * @param intervalTicks the interval in ticks
+     * @return the task
+     */
+    @Nonnull
+    public Task bind(@Nonnull Scheduler scheduler, @Nonnull ChunkPosition chunk, @Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        Objects.requireNonNull(chunk, "chunk");
+        BoundTask task = new BoundTask(scheduler, name, consumer, intervalTicks, chunk, null);
+        onMainThread(() -> {
+            start();
+            this.chunkTasks.computeIfAbsent(chunk.getWorld(), w -> new HashMap<>())
+                    .computeIfAbsent(chunk.condensed(), k -> new ArrayList<>())
+                    .add(task);
+
+            World world = Bukkit.getWorld(chunk.getWorld());
+            if (world != null && world.isChunkLoaded(chunk.getX(), chunk.getZ())) {
+                task.resume(delayTicks);
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Schedules a repeating task which only runs while the given entity is in the world.
+     *
+     * <p>The task stops for good once the entity dies, unless it is a player. Tasks bound
+     * to a player are suspended while they are offline, and resumed when they rejoin.</p>
+     *
+     * @param scheduler the scheduler to run the task with
+     * @param entity the entity
+     * @param name the name of the task
+     * @param consumer the task
+     * @param delayTicks the initial delay in ticks
+     * @param intervalTicks the interval in ticks
+     * @return the task
+     */
+    @Nonnull
+    public Task bind(@Nonnull Scheduler scheduler, @Nonnull Entity entity, @Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        Objects.requireNonNull(entity, "entity");
+        BoundTask task = new BoundTask(scheduler, name, consumer, intervalTicks, null, entity);
+        onMainThread(() -> {
+            start();
+            this.entityTasks.computeIfAbsent(entity.getUniqueId(), u -> new ArrayList<>()).add(task);
+            if (entity.isValid()) {
+                task.resume(delayTicks);
+            }
+        });
+        return task;
+    }
+
+    private void start() {
+        if (this.started.get() || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+
+        Events.subscribe(ChunkLoadEvent.class, EventPriority.MONITOR)
+                .handler(e -> onChunk(e.getChunk(), true))
+                .bindWith(this.listeners);
+        Events.subscribe(ChunkUnloadEvent.class, EventPriority.MONITOR)
+                .handler(e -> onChunk(e.getChunk(), false))
+                .bindWith(this.listeners);
+
+        if (isPaper()) {
+            this.entityEvents = true;
+            PaperEntityListener.subscribe(this, this.listeners);
+        } else {
+            // without paper, players are still followed by uuid as they quit and rejoin
+            Events.subscribe(PlayerJoinEvent.class, EventPriority.MONITOR)
+                    .handler(e -> onEntity(e.getPlayer(), true))
+                    .bindWith(this.listeners);
+            Events.subscribe(PlayerQuitEvent.class, EventPriority.MONITOR)
+                    .handler(e -> onEntity(e.getPlayer(), false))
+                    .bindWith(this.listeners);
+        }
+    }
+
+    private static boolean isPaper() {
+        try {
+            Class.forName("com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void onChunk(Chunk chunk, boolean loaded) {
+        Map<Long, List<BoundTask>> world = this.chunkTasks.get(chunk.getWorld().getName());
+        if (world == null) {
+            return;
+        }
+
+        long key = (long) chunk.getX() & 0xffffffffL | ((long) chunk.getZ() & 0xffffffffL) << 32;
+        List<BoundTask> tasks = world.get(key);
+        if (tasks == null) {
+            return;
+        }
+
+        for (BoundTask task : tasks) {
+            if (loaded) {
+                task.resume(task.intervalTicks);
+            } else {
+                task.suspend();
+            }
+        }
+    }
+
+    private void onEntity(Entity entity, boolean added) {
+        List<BoundTask> tasks = this.entityTasks.get(entity.getUniqueId());
+        if (tasks == null) {
+            return;
+        }
+
+        boolean dead = !added && entity.isDead() && !(entity instanceof Player);
+        for (BoundTask task : new ArrayList<>(tasks)) {
+            if (dead) {
+                task.stop();
+            } else if (added) {
+                // a player who rejoins is a new entity instance, with the same uuid
+                task.entity = entity;
+                task.resume(task.intervalTicks);
+            } else {
+                task.suspend();
+            }
+        }
+    }
+
+    private void remove(BoundTask task) {
+        if (task.chunk != null) {
+            Map<Long, List<BoundTask>> world = this.chunkTasks.get(task.chunk.getWorld());
+            if (world != null) {
+                List<BoundTask> tasks = world.get(task.chunk.condensed());
+                if (tasks != null && tasks.remove(task) && tasks.isEmpty()) {
+                    world.remove(task.chunk.condensed());
+                    if (world.isEmpty()) {
+                        this.chunkTasks.remove(task.chunk.getWorld());
+                    }
+                }
+            }
+        } else {
+            UUID uuid = task.entity.getUniqueId();
+            List<BoundTask> tasks = this.entityTasks.get(uuid);
+            if (tasks != null && tasks.remove(task) && tasks.isEmpty()) {
+                this.entityTasks.remove(uuid);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of bound tasks, including suspended ones.
+     *
+     * <p>Should only be called from the main thread.</p>
+     *
+     * @return the number of bound tasks
+     */
+    public int getTaskCount() {
+        int count = 0;
+        for (Map<Long, List<BoundTask>> world : this.chunkTasks.values()) {
+            for (List<BoundTask> tasks : world.values()) {
+                count += tasks.size();
+            }
+        }
+        for (List<BoundTask> tasks : this.entityTasks.values()) {
+            count += tasks.size();
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        this.listeners.closeAndReportException();
+    }
+
+    private static void onMainThread(Runnable runnable) {
+        if (Bukkit.isPrimaryThread()) {
+            runnable.run();
+        } else {
+            HelperExecutors.sync(TaskPriority.CRITICAL).execute(runnable);
+        }
+    }
+
+    /**
+     * A task which is suspended whilst the chunk or entity it is bound to is unloaded.
+     *
+     * <p>Each time it is resumed, a new underlying repeating task is scheduled, which
+     * passes this task to the consumer, so the consumer always sees the same task.</p>
+     */
+    private final class BoundTask implements Task, Consumer<Task>, Delegate<Consumer<Task>> {
+        private final Scheduler scheduler;
+        private final String name;
+        private final Consumer<Task> consumer;
+        private final long intervalTicks;
+        private final ChunkPosition chunk;
+        // replaced when a player rejoins. only changed on the main thread
+        private volatile Entity entity;
+
+        private final AtomicInteger counter = new AtomicInteger(0);
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final Histogram timings = new Histogram();
+
+        // the underlying task, or null while suspended. only changed on the main thread
+        private volatile Task current = null;
+
+        private BoundTask(Scheduler scheduler, String name, Consumer<Task> consumer, long intervalTicks, ChunkPosition chunk, Entity entity) {
+            this.scheduler = Objects.requireNonNull(scheduler, "scheduler");
+            this.name = Objects.requireNonNull(name, "name");
+            this.consumer = Objects.requireNonNull(consumer, "consumer");
+            this.intervalTicks = intervalTicks;
+            this.chunk = chunk;
+            this.entity = entity;
+        }
+
+        void resume(long delayTicks) {
+            if (this.current == null && !this.cancelled.get()) {
+                this.current = this.scheduler.runRepeating(this.name, this, delayTicks, this.intervalTicks);
+            }
+        }
+
+        void suspend() {
+            Task current = this.current;
+            if (current != null) {
+                current.stop();
+                this.current = null;
+            }
+        }
+
+        // called by the underlying task
+        @Override
+        public void accept(Task underlying) {
+            Entity entity = this.entity;
+            if (entity != null && !BoundTaskIndex.this.entityEvents && !entity.isValid()) {
+                // no removal events to rely on, so check the entity ourselves, and
+                // stop for good once it has died, as the entity events would. players
+                // are suspended by the quit listener instead
+                if (entity.isDead() && !(entity instanceof Player)) {
+                    stop();
+                }
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                this.consumer.accept(this);
+                this.counter.incrementAndGet();
+            } finally {
+                this.timings.record(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Consumer<Task> getDelegate() {
+            return this.consumer;
+        }
+
+        @Override
+        public int getTimesRan() {
+            return this.counter.get();
+        }
+
+        @Nonnull
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Nonnull
+        @Override
+        public Histogram getTimings() {
+            return this.timings;
+        }
+
+        @Override
+        public boolean stop() {
+            if (this.cancelled.getAndSet(true)) {
+                return false;
+            }
+            Task current = this.current;
+            if (current != null) {
+                current.stop();
+            }
+            onMainThread(() -> {
+                this.current = null;
+                remove(this);
+            });
+            return true;
+        }
+
+        @Override
+        public int getBukkitId() {
+            Task current = this.current;
+            return current == null ? -1 : current.getBukkitId();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return this.cancelled.get();
+        }
+    }
+
+    // kept separate so the paper event classes are only loaded when present
+    private static final class PaperEntityListener {
+        static void subscribe(BoundTaskIndex index, CompositeTerminable listeners) {
+            Events.subscribe(EntityAddToWorldEvent.class, EventPriority.MONITOR)
+                    .handler(e -> index.onEntity(e.getEntity(), true))
+                    .bindWith(listeners);
+            Events.subscribe(EntityRemoveFromWorldEvent.class, EventPriority.MONITOR)
+                    .handler(e -> index.onEntity(e.getEntity(), false))
+                    .bindWith(listeners);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.metrics.Histogram;
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.google.common.base.Preconditions;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link Executor} for {@link TaskPriority#DEFERRABLE deferrable} work on the main server thread.
+ *
+ * <p>Tasks are queued, and the queue is drained once per tick. While the {@link TickMonitor}
+ * reports that the server is over budget, only tasks which have been waiting for longer
+ * than the max staleness are run, and the rest are left for a later tick.</p>
+ *
+ * <p>Once the executor has been shutdown, tasks are rejected with a
+ * {@link RejectedExecutionException}.</p>
+ */
+public final class DeferringSyncExecutor implements Executor {
+    // the default max time deferrable work can be postponed for
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = Long.getLong("atharion.scheduler.maxStaleness", 1000);
+
+    private final TickMonitor monitor;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile BukkitTask drainTask = null;
+    private volatile boolean shutdown = false;
+
+    // incremented at the start of each drain. a task which isn't run by the first
+    // drain after it was submitted has been deferred
+    private volatile long drains = 0;
+
+    private volatile long maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_STALENESS_MILLIS);
+
+    private final LongAdder deferred = new LongAdder();
+    private final Histogram deferralTimes = new Histogram();
+
+    DeferringSyncExecutor(TickMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        if (this.shutdown) {
+            throw new RejectedExecutionException("Task " + runnable + " rejected, as the executor has been shutdown");
+        }
+
+        Entry entry = new Entry(HelperExecutors.wrapRunnable(runnable), System.nanoTime(), this.drains);
+        this.queue.offer(entry);
+        this.pending.incrementAndGet();
+
+        // shutdown may have drained the queue between the check and the offer, in which
+        // case the task would never run
+        if (this.shutdown && this.queue.remove(entry)) {
+            this.pending.decrementAndGet();
+            throw new RejectedExecutionException("Task " + runnable + " rejected, as the executor has been shutdown");
+        }
+        ensureStarted();
+    }
+
+    private void ensureStarted() {
+        if (this.started.get() || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+        this.monitor.start();
+        this.drainTask = Bukkit.getScheduler().runTaskTimer(LoaderUtils.getPlugin(), this::drain, 0L, 1L);
+    }
+
+    private void drain() {
+        long drain = ++this.drains;
+        boolean overBudget = this.monitor.isOverBudget();
+        long now = System.nanoTime();
+
+        Entry entry;
+        while ((entry = this.queue.peek()) != null) {
+            // the queue is in submission order, so once one task is fresh enough to
+            // wait, so are the rest
+            if (overBudget && now - entry.submitted < this.maxStalenessNanos) {
+                break;
+            }
+
+            this.queue.poll();
+            this.pending.decrementAndGet();
+            if (drain > entry.drain + 1) {
+                recordDeferral(now - entry.submitted);
+            }
+            entry.runnable.run();
+        }
+    }
+
+    /**
+     * Gets if a run of a deferrable repeating task should be skipped, given the time
+     * since it last ran.
+     *
+     * @param sinceLastRun the time since the task last ran, in nanoseconds
+     * @return if the run should be skipped
+     */
+    public boolean shouldSkip(long sinceLastRun) {
+        this.monitor.start();
+        return this.monitor.isOverBudget() && sinceLastRun < this.maxStalenessNanos;
+    }
+
+    /**
+     * Records that a piece of deferrable work has been run late.
+     *
+     * @param nanos how late the work was run
+     */
+    public void recordDeferral(long nanos) {
+        this.deferred.increment();
+        this.deferralTimes.record(nanos);
+    }
+
+    /**
+     * Sets the max time deferrable work can be postponed for while the server is over budget.
+     *
+     * @param maxStaleness the max staleness
+     * @param unit the unit of maxStaleness
+     */
+    public void setMaxStaleness(long maxStaleness, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(maxStaleness >= 0, "maxStaleness < 0");
+        this.maxStalenessNanos = unit.toNanos(maxStaleness);
+    }
+
+    public long getMaxStaleness(@Nonnull TimeUnit unit) {
+        return unit.convert(this.maxStalenessNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the number of tasks currently waiting to be executed.
+     *
+     * @return the number of queued tasks
+     */
+    public int getQueuedCount() {
+        return this.pending.get();
+    }
+
+    /**
+     * Gets the total number of tasks, or runs of repeating tasks, which have been
+     * postponed because the server was over budget.
+     *
+     * @return the number of deferred tasks
+     */
+    public long getDeferredCount() {
+        return this.deferred.sum();
+    }
+
+    /**
+     * Gets how long deferred tasks were postponed for.
+     *
+     * @return the deferral times
+     */
+    @Nonnull
+    public Histogram getDeferralTimes() {
+        return this.deferralTimes;
+    }
+
+    /**
+     * Stops the drain task, and rejects any further tasks. If called from the main thread,
+     * any remaining tasks are executed immediately.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+
+        BukkitTask task = this.drainTask;
+        if (task != null) {
+            task.cancel();
+            this.drainTask = null;
+        }
+
+        if (Bukkit.isPrimaryThread()) {
+            Entry entry;
+            while ((entry = this.queue.poll()) != null) {
+                this.pending.decrementAndGet();
+                entry.runnable.run();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Runnable runnable;
+        private final long submitted;
+        private final long drain;
+
+        private Entry(Runnable runnable, long submitted, long drain) {
+            this.runnable = runnable;
+            this.submitted = submitted;
+            this.drain = drain;
+        }
+    }
+}
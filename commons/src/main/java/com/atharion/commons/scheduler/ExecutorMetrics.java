@@ -0,0 +1,117 @@
+package com.atharion.commons.scheduler;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * An immutable snapshot of the state of an executor lane.
+ */
+public final class ExecutorMetrics {
+
+    static ExecutorMetrics of(ThreadPoolExecutor executor, long rejected) {
+        return new ExecutorMetrics(
+                executor.getPoolSize(),
+                executor.getLargestPoolSize(),
+                executor.getActiveCount(),
+                executor.getQueue().size(),
+                executor.getQueue().remainingCapacity(),
+                executor.getCompletedTaskCount(),
+                rejected
+        );
+    }
+
+    private final int poolSize;
+    private final int largestPoolSize;
+    private final int active;
+    private final int queued;
+    private final int remainingCapacity;
+    private final long completed;
+    private final long rejected;
+
+    private ExecutorMetrics(int poolSize, int largestPoolSize, int active, int queued, int remainingCapacity, long completed, long rejected) {
+        this.poolSize = poolSize;
+        this.largestPoolSize = largestPoolSize;
+        this.active = active;
+        this.queued = queued;
+        this.remainingCapacity = remainingCapacity;
+        this.completed = completed;
+        this.rejected = rejected;
+    }
+
+    /**
+     * Gets the number of threads currently in the pool.
+     *
+     * @return the pool size
+     */
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    /**
+     * Gets the largest number of threads that have ever been in the pool at once.
+     *
+     * @return the largest pool size
+     */
+    public int getLargestPoolSize() {
+        return this.largestPoolSize;
+    }
+
+    /**
+     * Gets the approximate number of threads actively executing tasks.
+     *
+     * @return the number of active threads
+     */
+    public int getActiveCount() {
+        return this.active;
+    }
+
+    /**
+     * Gets the number of tasks waiting in the queue.
+     *
+     * @return the number of queued tasks
+     */
+    public int getQueuedCount() {
+        return this.queued;
+    }
+
+    /**
+     * Gets the number of additional tasks the queue can accept before submissions are rejected.
+     *
+     * @return the remaining queue capacity
+     */
+    public int getRemainingCapacity() {
+        return this.remainingCapacity;
+    }
+
+    /**
+     * Gets the approximate total number of tasks that have completed execution.
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompletedCount() {
+        return this.completed;
+    }
+
+    /**
+     * Gets the number of submissions which were rejected because the queue was full.
+     *
+     * <p>Rejected tasks are not dropped - they are executed by the submitting thread,
+     * or handed off elsewhere if the submitter is the main thread.</p>
+     *
+     * @return the number of rejected submissions
+     */
+    public long getRejectedCount() {
+        return this.rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorMetrics(" +
+                "poolSize=" + this.poolSize +
+                ", largestPoolSize=" + this.largestPoolSize +
+                ", active=" + this.active +
+                ", queued=" + this.queued +
+                ", remainingCapacity=" + this.remainingCapacity +
+                ", completed=" + this.completed +
+                ", rejected=" + this.rejected + ")";
+    }
+}
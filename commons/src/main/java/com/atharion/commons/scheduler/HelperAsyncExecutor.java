@@ -25,77 +25,218 @@
 
 package com.atharion.commons.scheduler;
 
+import com.atharion.commons.concurrent.ThreadContext;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import javax.annotation.Nonnull;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 final class HelperAsyncExecutor extends AbstractExecutorService implements ScheduledExecutorService {
-    private final ExecutorService taskService;
-    private final ScheduledExecutorService timerExecutionService;
 
-    private final Set<ScheduledFuture<?>> tasks = Collections.newSetFromMap(new WeakHashMap<>());
+    // the size of the cpu-bound lane, defaults to the number of cores
+    private static final int THREADS = Integer.getInteger("atharion.scheduler.threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    // the max number of tasks waiting in the cpu-bound lane before submitters are made to run them
+    private static final int QUEUE_SIZE = Integer.getInteger("atharion.scheduler.queueSize", 10000);
+    // the max size of the blocking io lane. threads are only created on demand
+    private static final int IO_THREADS = Integer.getInteger("atharion.scheduler.io.threads", 64);
+    // the max number of tasks waiting in the blocking io lane
+    private static final int IO_QUEUE_SIZE = Integer.getInteger("atharion.scheduler.io.queueSize", 10000);
+    // how long idle threads are kept alive for
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    // the resolution of delayed & repeating tasks. a fifth of a server tick is plenty, and
+    // means the timer thread wakes 100 times a second while it has work, rather than 1000
+    private static final long TIMER_TICK_MILLIS = Long.getLong("atharion.scheduler.timerTickMillis", 10);
+    // if both lanes should run tasks on virtual threads, when the jvm supports them
+    private static final boolean VIRTUAL_THREADS = Boolean.getBoolean("atharion.scheduler.virtualThreads");
+
+    private final ThreadPoolExecutor taskService;
+    private final ThreadPoolExecutor ioService;
+    // a virtual thread per task executor, or null if virtual threads are disabled or unsupported
+    private final ExecutorService virtualService;
+    private final TimingWheel timer;
+
+    // where tasks for each lane are actually sent - either the pool, or the virtual thread executor
+    private final Executor taskLane;
+    private final Executor ioLane;
+
+    private final Executor io = runnable -> HelperAsyncExecutor.this.ioLane.execute(HelperExecutors.wrapRunnable(runnable));
+
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong ioRejected = new AtomicLong(0);
+
+    // repeating tasks, so they can be cancelled on shutdown. one-shot tasks are only referenced by the timer
+    private final Set<WheelTask<?>> repeatingTasks = ConcurrentHashMap.newKeySet();
 
     HelperAsyncExecutor() {
-        this.taskService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
-                .setDaemon(true)
-                .setNameFormat("atharion-scheduler-%d")
-                .build()
+        this.taskService = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("atharion-scheduler-%d")
+                        .setThreadFactory(runnable -> new LaneThread(runnable, this, false))
+                        .build(),
+                (runnable, executor) -> {
+                    this.rejected.incrementAndGet();
+                    overflow(runnable, executor);
+                }
+        );
+        this.taskService.allowCoreThreadTimeOut(true);
+
+        // core == max, so the pool grows up to IO_THREADS before tasks start to queue,
+        // and shrinks back down once the threads are idle.
+        this.ioService = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(IO_QUEUE_SIZE),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("atharion-io-%d")
+                        .setThreadFactory(runnable -> new LaneThread(runnable, this, true))
+                        .build(),
+                (runnable, executor) -> {
+                    this.ioRejected.incrementAndGet();
+                    overflow(runnable, executor);
+                }
         );
-        this.timerExecutionService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        this.ioService.allowCoreThreadTimeOut(true);
+
+        // blocking is cheap on a virtual thread, so both lanes share the one executor
+        this.virtualService = VIRTUAL_THREADS ? VirtualThreads.newVirtualThreadPerTaskExecutor("atharion-virtual-") : null;
+        this.taskLane = this.virtualService != null ? this.virtualService : this.taskService;
+        this.ioLane = this.virtualService != null ? this.virtualService : this.ioService;
+
+        ThreadFactory timerFactory = new ThreadFactoryBuilder()
                 .setDaemon(true)
                 .setNameFormat("atharion-scheduler-timer")
-                .build()
-        );
+                .build();
+        this.timer = new TimingWheel(TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, timerFactory);
     }
 
-    private ScheduledFuture<?> consumeTask(ScheduledFuture<?> future) {
-        synchronized (this.tasks) {
-            this.tasks.add(future);
+    // called when a lane's queue is full. the submitting thread runs the task itself, which
+    // throttles producers to the rate the pool can keep up with. the main thread & the timer
+    // thread must never be made to run async work, so their overflow goes to the bukkit scheduler.
+    // tasks submitted after shutdown are rejected, as by the default policy, so the submitter
+    // finds out rather than waiting on a task which will never run.
+    private void overflow(Runnable runnable, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Task " + runnable + " rejected from " + executor + ", which has been shutdown");
+        }
+
+        if (this.timer.isWorkerThread() || ThreadContext.forThread(Thread.currentThread()) == ThreadContext.SYNC) {
+            HelperExecutors.asyncBukkit().execute(runnable);
+        } else {
+            runnable.run();
         }
-        return future;
     }
 
     public void cancelRepeatingTasks() {
-        synchronized (this.tasks) {
-            this.tasks.forEach(scheduledFuture -> scheduledFuture.cancel(false));
+        for (WheelTask<?> task : this.repeatingTasks) {
+            task.cancel(false);
         }
     }
 
+    public Executor io() {
+        return this.io;
+    }
+
+    public TimingWheel timer() {
+        return this.timer;
+    }
+
+    /**
+     * Gets if the current thread is a pool thread of the cpu-bound lane.
+     *
+     * <p>Always false for virtual threads.</p>
+     *
+     * @return if the current thread belongs to the cpu-bound lane
+     */
+    public boolean inTaskLane() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof LaneThread && ((LaneThread) thread).owner == this && !((LaneThread) thread).io;
+    }
+
+    /**
+     * Gets if the current thread is a pool thread of the io lane.
+     *
+     * <p>Always false for virtual threads.</p>
+     *
+     * @return if the current thread belongs to the io lane
+     */
+    public boolean inIoLane() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof LaneThread && ((LaneThread) thread).owner == this && ((LaneThread) thread).io;
+    }
+
+    public boolean isVirtualThreads() {
+        return this.virtualService != null;
+    }
+
+    public ExecutorMetrics getMetrics() {
+        return ExecutorMetrics.of(this.taskService, this.rejected.get());
+    }
+
+    public ExecutorMetrics getIoMetrics() {
+        return ExecutorMetrics.of(this.ioService, this.ioRejected.get());
+    }
+
     @Override
     public void execute(@Nonnull Runnable runnable) {
-        this.taskService.execute(HelperExecutors.wrapRunnable(runnable));
+        this.taskLane.execute(HelperExecutors.wrapRunnable(runnable));
     }
 
     @Nonnull
     @Override
     public ScheduledFuture<?> schedule(@Nonnull Runnable command, long delay, @Nonnull TimeUnit unit) {
-        Runnable delegate = HelperExecutors.wrapRunnable(command);
-        return consumeTask(this.timerExecutionService.schedule(() -> this.taskService.execute(delegate), delay, unit));
+        Callable<Void> callable = Executors.callable(HelperExecutors.wrapRunnable(command), null);
+        WheelTask<Void> task = new WheelTask<>(callable, triggerTime(delay, unit));
+        task.arm();
+        return task;
     }
 
     @Nonnull
     @Override
     public <V> ScheduledFuture<V> schedule(@Nonnull Callable<V> callable, long delay, @Nonnull TimeUnit unit) {
-        throw new UnsupportedOperationException();
+        Objects.requireNonNull(callable, "callable");
+        WheelTask<V> task = new WheelTask<>(callable, triggerTime(delay, unit));
+        task.arm();
+        return task;
     }
 
     @Nonnull
     @Override
     public ScheduledFuture<?> scheduleAtFixedRate(@Nonnull Runnable command, long initialDelay, long period, @Nonnull TimeUnit unit) {
-        return consumeTask(this.timerExecutionService.scheduleAtFixedRate(new FixedRateWorker(HelperExecutors.wrapRunnable(command)), initialDelay, period, unit));
+        Preconditions.checkArgument(period > 0, "period <= 0");
+        FixedRateWorker worker = new FixedRateWorker(HelperExecutors.wrapRunnable(command));
+        WheelTask<Void> task = new WheelTask<>(worker, triggerTime(initialDelay, unit), unit.toNanos(period));
+        this.repeatingTasks.add(task);
+        task.arm();
+        return task;
+    }
+
+    private static long triggerTime(long delay, TimeUnit unit) {
+        // avoid overflow for very long delays
+        return System.nanoTime() + Math.min(Math.max(unit.toNanos(delay), 0), Long.MAX_VALUE >> 2);
     }
 
     @Override
@@ -105,28 +246,150 @@ final class HelperAsyncExecutor extends AbstractExecutorService implements Sched
 
     @Override
     public void shutdown() {
-        // noop
+        // stop new timer executions, then let the lanes drain what has already been submitted
+        cancelRepeatingTasks();
+        this.timer.shutdown();
+        this.taskService.shutdown();
+        this.ioService.shutdown();
+        if (this.virtualService != null) {
+            this.virtualService.shutdown();
+        }
     }
 
     @Override
     public List<Runnable> shutdownNow() {
-        // noop
-        return Collections.emptyList();
+        cancelRepeatingTasks();
+        List<Runnable> unexecuted = new ArrayList<>();
+        this.timer.shutdown();
+        unexecuted.addAll(this.taskService.shutdownNow());
+        unexecuted.addAll(this.ioService.shutdownNow());
+        if (this.virtualService != null) {
+            unexecuted.addAll(this.virtualService.shutdownNow());
+        }
+        return unexecuted;
     }
 
     @Override
     public boolean isShutdown() {
-        return false;
+        return this.taskService.isShutdown();
     }
 
     @Override
     public boolean isTerminated() {
-        return false;
+        return this.timer.isTerminated() && this.taskService.isTerminated() && this.ioService.isTerminated() &&
+                (this.virtualService == null || this.virtualService.isTerminated());
     }
 
     @Override
-    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) {
-        throw new IllegalStateException("Not shutdown");
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return this.timer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) &&
+                this.taskService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) &&
+                this.ioService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) &&
+                (this.virtualService == null || this.virtualService.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+    }
+
+    // a pool thread, tagged with the lane it belongs to
+    private static final class LaneThread extends Thread {
+        private final HelperAsyncExecutor owner;
+        private final boolean io;
+
+        private LaneThread(Runnable runnable, HelperAsyncExecutor owner, boolean io) {
+            super(runnable);
+            this.owner = owner;
+            this.io = io;
+        }
+    }
+
+    /**
+     * A task scheduled on the timing wheel.
+     *
+     * <p>When the timeout fires, one-shot tasks are handed off to the task lane. Repeating
+     * tasks dispatch their {@link FixedRateWorker} and re-arm themselves one period later.</p>
+     *
+     * @param <V> the result type
+     */
+    private final class WheelTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        // null for one-shot tasks
+        private final FixedRateWorker worker;
+        // the period in nanos, or 0 for one-shot tasks
+        private final long period;
+
+        // the nano time of the next execution
+        private volatile long time;
+        private volatile TimingWheel.Timeout timeout = null;
+
+        WheelTask(Callable<V> callable, long time) {
+            super(callable);
+            this.worker = null;
+            this.period = 0;
+            this.time = time;
+        }
+
+        WheelTask(FixedRateWorker worker, long time, long period) {
+            super(worker, null);
+            this.worker = worker;
+            this.period = period;
+            this.time = time;
+        }
+
+        void arm() {
+            this.timeout = HelperAsyncExecutor.this.timer.newTimeoutAt(this::fire, this.time);
+
+            // cancel may have raced with setting the timeout
+            if (isCancelled()) {
+                this.timeout.cancel();
+            }
+        }
+
+        // called on the timer thread
+        private void fire() {
+            if (isCancelled()) {
+                return;
+            }
+
+            if (this.worker == null) {
+                HelperAsyncExecutor.this.taskLane.execute(this);
+                return;
+            }
+
+            this.worker.run();
+            this.time += this.period;
+            if (!HelperAsyncExecutor.this.timer.isShutdown()) {
+                arm();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            TimingWheel.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            if (this.worker != null) {
+                HelperAsyncExecutor.this.repeatingTasks.remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return this.period != 0;
+        }
+
+        @Override
+        public long getDelay(@Nonnull TimeUnit unit) {
+            return unit.convert(this.time - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(@Nonnull Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
     }
 
     private final class FixedRateWorker implements Runnable {
@@ -153,7 +416,7 @@ final class HelperAsyncExecutor extends AbstractExecutorService implements Sched
                 return;
             }
 
-            HelperAsyncExecutor.this.taskService.execute(() -> {
+            HelperAsyncExecutor.this.taskLane.execute(() -> {
                 this.lock.lock();
                 try {
                     this.delegate.run();
@@ -164,4 +427,4 @@ final class HelperAsyncExecutor extends AbstractExecutorService implements Sched
             });
         }
     }
-}
\ No newline at end of file
+}
@@ -25,6 +25,7 @@
 
 package com.atharion.commons.scheduler;
 
+import com.atharion.commons.scheduler.threadlock.ServerThreadBatch;
 import com.atharion.commons.utils.function.Delegate;
 import com.atharion.commons.utils.function.LoaderUtils;
 import org.bukkit.Bukkit;
@@ -32,6 +33,7 @@ import org.bukkit.Bukkit;
 import javax.annotation.Nonnull;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
@@ -39,25 +41,241 @@ import java.util.function.Consumer;
  */
 public final class HelperExecutors {
     private static final Consumer<Throwable> EXCEPTION_CONSUMER = Throwable::printStackTrace;
+    // the max time to wait for async work to finish when shutting down
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
 
     private static final Executor SYNC_BUKKIT = new BukkitSyncExecutor();
+    private static final BatchingSyncExecutor SYNC_BATCHING = new BatchingSyncExecutor();
     private static final Executor ASYNC_BUKKIT = new BukkitAsyncExecutor();
     private static final HelperAsyncExecutor ASYNC_HELPER = new HelperAsyncExecutor();
+    private static final TickPhaseBalancer PHASE_BALANCER = new TickPhaseBalancer();
+    private static final ServerThreadBatch SERVER_THREAD_BATCH = new ServerThreadBatch();
+    private static final TickLifecycle TICK_LIFECYCLE = new TickLifecycle();
+    private static final TickMonitor TICK_MONITOR = new TickMonitor(TICK_LIFECYCLE);
+    private static final DeferringSyncExecutor SYNC_DEFERRING = new DeferringSyncExecutor(TICK_MONITOR);
+    private static final BoundTaskIndex BOUND_TASKS = new BoundTaskIndex();
+
+    private static volatile Executor syncExecutor = SYNC_BUKKIT;
 
     public static Executor sync() {
-        return SYNC_BUKKIT;
+        return syncExecutor;
+    }
+
+    /**
+     * Gets a sync executor for work of the given priority.
+     *
+     * <p>{@link TaskPriority#CRITICAL Critical} work is always scheduled directly with Bukkit,
+     * {@link TaskPriority#NORMAL normal} work uses {@link #sync()}, and
+     * {@link TaskPriority#DEFERRABLE deferrable} work uses the {@link #deferringSync() deferring executor}.</p>
+     *
+     * @param priority the priority
+     * @return a sync executor
+     */
+    public static Executor sync(TaskPriority priority) {
+        switch (priority) {
+            case CRITICAL:
+                return SYNC_BUKKIT;
+            case NORMAL:
+                return syncExecutor;
+            case DEFERRABLE:
+                return SYNC_DEFERRING;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Gets the executor used for {@link TaskPriority#DEFERRABLE deferrable} sync work.
+     *
+     * @return the deferring sync executor
+     */
+    public static DeferringSyncExecutor deferringSync() {
+        return SYNC_DEFERRING;
+    }
+
+    /**
+     * Gets the service used to run hooks at the start and end of each tick.
+     *
+     * @return the tick lifecycle
+     */
+    public static TickLifecycle tickLifecycle() {
+        return TICK_LIFECYCLE;
+    }
+
+    /**
+     * Gets the index of repeating tasks bound to a chunk or entity.
+     *
+     * @return the bound task index
+     */
+    public static BoundTaskIndex boundTasks() {
+        return BOUND_TASKS;
+    }
+
+    /**
+     * Gets the monitor used to measure recent tick durations.
+     *
+     * @return the tick monitor
+     */
+    public static TickMonitor tickMonitor() {
+        return TICK_MONITOR;
+    }
+
+    /**
+     * Gets the tick-batched sync executor.
+     *
+     * <p>This executor is used by {@link #sync()} when {@link #setSyncBatching(boolean) batching}
+     * is enabled.</p>
+     *
+     * @return the batching sync executor
+     */
+    public static BatchingSyncExecutor batchingSync() {
+        return SYNC_BATCHING;
+    }
+
+    /**
+     * Sets whether {@link #sync()} should queue tasks into the {@link #batchingSync() batching executor},
+     * instead of scheduling a separate Bukkit task for each of them.
+     *
+     * @param batching if sync tasks should be batched
+     */
+    public static void setSyncBatching(boolean batching) {
+        syncExecutor = batching ? SYNC_BATCHING : SYNC_BUKKIT;
+    }
+
+    public static boolean isSyncBatching() {
+        return syncExecutor == SYNC_BATCHING;
+    }
+
+    /**
+     * Gets the balancer used to spread repeating sync tasks across ticks.
+     *
+     * @return the phase balancer
+     */
+    public static TickPhaseBalancer phaseBalancer() {
+        return PHASE_BALANCER;
+    }
+
+    /**
+     * Gets the shared batch used to run work from async threads on the main thread.
+     *
+     * @return the server thread batch
+     */
+    public static ServerThreadBatch serverThreadBatch() {
+        return SERVER_THREAD_BATCH;
     }
 
     public static ScheduledExecutorService asyncHelper() {
         return ASYNC_HELPER;
     }
 
+    /**
+     * Gets the blocking io lane of the {@link #asyncHelper() async executor}.
+     *
+     * <p>This lane should be used for work which spends most of its time waiting,
+     * e.g. file, database or network access, so that it doesn't hold up the
+     * cpu-bound threads.</p>
+     *
+     * <p>When the lane's queue is full, the submitting thread runs the task itself. Once the
+     * executor has been shutdown, tasks are rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException}.</p>
+     *
+     * @return the io executor
+     */
+    public static Executor io() {
+        return ASYNC_HELPER.io();
+    }
+
+    /**
+     * Gets the timing wheel which drives the delayed and repeating tasks of the
+     * {@link #asyncHelper() async executor}.
+     *
+     * <p>Timeouts can be scheduled and cancelled on it directly in O(1). Their tasks run on
+     * the wheel's worker thread, so should only hand work off to another executor.</p>
+     *
+     * @return the timer
+     */
+    public static TimingWheel timer() {
+        return ASYNC_HELPER.timer();
+    }
+
+    /**
+     * Gets if the current thread is one of the cpu-bound threads of the {@link #asyncHelper() async executor}.
+     *
+     * @return if the current thread is an async pool thread
+     */
+    public static boolean isAsyncThread() {
+        return ASYNC_HELPER.inTaskLane();
+    }
+
+    /**
+     * Gets if the current thread is one of the threads of the {@link #io() io lane}.
+     *
+     * @return if the current thread is an io thread
+     */
+    public static boolean isIoThread() {
+        return ASYNC_HELPER.inIoLane();
+    }
+
+    /**
+     * Gets if the {@link #asyncHelper() async executor} runs tasks on virtual threads.
+     *
+     * <p>Virtual threads are enabled with the {@code atharion.scheduler.virtualThreads}
+     * system property, and are only used when running on Java 21 or newer. When enabled,
+     * both the cpu-bound and io lanes start a virtual thread per task, and the
+     * {@link #asyncMetrics() lane metrics} no longer reflect submitted work.</p>
+     *
+     * @return if virtual threads are in use
+     */
+    public static boolean isVirtualThreads() {
+        return ASYNC_HELPER.isVirtualThreads();
+    }
+
     public static Executor asyncBukkit() {
         return ASYNC_BUKKIT;
     }
 
+    /**
+     * Gets a snapshot of the state of the cpu-bound {@link #asyncHelper() async} lane.
+     *
+     * @return the async lane metrics
+     */
+    public static ExecutorMetrics asyncMetrics() {
+        return ASYNC_HELPER.getMetrics();
+    }
+
+    /**
+     * Gets a snapshot of the state of the blocking {@link #io() io} lane.
+     *
+     * @return the io lane metrics
+     */
+    public static ExecutorMetrics ioMetrics() {
+        return ASYNC_HELPER.getIoMetrics();
+    }
+
     public static void shutdown() {
-        ASYNC_HELPER.cancelRepeatingTasks();
+        PHASE_BALANCER.shutdown();
+        // before the async drain, so async threads joining on it are rejected rather than
+        // blocking until the drain times out - the main thread can't run their work until then
+        SERVER_THREAD_BATCH.shutdown();
+        BOUND_TASKS.shutdown();
+
+        // give already submitted work a chance to finish
+        ASYNC_HELPER.shutdown();
+        try {
+            if (!ASYNC_HELPER.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                ASYNC_HELPER.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            ASYNC_HELPER.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        // only once the async work has finished, as it may still post sync callbacks
+        SYNC_BATCHING.shutdown();
+        SYNC_DEFERRING.shutdown();
+        // the deferring executor starts the monitor, which listens to the lifecycle
+        TICK_MONITOR.shutdown();
+        TICK_LIFECYCLE.shutdown();
     }
 
     private static final class BukkitSyncExecutor implements Executor {
@@ -0,0 +1,295 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.concurrent.promise.Promise;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses repeated submissions of work under the same key into a single execution.
+ *
+ * <p>Each {@link Scheduler} has its own coalescer, and tasks are run in the scheduler's
+ * context. Keys are compared using {@link Object#equals(Object)}, and are shared between
+ * all users of a scheduler, so should be specific - e.g. {@code "save:" + uuid}.</p>
+ *
+ * <p>When several submissions collapse, the runnable from the latest one is run, and
+ * they all share the same promise.</p>
+ *
+ * @see Scheduler#coalesce(Object, Runnable)
+ * @see Scheduler#debounce(Object, Runnable, long, TimeUnit)
+ * @see Scheduler#throttle(Object, Runnable, long, TimeUnit)
+ */
+public final class KeyedCoalescer {
+    private static final Map<Scheduler, KeyedCoalescer> INSTANCES = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the coalescer for the given scheduler.
+     *
+     * @param scheduler the scheduler
+     * @return the coalescer
+     */
+    @Nonnull
+    public static KeyedCoalescer of(@Nonnull Scheduler scheduler) {
+        Objects.requireNonNull(scheduler, "scheduler");
+        return INSTANCES.computeIfAbsent(scheduler, KeyedCoalescer::new);
+    }
+
+    private final Scheduler scheduler;
+
+    // pending work. all fields of an entry are only accessed within a compute call on this map
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder executed = new LongAdder();
+
+    private KeyedCoalescer(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs the runnable as soon as possible. Submissions with the same key made before
+     * it starts running are collapsed into the same execution.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @return a promise which completes when the work has run
+     */
+    @Nonnull
+    public Promise<Void> coalesce(@Nonnull Object key, @Nonnull Runnable runnable) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(runnable, "runnable");
+        this.submitted.increment();
+
+        Submission submission = new Submission();
+        Entry entry = this.entries.compute(key, (k, e) -> {
+            if (e == null) {
+                e = new Entry();
+                submission.created = true;
+            }
+            e.runnable = runnable;
+            submission.promise = e.promise;
+            return e;
+        });
+
+        if (submission.created) {
+            this.scheduler.execute(() -> {
+                // remove before running, so submissions made from now on are run again
+                if (this.entries.remove(key, entry)) {
+                    run(entry.runnable, entry.promise);
+                }
+            });
+        }
+        return submission.promise;
+    }
+
+    /**
+     * Runs the runnable once no submissions with the same key have been made for the given delay.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @param delay the quiet period before the work is run
+     * @param unit the unit of delay
+     * @return a promise which completes when the work has run
+     */
+    @Nonnull
+    public Promise<Void> debounce(@Nonnull Object key, @Nonnull Runnable runnable, long delay, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(runnable, "runnable");
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(delay >= 0, "delay < 0");
+        this.submitted.increment();
+
+        long delayNanos = unit.toNanos(delay);
+        long deadline = System.nanoTime() + delayNanos;
+
+        Submission submission = new Submission();
+        Entry entry = this.entries.compute(key, (k, e) -> {
+            if (e == null) {
+                e = new Entry();
+                submission.created = true;
+            }
+            // rather than rescheduling the timer for each submission, push back the
+            // deadline, and let the timer reschedule itself when it fires
+            e.runnable = runnable;
+            e.deadline = deadline;
+            submission.promise = e.promise;
+            return e;
+        });
+
+        if (submission.created) {
+            later(() -> checkDebounce(key, entry), delayNanos);
+        }
+        return submission.promise;
+    }
+
+    private void checkDebounce(Object key, Entry entry) {
+        Submission due = new Submission();
+        long[] remaining = {0};
+        this.entries.computeIfPresent(key, (k, e) -> {
+            if (e != entry) {
+                return e;
+            }
+            long r = e.deadline - System.nanoTime();
+            if (r > 0) {
+                remaining[0] = r;
+                return e;
+            }
+            due.runnable = e.runnable;
+            due.promise = e.promise;
+            return null;
+        });
+
+        if (due.runnable != null) {
+            run(due.runnable, due.promise);
+        } else if (remaining[0] > 0) {
+            later(() -> checkDebounce(key, entry), remaining[0]);
+        }
+    }
+
+    /**
+     * Runs the runnable at most once per window. The first submission runs immediately,
+     * and any made during the window collapse into a single run when it ends.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @param window the minimum time between runs
+     * @param unit the unit of window
+     * @return a promise which completes when the work has run
+     */
+    @Nonnull
+    public Promise<Void> throttle(@Nonnull Object key, @Nonnull Runnable runnable, long window, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(runnable, "runnable");
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(window > 0, "window <= 0");
+        this.submitted.increment();
+
+        long windowNanos = unit.toNanos(window);
+
+        Submission submission = new Submission();
+        Entry entry = this.entries.compute(key, (k, e) -> {
+            if (e == null) {
+                // start a new window - the work runs now, and the entry just marks the window
+                submission.created = true;
+                return new Entry();
+            }
+            e.runnable = runnable;
+            submission.promise = e.promise;
+            return e;
+        });
+
+        if (submission.created) {
+            Promise<Void> promise = Promise.empty();
+            this.scheduler.execute(() -> run(runnable, promise));
+            later(() -> checkThrottle(key, entry, windowNanos), windowNanos);
+            return promise;
+        }
+        return submission.promise;
+    }
+
+    private void checkThrottle(Object key, Entry entry, long windowNanos) {
+        Submission trailing = new Submission();
+        this.entries.computeIfPresent(key, (k, e) -> {
+            if (e != entry) {
+                return e;
+            }
+            if (e.runnable == null) {
+                // nothing was submitted during the window
+                return null;
+            }
+
+            // run the trailing submission, and start a new window
+            trailing.runnable = e.runnable;
+            trailing.promise = e.promise;
+            e.runnable = null;
+            e.promise = Promise.empty();
+            return e;
+        });
+
+        if (trailing.runnable != null) {
+            run(trailing.runnable, trailing.promise);
+            later(() -> checkThrottle(key, entry, windowNanos), windowNanos);
+        }
+    }
+
+    /**
+     * Cancels any pending work for the given key.
+     *
+     * @param key the key
+     * @return true if pending work was cancelled
+     */
+    public boolean cancel(@Nonnull Object key) {
+        Objects.requireNonNull(key, "key");
+        Submission cancelled = new Submission();
+        this.entries.computeIfPresent(key, (k, e) -> {
+            cancelled.runnable = e.runnable;
+            cancelled.promise = e.promise;
+            return null;
+        });
+
+        if (cancelled.runnable == null) {
+            return false;
+        }
+        cancelled.promise.cancel();
+        return true;
+    }
+
+    /**
+     * Gets the number of keys with pending work, or an open throttle window.
+     *
+     * @return the number of pending keys
+     */
+    public int getPendingCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * Gets the total number of submissions made to this coalescer.
+     *
+     * @return the number of submissions
+     */
+    public long getSubmittedCount() {
+        return this.submitted.sum();
+    }
+
+    /**
+     * Gets the total number of times work has actually been run.
+     *
+     * @return the number of executions
+     */
+    public long getExecutedCount() {
+        return this.executed.sum();
+    }
+
+    private void run(Runnable runnable, Promise<Void> promise) {
+        this.executed.increment();
+        try {
+            runnable.run();
+            promise.supply(null);
+        } catch (Throwable t) {
+            promise.supplyException(t);
+        }
+    }
+
+    private void later(Runnable runnable, long delayNanos) {
+        this.scheduler.runLater(runnable, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static final class Entry {
+        private Runnable runnable;
+        private Promise<Void> promise = Promise.empty();
+        private long deadline;
+    }
+
+    // used to pass values out of the compute functions
+    private static final class Submission {
+        private boolean created = false;
+        private Runnable runnable;
+        private Promise<Void> promise;
+    }
+}
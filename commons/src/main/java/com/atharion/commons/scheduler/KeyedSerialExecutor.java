@@ -0,0 +1,220 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.concurrent.promise.Promise;
+import com.atharion.commons.utils.function.Delegates;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs work submitted under the same key one at a time, in submission order,
+ * whilst work for different keys runs in parallel.
+ *
+ * <p>Each key has a mailbox, which is drained by the underlying {@link Scheduler}.
+ * At most one runner drains a mailbox at a time, so work for a key never runs
+ * concurrently, and state owned by a key can be accessed without locking. Mailboxes
+ * are removed as soon as they become empty, so keys don't need to be cleaned up.</p>
+ *
+ * @see Scheduler#keyed(Object)
+ */
+public final class KeyedSerialExecutor {
+    private static final Map<Scheduler, KeyedSerialExecutor> INSTANCES = new ConcurrentHashMap<>();
+
+    // the max number of tasks a runner executes before yielding the thread to other keys
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Gets the keyed executor for the given scheduler.
+     *
+     * @param scheduler the scheduler
+     * @return the keyed executor
+     */
+    @Nonnull
+    public static KeyedSerialExecutor of(@Nonnull Scheduler scheduler) {
+        Objects.requireNonNull(scheduler, "scheduler");
+        return INSTANCES.computeIfAbsent(scheduler, KeyedSerialExecutor::new);
+    }
+
+    private final Scheduler scheduler;
+    private final ConcurrentHashMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private KeyedSerialExecutor(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Gets a view of this executor which submits work under the given key.
+     *
+     * @param key the key
+     * @return the lane for the key
+     */
+    @Nonnull
+    public Lane forKey(@Nonnull Object key) {
+        Objects.requireNonNull(key, "key");
+        return new Lane(key);
+    }
+
+    /**
+     * Queues the runnable to run after all work previously submitted under the same key.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     */
+    public void execute(@Nonnull Object key, @Nonnull Runnable runnable) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(runnable, "runnable");
+        Runnable task = HelperExecutors.wrapRunnable(runnable);
+        while (true) {
+            Mailbox mailbox = this.mailboxes.computeIfAbsent(key, Mailbox::new);
+            if (mailbox.offer(task)) {
+                return;
+            }
+            // the mailbox was retired after we looked it up - it removes itself, so try again
+            this.mailboxes.remove(key, mailbox);
+        }
+    }
+
+    /**
+     * Gets the number of keys which currently have queued or running work.
+     *
+     * @return the number of active keys
+     */
+    public int getActiveKeyCount() {
+        return this.mailboxes.size();
+    }
+
+    /**
+     * Work submitted under a single key.
+     */
+    public final class Lane implements Executor {
+        private final Object key;
+
+        private Lane(Object key) {
+            this.key = key;
+        }
+
+        @Nonnull
+        public Object getKey() {
+            return this.key;
+        }
+
+        @Override
+        public void execute(@Nonnull Runnable runnable) {
+            KeyedSerialExecutor.this.execute(this.key, runnable);
+        }
+
+        /**
+         * Compute the result of the passed supplier, after all work previously submitted under this key.
+         *
+         * @param supplier the supplier
+         * @param <T> the return type
+         * @return a Promise which will return the result of the computation
+         */
+        @Nonnull
+        public <T> Promise<T> supply(@Nonnull Supplier<T> supplier) {
+            Objects.requireNonNull(supplier, "supplier");
+            Promise<T> promise = Promise.empty();
+            execute(() -> {
+                try {
+                    promise.supply(supplier.get());
+                } catch (Throwable t) {
+                    promise.supplyException(t);
+                }
+            });
+            return promise;
+        }
+
+        /**
+         * Compute the result of the passed callable, after all work previously submitted under this key.
+         *
+         * @param callable the callable
+         * @param <T> the return type
+         * @return a Promise which will return the result of the computation
+         */
+        @Nonnull
+        public <T> Promise<T> call(@Nonnull Callable<T> callable) {
+            Objects.requireNonNull(callable, "callable");
+            return supply(Delegates.callableToSupplier(callable));
+        }
+
+        /**
+         * Execute the passed runnable, after all work previously submitted under this key.
+         *
+         * @param runnable the runnable
+         * @return a Promise which will return when the runnable is complete
+         */
+        @Nonnull
+        public Promise<Void> run(@Nonnull Runnable runnable) {
+            Objects.requireNonNull(runnable, "runnable");
+            return supply(Delegates.runnableToSupplier(runnable));
+        }
+
+        @Override
+        public String toString() {
+            return "KeyedSerialExecutor.Lane(key=" + this.key + ", context=" + KeyedSerialExecutor.this.scheduler.getContext() + ")";
+        }
+    }
+
+    private final class Mailbox implements Runnable {
+        private static final int RETIRED = -1;
+
+        private final Object key;
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+        // the number of tasks submitted but not yet run, or RETIRED once the mailbox
+        // has been removed. the submitter which moves this from 0 schedules the runner
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        Mailbox(Object key) {
+            this.key = key;
+        }
+
+        boolean offer(Runnable task) {
+            int count;
+            do {
+                count = this.pending.get();
+                if (count == RETIRED) {
+                    return false;
+                }
+            } while (!this.pending.compareAndSet(count, count + 1));
+
+            this.queue.offer(task);
+            if (count == 0) {
+                KeyedSerialExecutor.this.scheduler.execute(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+                Runnable task;
+                while ((task = this.queue.poll()) == null) {
+                    // the submitter has counted the task but not yet queued it
+                    Thread.yield();
+                }
+                task.run();
+
+                if (this.pending.decrementAndGet() == 0) {
+                    if (this.pending.compareAndSet(0, RETIRED)) {
+                        KeyedSerialExecutor.this.mailboxes.remove(this.key, this);
+                    }
+                    // otherwise, more work arrived after the decrement. the submitter which moved
+                    // the count from 0 has already scheduled the next run, so this runner must stop
+                    return;
+                }
+            }
+
+            // let other keys have a go, then carry on
+            KeyedSerialExecutor.this.scheduler.execute(this);
+        }
+    }
+}
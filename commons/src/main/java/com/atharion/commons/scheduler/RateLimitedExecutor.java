@@ -0,0 +1,324 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.concurrent.promise.Promise;
+import com.atharion.commons.metrics.Histogram;
+import com.atharion.commons.utils.function.Delegates;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An {@link Executor} which limits the rate at which work is passed to a delegate executor.
+ *
+ * <p>Permits are handed out by a lock-free token bucket, which refills at a fixed rate
+ * and holds up to a burst capacity. Work which can't get a permit straight away is
+ * not rejected, but held on the async timer until its permit is due.</p>
+ *
+ * <p>Work can optionally be submitted under a key, in which case it must also get a
+ * permit from that key's own bucket. This limits each key to a share of the overall rate.</p>
+ */
+public final class RateLimitedExecutor implements Executor {
+    // sweep idle key buckets after this many keyed submissions
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final Executor delegate;
+    private final Bucket global;
+
+    // null when no per-key limit is set
+    private final BucketSpec keySpec;
+    private final ConcurrentHashMap<Object, Bucket> keyBuckets = new ConcurrentHashMap<>();
+    private final AtomicInteger sweepCounter = new AtomicInteger(0);
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final LongAdder submitted = new LongAdder();
+    private final Histogram waitTimes = new Histogram();
+
+    /**
+     * Creates a new rate limited executor.
+     *
+     * @param delegate the executor to run work on
+     * @param permitsPerSecond the sustained rate
+     * @param burst the number of permits which can be handed out at once after a quiet period
+     */
+    public RateLimitedExecutor(@Nonnull Executor delegate, double permitsPerSecond, int burst) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.global = new Bucket(new BucketSpec(permitsPerSecond, burst));
+        this.keySpec = null;
+    }
+
+    /**
+     * Creates a new rate limited executor, with an additional limit for each key.
+     *
+     * @param delegate the executor to run work on
+     * @param permitsPerSecond the sustained rate
+     * @param burst the number of permits which can be handed out at once after a quiet period
+     * @param keyPermitsPerSecond the sustained rate for each key
+     * @param keyBurst the burst capacity for each key
+     */
+    public RateLimitedExecutor(@Nonnull Executor delegate, double permitsPerSecond, int burst, double keyPermitsPerSecond, int keyBurst) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.global = new Bucket(new BucketSpec(permitsPerSecond, burst));
+        this.keySpec = new BucketSpec(keyPermitsPerSecond, keyBurst);
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        schedule(HelperExecutors.wrapRunnable(runnable), null);
+    }
+
+    /**
+     * Runs the runnable once a permit has been granted under the given key.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     */
+    public void execute(@Nonnull Object key, @Nonnull Runnable runnable) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(runnable, "runnable");
+        schedule(HelperExecutors.wrapRunnable(runnable), getKeyBucket(key));
+    }
+
+    /**
+     * Compute the result of the passed supplier once a permit has been granted.
+     *
+     * @param supplier the supplier
+     * @param <T> the return type
+     * @return a Promise which will return the result of the computation
+     */
+    @Nonnull
+    public <T> Promise<T> supply(@Nonnull Supplier<T> supplier) {
+        Objects.requireNonNull(supplier, "supplier");
+        Promise<T> promise = Promise.empty();
+        schedule(supplyTo(promise, supplier), null);
+        return promise;
+    }
+
+    /**
+     * Compute the result of the passed supplier once a permit has been granted under the given key.
+     *
+     * @param key the key
+     * @param supplier the supplier
+     * @param <T> the return type
+     * @return a Promise which will return the result of the computation
+     */
+    @Nonnull
+    public <T> Promise<T> supply(@Nonnull Object key, @Nonnull Supplier<T> supplier) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(supplier, "supplier");
+        Promise<T> promise = Promise.empty();
+        schedule(supplyTo(promise, supplier), getKeyBucket(key));
+        return promise;
+    }
+
+    /**
+     * Compute the result of the passed callable once a permit has been granted.
+     *
+     * @param callable the callable
+     * @param <T> the return type
+     * @return a Promise which will return the result of the computation
+     */
+    @Nonnull
+    public <T> Promise<T> call(@Nonnull Callable<T> callable) {
+        Objects.requireNonNull(callable, "callable");
+        return supply(Delegates.callableToSupplier(callable));
+    }
+
+    /**
+     * Compute the result of the passed callable once a permit has been granted under the given key.
+     *
+     * @param key the key
+     * @param callable the callable
+     * @param <T> the return type
+     * @return a Promise which will return the result of the computation
+     */
+    @Nonnull
+    public <T> Promise<T> call(@Nonnull Object key, @Nonnull Callable<T> callable) {
+        Objects.requireNonNull(callable, "callable");
+        return supply(key, Delegates.callableToSupplier(callable));
+    }
+
+    /**
+     * Execute the passed runnable once a permit has been granted.
+     *
+     * @param runnable the runnable
+     * @return a Promise which will return when the runnable is complete
+     */
+    @Nonnull
+    public Promise<Void> run(@Nonnull Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        return supply(Delegates.runnableToSupplier(runnable));
+    }
+
+    /**
+     * Execute the passed runnable once a permit has been granted under the given key.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @return a Promise which will return when the runnable is complete
+     */
+    @Nonnull
+    public Promise<Void> run(@Nonnull Object key, @Nonnull Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        return supply(key, Delegates.runnableToSupplier(runnable));
+    }
+
+    @Nullable
+    private Bucket getKeyBucket(Object key) {
+        if (this.keySpec == null) {
+            return null;
+        }
+
+        if (this.sweepCounter.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            // a bucket which is removed whilst being reserved from just lets its key
+            // burst again slightly early, which is fine
+            long now = System.nanoTime();
+            this.keyBuckets.values().removeIf(bucket -> bucket.isIdle(now));
+        }
+        return this.keyBuckets.computeIfAbsent(key, k -> new Bucket(this.keySpec));
+    }
+
+    private void schedule(Runnable runnable, @Nullable Bucket keyBucket) {
+        this.submitted.increment();
+        long now = System.nanoTime();
+        long keyPermit = keyBucket == null ? now : keyBucket.reserve(now);
+        long delay = keyPermit - now;
+        if (delay <= 0) {
+            acquireGlobal(runnable, now, false);
+            return;
+        }
+
+        // the global permit is only reserved once the key's permit is due, so a key
+        // which is waiting on its own limit doesn't push back work under other keys
+        this.waiting.incrementAndGet();
+        HelperExecutors.asyncHelper().schedule(() -> acquireGlobal(runnable, now, true), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void acquireGlobal(Runnable runnable, long submitted, boolean waiting) {
+        long now = System.nanoTime();
+        long delay = this.global.reserve(now) - now;
+        if (delay <= 0) {
+            dispatch(runnable, submitted, waiting);
+            return;
+        }
+
+        if (!waiting) {
+            this.waiting.incrementAndGet();
+        }
+        HelperExecutors.asyncHelper().schedule(() -> dispatch(runnable, submitted, true), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void dispatch(Runnable runnable, long submitted, boolean waiting) {
+        if (waiting) {
+            this.waiting.decrementAndGet();
+        }
+        this.waitTimes.record(waiting ? System.nanoTime() - submitted : 0);
+        this.delegate.execute(runnable);
+    }
+
+    private static <T> Runnable supplyTo(Promise<T> promise, Supplier<T> supplier) {
+        return () -> {
+            try {
+                promise.supply(supplier.get());
+            } catch (Throwable t) {
+                promise.supplyException(t);
+            }
+        };
+    }
+
+    /**
+     * Gets the amount of work currently waiting for a permit.
+     *
+     * @return the number of waiting submissions
+     */
+    public int getWaitingCount() {
+        return this.waiting.get();
+    }
+
+    /**
+     * Gets the total number of submissions made to this executor.
+     *
+     * @return the number of submissions
+     */
+    public long getSubmittedCount() {
+        return this.submitted.sum();
+    }
+
+    /**
+     * Gets how long submissions waited for a permit.
+     *
+     * @return the wait times
+     */
+    @Nonnull
+    public Histogram getWaitTimes() {
+        return this.waitTimes;
+    }
+
+    /**
+     * Gets the number of keys which currently have a bucket.
+     *
+     * @return the number of tracked keys
+     */
+    public int getKeyCount() {
+        return this.keyBuckets.size();
+    }
+
+    private static final class BucketSpec {
+        // the time between permits
+        private final long intervalNanos;
+        // how far ahead of the sustained rate permits may be handed out
+        private final long toleranceNanos;
+
+        private BucketSpec(double permitsPerSecond, int burst) {
+            Preconditions.checkArgument(permitsPerSecond > 0, "permitsPerSecond <= 0");
+            Preconditions.checkArgument(burst > 0, "burst <= 0");
+            this.intervalNanos = Math.max((long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond), 1);
+            this.toleranceNanos = this.intervalNanos * (burst - 1);
+        }
+    }
+
+    /**
+     * A token bucket, implemented as a generic cell rate algorithm - rather than counting
+     * tokens, it tracks the theoretical time the next permit would be handed out at if
+     * all permits were handed out at the sustained rate.
+     */
+    private static final class Bucket {
+        private final BucketSpec spec;
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+        private Bucket(BucketSpec spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * Reserves the next permit, at or after the given time.
+         *
+         * @param now the earliest time the permit can be used
+         * @return the nano time the permit can be used at
+         */
+        long reserve(long now) {
+            while (true) {
+                long tat = this.theoreticalArrival.get();
+                long start = tat == Long.MIN_VALUE ? now : Math.max(tat, now);
+                if (this.theoreticalArrival.compareAndSet(tat, start + this.spec.intervalNanos)) {
+                    return tat == Long.MIN_VALUE ? now : Math.max(now, tat - this.spec.toleranceNanos);
+                }
+            }
+        }
+
+        boolean isIdle(long now) {
+            long tat = this.theoreticalArrival.get();
+            return tat == Long.MIN_VALUE || tat < now;
+        }
+    }
+}
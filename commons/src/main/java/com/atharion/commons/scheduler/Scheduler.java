@@ -3,6 +3,8 @@ package com.atharion.commons.scheduler;
 import com.atharion.commons.concurrent.ThreadContext;
 import com.atharion.commons.concurrent.promise.Promise;
 import com.atharion.commons.utils.function.Delegates;
+import com.atharion.commons.world.ChunkPosition;
+import org.bukkit.entity.Entity;
 
 import javax.annotation.Nonnull;
 import java.util.Objects;
@@ -151,13 +153,42 @@ public interface Scheduler extends Executor {
     /**
      * Schedule a repeating task to run
      *
+     * @param name the name of the task
      * @param consumer the task to run
      * @param delayTicks the delay before the task begins
      * @param intervalTicks the interval at which the task will repeat
      * @return a task instance
      */
     @Nonnull
-    Task runRepeating(@Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks);
+    Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks);
+
+    /**
+     * Schedule a repeating task to run
+     *
+     * @param name the name of the task
+     * @param consumer the task to run
+     * @param delay the delay before the task begins
+     * @param delayUnit the unit of delay
+     * @param interval the interval at which the task will repeat
+     * @param intervalUnit the unit of interval
+     * @return a task instance
+     */
+    @Nonnull
+    Task runRepeating(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit);
+
+    /**
+     * Schedule a repeating task to run
+     *
+     * @param consumer the task to run
+     * @param delayTicks the delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     */
+    @Nonnull
+    default Task runRepeating(@Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        Objects.requireNonNull(consumer, "consumer");
+        return runRepeating(TaskRegistry.nameOf(consumer), consumer, delayTicks, intervalTicks);
+    }
 
     /**
      * Schedule a repeating task to run
@@ -170,7 +201,10 @@ public interface Scheduler extends Executor {
      * @return a task instance
      */
     @Nonnull
-    Task runRepeating(@Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit);
+    default Task runRepeating(@Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+        Objects.requireNonNull(consumer, "consumer");
+        return runRepeating(TaskRegistry.nameOf(consumer), consumer, delay, delayUnit, interval, intervalUnit);
+    }
 
     /**
      * Schedule a repeating task to run
@@ -199,4 +233,273 @@ public interface Scheduler extends Executor {
     default Task runRepeating(@Nonnull Runnable runnable, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
         return runRepeating(Delegates.runnableToConsumer(runnable), delay, delayUnit, interval, intervalUnit);
     }
-}
\ No newline at end of file
+
+    /**
+     * Schedule a repeating task which only runs while the given chunk is loaded.
+     *
+     * <p>While the chunk is unloaded, the task is suspended, and costs nothing.</p>
+     *
+     * @param chunk the chunk the task is bound to
+     * @param name the name of the task
+     * @param consumer the task to run
+     * @param delayTicks the delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see BoundTaskIndex
+     */
+    @Nonnull
+    default Task runRepeating(@Nonnull ChunkPosition chunk, @Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        return HelperExecutors.boundTasks().bind(this, chunk, name, consumer, delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task which only runs while the given chunk is loaded.
+     *
+     * <p>While the chunk is unloaded, the task is suspended, and costs nothing.</p>
+     *
+     * @param chunk the chunk the task is bound to
+     * @param consumer the task to run
+     * @param delayTicks the delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see BoundTaskIndex
+     */
+    @Nonnull
+    default Task runRepeating(@Nonnull ChunkPosition chunk, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        return runRepeating(chunk, TaskRegistry.nameOf(consumer), consumer, delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task which only runs while the given entity is in the world.
+     *
+     * <p>While the entity is removed, the task is suspended, and costs nothing. The task
+     * is stopped once the entity dies, unless it is a player.</p>
+     *
+     * @param entity the entity the task is bound to
+     * @param name the name of the task
+     * @param consumer the task to run
+     * @param delayTicks the delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see BoundTaskIndex
+     */
+    @Nonnull
+    default Task runRepeating(@Nonnull Entity entity, @Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        return HelperExecutors.boundTasks().bind(this, entity, name, consumer, delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task which only runs while the given entity is in the world.
+     *
+     * <p>While the entity is removed, the task is suspended, and costs nothing. The task
+     * is stopped once the entity dies, unless it is a player.</p>
+     *
+     * @param entity the entity the task is bound to
+     * @param consumer the task to run
+     * @param delayTicks the delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see BoundTaskIndex
+     */
+    @Nonnull
+    default Task runRepeating(@Nonnull Entity entity, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        return runRepeating(entity, TaskRegistry.nameOf(consumer), consumer, delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task to run, at a tick chosen to spread the load of repeating
+     * tasks evenly across ticks.
+     *
+     * <p>The task first runs on the first tick after the delay which suits the balancer,
+     * so it may begin up to {@code intervalTicks - 1} ticks later than requested, and
+     * may occasionally be moved to a later tick as the cost of tasks changes.</p>
+     *
+     * <p>Spreading only applies to the main thread, and to intervals of at most
+     * {@link TickPhaseBalancer#MAX_PERIOD_TICKS} - otherwise, this is the same as
+     * {@link #runRepeating(Consumer, long, long)}.</p>
+     *
+     * @param consumer the task to run
+     * @param delayTicks the minimum delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see TickPhaseBalancer
+     */
+    @Nonnull
+    default Task runRepeatingSpread(@Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        Objects.requireNonNull(consumer, "consumer");
+        return runRepeatingSpread(TaskRegistry.nameOf(consumer), consumer, delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task to run, at a tick chosen to spread the load of repeating
+     * tasks evenly across ticks.
+     *
+     * @param consumer the task to run
+     * @param delay the minimum delay before the task begins
+     * @param delayUnit the unit of delay
+     * @param interval the interval at which the task will repeat
+     * @param intervalUnit the unit of interval
+     * @return a task instance
+     * @see #runRepeatingSpread(Consumer, long, long)
+     */
+    @Nonnull
+    default Task runRepeatingSpread(@Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+        Objects.requireNonNull(consumer, "consumer");
+        return runRepeatingSpread(TaskRegistry.nameOf(consumer), consumer, delay, delayUnit, interval, intervalUnit);
+    }
+
+    /**
+     * Schedule a repeating task to run, at a tick chosen to spread the load of repeating
+     * tasks evenly across ticks.
+     *
+     * @param name the name of the task
+     * @param consumer the task to run
+     * @param delayTicks the minimum delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see #runRepeatingSpread(Consumer, long, long)
+     */
+    @Nonnull
+    default Task runRepeatingSpread(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        return runRepeating(name, consumer, delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task to run, at a tick chosen to spread the load of repeating
+     * tasks evenly across ticks.
+     *
+     * @param name the name of the task
+     * @param consumer the task to run
+     * @param delay the minimum delay before the task begins
+     * @param delayUnit the unit of delay
+     * @param interval the interval at which the task will repeat
+     * @param intervalUnit the unit of interval
+     * @return a task instance
+     * @see #runRepeatingSpread(Consumer, long, long)
+     */
+    @Nonnull
+    default Task runRepeatingSpread(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+        return runRepeating(name, consumer, delay, delayUnit, interval, intervalUnit);
+    }
+
+    /**
+     * Schedule a repeating task to run, at a tick chosen to spread the load of repeating
+     * tasks evenly across ticks.
+     *
+     * @param runnable the task to run
+     * @param delayTicks the minimum delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat
+     * @return a task instance
+     * @see #runRepeatingSpread(Consumer, long, long)
+     */
+    @Nonnull
+    default Task runRepeatingSpread(@Nonnull Runnable runnable, long delayTicks, long intervalTicks) {
+        return runRepeatingSpread(Delegates.runnableToConsumer(runnable), delayTicks, intervalTicks);
+    }
+
+    /**
+     * Schedule a repeating task to run, at a tick chosen to spread the load of repeating
+     * tasks evenly across ticks.
+     *
+     * @param runnable the task to run
+     * @param delay the minimum delay before the task begins
+     * @param delayUnit the unit of delay
+     * @param interval the interval at which the task will repeat
+     * @param intervalUnit the unit of interval
+     * @return a task instance
+     * @see #runRepeatingSpread(Consumer, long, long)
+     */
+    @Nonnull
+    default Task runRepeatingSpread(@Nonnull Runnable runnable, long delay, @Nonnull TimeUnit delayUnit, long interval, @Nonnull TimeUnit intervalUnit) {
+        return runRepeatingSpread(Delegates.runnableToConsumer(runnable), delay, delayUnit, interval, intervalUnit);
+    }
+
+    /**
+     * Runs the runnable as soon as possible, collapsing submissions made under the same
+     * key before it runs into a single execution.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @return a Promise which will return when the runnable is complete
+     * @see KeyedCoalescer
+     */
+    @Nonnull
+    default Promise<Void> coalesce(@Nonnull Object key, @Nonnull Runnable runnable) {
+        return KeyedCoalescer.of(this).coalesce(key, runnable);
+    }
+
+    /**
+     * Runs the runnable once no submissions have been made under the same key for the given delay.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @param delayTicks the quiet period before the runnable is run
+     * @return a Promise which will return when the runnable is complete
+     * @see KeyedCoalescer
+     */
+    @Nonnull
+    default Promise<Void> debounce(@Nonnull Object key, @Nonnull Runnable runnable, long delayTicks) {
+        return debounce(key, runnable, Ticks.to(delayTicks, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the runnable once no submissions have been made under the same key for the given delay.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @param delay the quiet period before the runnable is run
+     * @param unit the unit of delay
+     * @return a Promise which will return when the runnable is complete
+     * @see KeyedCoalescer
+     */
+    @Nonnull
+    default Promise<Void> debounce(@Nonnull Object key, @Nonnull Runnable runnable, long delay, @Nonnull TimeUnit unit) {
+        return KeyedCoalescer.of(this).debounce(key, runnable, delay, unit);
+    }
+
+    /**
+     * Runs the runnable at most once per window for the given key. The first submission
+     * runs straight away, and submissions made during the window collapse into a single
+     * execution when it ends.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @param windowTicks the minimum time between executions
+     * @return a Promise which will return when the runnable is complete
+     * @see KeyedCoalescer
+     */
+    @Nonnull
+    default Promise<Void> throttle(@Nonnull Object key, @Nonnull Runnable runnable, long windowTicks) {
+        return throttle(key, runnable, Ticks.to(windowTicks, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the runnable at most once per window for the given key. The first submission
+     * runs straight away, and submissions made during the window collapse into a single
+     * execution when it ends.
+     *
+     * @param key the key
+     * @param runnable the runnable
+     * @param window the minimum time between executions
+     * @param unit the unit of window
+     * @return a Promise which will return when the runnable is complete
+     * @see KeyedCoalescer
+     */
+    @Nonnull
+    default Promise<Void> throttle(@Nonnull Object key, @Nonnull Runnable runnable, long window, @Nonnull TimeUnit unit) {
+        return KeyedCoalescer.of(this).throttle(key, runnable, window, unit);
+    }
+
+    /**
+     * Gets a lane of this scheduler which runs work submitted under the given key one
+     * at a time, in submission order. Work for different keys still runs in parallel.
+     *
+     * @param key the key, e.g. a player's uuid
+     * @return the lane for the key
+     * @see KeyedSerialExecutor
+     */
+    @Nonnull
+    default KeyedSerialExecutor.Lane keyed(@Nonnull Object key) {
+        return KeyedSerialExecutor.of(this).forKey(key);
+    }
+}
@@ -25,8 +25,11 @@
 
 package com.atharion.commons.scheduler;
 
+import com.atharion.commons.metrics.Histogram;
 import com.atharion.commons.terminable.Terminable;
 
+import javax.annotation.Nonnull;
+
 /**
  * Represents a scheduled repeating task
  */
@@ -39,6 +42,25 @@ public interface Task extends Terminable {
      */
     int getTimesRan();
 
+    /**
+     * Gets the name of this task.
+     *
+     * <p>Unless a name was given when the task was scheduled, this is derived
+     * from the class of the task's consumer.</p>
+     *
+     * @return the name of this task
+     */
+    @Nonnull
+    String getName();
+
+    /**
+     * Gets the execution times of this task.
+     *
+     * @return the timings of this task
+     */
+    @Nonnull
+    Histogram getTimings();
+
     /**
      * Stops the task
      *
@@ -49,7 +71,7 @@ public interface Task extends Terminable {
     /**
      * Gets the Bukkit ID for this task
      *
-     * @return the bukkit id for this task
+     * @return the bukkit id for this task, or -1 if it isn't backed by its own bukkit task
      */
     int getBukkitId();
 
@@ -0,0 +1,30 @@
+package com.atharion.commons.scheduler;
+
+/**
+ * The priority of work scheduled on the main server thread.
+ *
+ * @see HelperExecutors#sync(TaskPriority)
+ * @see DeferringSyncExecutor
+ */
+public enum TaskPriority {
+
+    /**
+     * Work which must run as soon as possible. It is always scheduled directly,
+     * and is never subject to a batching budget.
+     */
+    CRITICAL,
+
+    /**
+     * Regular gameplay work. This is the priority of everything scheduled without one.
+     */
+    NORMAL,
+
+    /**
+     * Cosmetic work which can safely run late, e.g. hologram, sidebar or particle updates.
+     *
+     * <p>While the server is over its tick budget, deferrable work is postponed to
+     * later ticks, up to a maximum staleness.</p>
+     */
+    DEFERRABLE
+
+}
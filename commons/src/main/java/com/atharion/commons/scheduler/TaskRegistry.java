@@ -0,0 +1,216 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.utils.function.Delegate;
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.google.common.base.Preconditions;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps track of running repeating {@link Task}s and the plugin which scheduled them,
+ * so that expensive tasks can be found.
+ */
+public final class TaskRegistry {
+    // used when the plugin which scheduled a task can't be determined
+    private static final String UNKNOWN_OWNER = "unknown";
+
+    private static final Comparator<Task> BY_TOTAL_TIME = Comparator.comparingLong((Task task) -> task.getTimings().getTotal(TimeUnit.NANOSECONDS)).reversed();
+
+    private static final Map<Task, String> TASKS = new ConcurrentHashMap<>();
+
+    // 0 = disabled
+    private static volatile long slowTaskThresholdNanos = 0;
+
+    /**
+     * Registers a task.
+     *
+     * @param task the task
+     * @param source the object the task delegates to, used to determine the owning plugin
+     */
+    public static void register(@Nonnull Task task, @Nonnull Object source) {
+        Objects.requireNonNull(task, "task");
+        Objects.requireNonNull(source, "source");
+        TASKS.put(task, ownerOf(source));
+    }
+
+    /**
+     * Unregisters a task, once it has been stopped or cancelled.
+     *
+     * <p>Tasks which end without being unregistered, e.g. because they were cancelled through
+     * the bukkit scheduler when their plugin was disabled, are removed once they report
+     * themselves as {@link Task#isClosed() closed}.</p>
+     *
+     * @param task the task
+     */
+    public static void unregister(@Nonnull Task task) {
+        TASKS.remove(task);
+    }
+
+    /**
+     * Gets the name of the plugin which scheduled the given task.
+     *
+     * @param task the task
+     * @return the owning plugin's name, or "unknown"
+     */
+    @Nonnull
+    public static String getOwner(@Nonnull Task task) {
+        return TASKS.getOrDefault(task, UNKNOWN_OWNER);
+    }
+
+    /**
+     * Gets all registered tasks.
+     *
+     * @return the tasks
+     */
+    @Nonnull
+    public static List<Task> getTasks() {
+        prune();
+        return new ArrayList<>(TASKS.keySet());
+    }
+
+    /**
+     * Gets the most expensive tasks scheduled by each plugin, ordered by the
+     * total time they have spent running.
+     *
+     * @param limit the max number of tasks to return per plugin
+     * @return the tasks, grouped by the name of the plugin which scheduled them
+     */
+    @Nonnull
+    public static Map<String, List<Task>> getMostExpensive(int limit) {
+        Preconditions.checkArgument(limit > 0, "limit <= 0");
+        prune();
+
+        Map<String, List<Task>> byOwner = TASKS.entrySet().stream()
+                .collect(Collectors.groupingBy(Map.Entry::getValue, Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+
+        // order plugins by the total time of their tasks
+        Map<String, List<Task>> result = new LinkedHashMap<>();
+        byOwner.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, List<Task>> e) -> totalNanos(e.getValue())).reversed())
+                .forEach(e -> result.put(e.getKey(), e.getValue().stream()
+                        .sorted(BY_TOTAL_TIME)
+                        .limit(limit)
+                        .collect(Collectors.toList())
+                ));
+        return result;
+    }
+
+    /**
+     * Gets the most expensive tasks scheduled by the given plugin, ordered by the
+     * total time they have spent running.
+     *
+     * @param plugin the plugin
+     * @param limit the max number of tasks to return
+     * @return the tasks
+     */
+    @Nonnull
+    public static List<Task> getMostExpensive(@Nonnull Plugin plugin, int limit) {
+        Objects.requireNonNull(plugin, "plugin");
+        Preconditions.checkArgument(limit > 0, "limit <= 0");
+
+        prune();
+        String name = plugin.getName();
+        return TASKS.entrySet().stream()
+                .filter(e -> e.getValue().equals(name))
+                .map(Map.Entry::getKey)
+                .sorted(BY_TOTAL_TIME)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Sets the threshold above which a single run of a sync task is logged as slow.
+     *
+     * @param threshold the threshold, or 0 to disable logging
+     * @param unit the unit of threshold
+     */
+    public static void setSlowTaskThreshold(long threshold, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(threshold >= 0, "threshold < 0");
+        slowTaskThresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * Gets the threshold above which a single run of a sync task is logged as slow.
+     *
+     * @param unit the unit to return the threshold in
+     * @return the threshold, or 0 if disabled
+     */
+    public static long getSlowTaskThreshold(@Nonnull TimeUnit unit) {
+        return unit.convert(slowTaskThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Logs a warning if a run of a sync task took longer than the slow task threshold.
+     *
+     * @param task the task
+     * @param nanos the duration of the run
+     */
+    public static void checkSlow(@Nonnull Task task, long nanos) {
+        long threshold = slowTaskThresholdNanos;
+        if (threshold == 0 || nanos < threshold) {
+            return;
+        }
+
+        String owner = getOwner(task);
+        LoaderUtils.getPlugin().getLogger().warning(String.format(
+                "Sync task '%s' from %s took %.2fms (threshold %.2fms)",
+                task.getName(), owner, nanos / 1e6, threshold / 1e6
+        ));
+    }
+
+    /**
+     * Gets a default name for a task which delegates to the given object.
+     *
+     * <p>The name is the class name of the object. For lambdas, this is the name of
+     * the class the lambda was declared in.</p>
+     *
+     * @param source the object
+     * @return a name
+     */
+    @Nonnull
+    public static String nameOf(@Nonnull Object source) {
+        String name = Delegate.resolve(source).getClass().getName();
+        int lambda = name.indexOf("$$Lambda");
+        if (lambda != -1) {
+            return name.substring(0, lambda) + "$lambda";
+        }
+        return name;
+    }
+
+    // removes tasks which ended without being unregistered
+    private static void prune() {
+        TASKS.keySet().removeIf(Task::isClosed);
+    }
+
+    private static String ownerOf(Object source) {
+        try {
+            return JavaPlugin.getProvidingPlugin(Delegate.resolve(source).getClass()).getName();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return UNKNOWN_OWNER;
+        }
+    }
+
+    private static long totalNanos(List<Task> tasks) {
+        long total = 0;
+        for (Task task : tasks) {
+            total += task.getTimings().getTotal(TimeUnit.NANOSECONDS);
+        }
+        return total;
+    }
+
+    private TaskRegistry() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
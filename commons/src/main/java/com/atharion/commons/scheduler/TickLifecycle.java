@@ -0,0 +1,274 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.event.Events;
+import com.atharion.commons.terminable.Terminable;
+import com.atharion.commons.terminable.composite.CompositeTerminable;
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
+import com.destroystokyo.paper.event.server.ServerTickStartEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventPriority;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs hooks at fixed points in each server tick.
+ *
+ * <p>{@link Phase#PRE} hooks run at the start of each tick, before any scheduled tasks.
+ * {@link Phase#POST} hooks run once all work for the tick is done, making them a good
+ * place to flush anything batched up during the tick. Within a phase, hooks run in
+ * ascending order, then in the order they were registered.</p>
+ *
+ * <p>On Paper, the phases are driven by the tick start and end events. Otherwise, a
+ * repeating task runs the post hooks of the previous tick followed by the pre hooks of
+ * the current one, so post hooks still run before any work for the next tick, and tick
+ * durations are estimated from the time between tick starts.</p>
+ */
+public final class TickLifecycle {
+    // the default order of hooks registered without one
+    public static final int DEFAULT_ORDER = 0;
+
+    private static final long TICK_NANOS = Ticks.to(1, TimeUnit.NANOSECONDS);
+    private static final Hook[] EMPTY = new Hook[0];
+    private static final Comparator<Hook> ORDER = Comparator.comparingInt((Hook hook) -> hook.order).thenComparingLong(hook -> hook.sequence);
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CompositeTerminable listeners = CompositeTerminable.create();
+    private volatile boolean precise = false;
+
+    // replaced as a whole on each change, so the main thread can iterate without locking
+    private volatile Hook[] preHooks = EMPTY;
+    private volatile Hook[] postHooks = EMPTY;
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    private volatile long tick = 0;
+    private volatile long tickStart = 0;
+    private volatile long lastDurationNanos = 0;
+
+    TickLifecycle() {
+
+    }
+
+    /**
+     * Registers a hook to run in the given phase of every tick.
+     *
+     * @param phase the phase
+     * @param order the order of the hook within the phase. lower runs first
+     * @param hook the hook
+     * @return a terminable which unregisters the hook
+     */
+    @Nonnull
+    public Terminable register(@Nonnull Phase phase, int order, @Nonnull Runnable hook) {
+        Objects.requireNonNull(phase, "phase");
+        Objects.requireNonNull(hook, "hook");
+        Hook entry = new Hook(phase, order, this.sequence.getAndIncrement(), hook);
+        update(phase, hooks -> {
+            Hook[] copy = Arrays.copyOf(hooks, hooks.length + 1);
+            copy[hooks.length] = entry;
+            Arrays.sort(copy, ORDER);
+            return copy;
+        });
+        start();
+        return entry;
+    }
+
+    /**
+     * Registers a hook to run in the given phase of every tick, with the {@link #DEFAULT_ORDER default order}.
+     *
+     * @param phase the phase
+     * @param hook the hook
+     * @return a terminable which unregisters the hook
+     */
+    @Nonnull
+    public Terminable register(@Nonnull Phase phase, @Nonnull Runnable hook) {
+        return register(phase, DEFAULT_ORDER, hook);
+    }
+
+    private synchronized void update(Phase phase, UnaryOperator<Hook[]> function) {
+        switch (phase) {
+            case PRE:
+                this.preHooks = function.apply(this.preHooks);
+                break;
+            case POST:
+                this.postHooks = function.apply(this.postHooks);
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Starts driving the phases, if not already started. This happens automatically
+     * when the first hook is registered.
+     */
+    public void start() {
+        if (this.started.get() || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (isPaper()) {
+            this.precise = true;
+            PaperTickListener.subscribe(this, this.listeners);
+        } else {
+            this.listeners.bind(Bukkit.getScheduler().runTaskTimer(LoaderUtils.getPlugin(), this::fallbackTick, 0L, 1L)::cancel);
+        }
+    }
+
+    private static boolean isPaper() {
+        try {
+            Class.forName("com.destroystokyo.paper.event.server.ServerTickStartEvent");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void fallbackTick() {
+        long now = System.nanoTime();
+        if (this.tickStart != 0) {
+            this.lastDurationNanos = now - this.tickStart;
+            run(this.postHooks);
+        }
+        onTickStart(now);
+    }
+
+    private void onTickStart(long now) {
+        this.tick++;
+        this.tickStart = now;
+        run(this.preHooks);
+    }
+
+    private void onTickEnd(long durationNanos) {
+        this.lastDurationNanos = durationNanos;
+        run(this.postHooks);
+    }
+
+    private static void run(Hook[] hooks) {
+        for (Hook hook : hooks) {
+            try {
+                hook.runnable.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Gets if tick durations are read from the server, rather than estimated.
+     *
+     * @return if the measurements are precise
+     */
+    public boolean isPrecise() {
+        return this.precise;
+    }
+
+    /**
+     * Gets the number of ticks which have started since the lifecycle was started.
+     *
+     * @return the current tick
+     */
+    public long getCurrentTick() {
+        return this.tick;
+    }
+
+    /**
+     * Gets the duration of the last completed tick.
+     *
+     * @param unit the unit to return the duration in
+     * @return the duration of the last tick
+     */
+    public long getLastTickDuration(@Nonnull TimeUnit unit) {
+        return unit.convert(this.lastDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the time left before the current tick overruns its 50ms slot.
+     *
+     * @param unit the unit to return the time in
+     * @return the time left in the tick, or 0 if the tick has overrun
+     */
+    public long getTimeRemaining(@Nonnull TimeUnit unit) {
+        long start = this.tickStart;
+        if (start == 0) {
+            return unit.convert(TICK_NANOS, TimeUnit.NANOSECONDS);
+        }
+        return unit.convert(Math.max(start + TICK_NANOS - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+    }
+
+    public void shutdown() {
+        this.listeners.closeAndReportException();
+    }
+
+    /**
+     * A point in the server tick.
+     */
+    public enum Phase {
+
+        /**
+         * The start of the tick, before scheduled tasks and world ticking.
+         */
+        PRE,
+
+        /**
+         * The end of the tick, after all work for the tick has been done.
+         */
+        POST
+
+    }
+
+    private final class Hook implements Terminable {
+        private final Phase phase;
+        private final int order;
+        private final long sequence;
+        private final Runnable runnable;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Hook(Phase phase, int order, long sequence, Runnable runnable) {
+            this.phase = phase;
+            this.order = order;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed.compareAndSet(false, true)) {
+                return;
+            }
+            update(this.phase, hooks -> {
+                Hook[] copy = new Hook[hooks.length - 1];
+                int i = 0;
+                for (Hook hook : hooks) {
+                    if (hook != this) {
+                        copy[i++] = hook;
+                    }
+                }
+                return copy;
+            });
+        }
+
+        @Override
+        public boolean isClosed() {
+            return this.closed.get();
+        }
+    }
+
+    // kept separate so the paper event classes are only loaded when present
+    private static final class PaperTickListener {
+        static void subscribe(TickLifecycle lifecycle, CompositeTerminable listeners) {
+            Events.subscribe(ServerTickStartEvent.class, EventPriority.LOWEST)
+                    .handler(e -> lifecycle.onTickStart(System.nanoTime()))
+                    .bindWith(listeners);
+            Events.subscribe(ServerTickEndEvent.class, EventPriority.MONITOR)
+                    .handler(e -> lifecycle.onTickEnd((long) (e.getTickDuration() * 1_000_000)))
+                    .bindWith(listeners);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.terminable.Terminable;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the duration of recent server ticks.
+ *
+ * <p>Durations are read from the {@link TickLifecycle} at the end of each tick. Unless
+ * the lifecycle {@link TickLifecycle#isPrecise() is precise}, they are the gaps between the
+ * starts of consecutive ticks, so can't be less than the length of a tick, and only reflect
+ * lag once the server is already behind. In that case, the server is only considered over
+ * budget once recent ticks have overrun their 50ms slot on average.</p>
+ */
+public final class TickMonitor {
+    // the default tick duration above which the server is considered over budget
+    public static final long DEFAULT_BUDGET_MILLIS = Long.getLong("atharion.scheduler.msptBudget", 45);
+    // the number of recent ticks the average is taken over
+    private static final int WINDOW = 10;
+    // the budget used when durations are gaps between ticks - a server keeping up averages
+    // 50ms gaps, so anything below this would always be exceeded. 55ms is ~18 tps
+    private static final long IMPRECISE_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(55);
+
+    private final TickLifecycle lifecycle;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile Terminable hook = null;
+
+    // only accessed by the main thread
+    private final long[] durations = new long[WINDOW];
+    private int index = 0;
+    private int count = 0;
+    private long sum = 0;
+
+    private volatile long lastNanos = 0;
+    private volatile long averageNanos = 0;
+    private volatile long budgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MILLIS);
+
+    TickMonitor(TickLifecycle lifecycle) {
+        this.lifecycle = lifecycle;
+    }
+
+    /**
+     * Starts measuring ticks, if not already started.
+     */
+    public void start() {
+        if (this.started.get() || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+
+        // run before other post hooks, so they see this tick's measurement
+        this.hook = this.lifecycle.register(TickLifecycle.Phase.POST, Integer.MIN_VALUE,
+                () -> record(this.lifecycle.getLastTickDuration(TimeUnit.NANOSECONDS)));
+    }
+
+    private void record(long nanos) {
+        this.sum += nanos - this.durations[this.index];
+        this.durations[this.index] = nanos;
+        this.index = (this.index + 1) % WINDOW;
+        if (this.count < WINDOW) {
+            this.count++;
+        }
+
+        this.lastNanos = nanos;
+        this.averageNanos = this.sum / this.count;
+    }
+
+    /**
+     * Gets if tick durations are read from the server, rather than estimated.
+     *
+     * @return if the measurements are precise
+     */
+    public boolean isPrecise() {
+        return this.lifecycle.isPrecise();
+    }
+
+    /**
+     * Gets the duration of the last tick.
+     *
+     * @param unit the unit to return the duration in
+     * @return the duration of the last tick
+     */
+    public long getLastTickTime(@Nonnull TimeUnit unit) {
+        return unit.convert(this.lastNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the average duration of recent ticks.
+     *
+     * @param unit the unit to return the duration in
+     * @return the average tick duration
+     */
+    public long getAverageTickTime(@Nonnull TimeUnit unit) {
+        return unit.convert(this.averageNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the average tick duration above which the server is considered over budget.
+     *
+     * @param budget the budget
+     * @param unit the unit of budget
+     */
+    public void setBudget(long budget, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        Preconditions.checkArgument(budget > 0, "budget <= 0");
+        this.budgetNanos = unit.toNanos(budget);
+    }
+
+    public long getBudget(@Nonnull TimeUnit unit) {
+        return unit.convert(this.budgetNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets if recent ticks have taken longer than the budget on average.
+     *
+     * <p>When measurements aren't {@link #isPrecise() precise}, the budget is raised to
+     * just over the length of a tick.</p>
+     *
+     * @return if the server is over budget
+     */
+    public boolean isOverBudget() {
+        long budget = this.lifecycle.isPrecise() ? this.budgetNanos : Math.max(this.budgetNanos, IMPRECISE_BUDGET_NANOS);
+        return this.averageNanos > budget;
+    }
+
+    public void shutdown() {
+        Terminable hook = this.hook;
+        if (hook != null) {
+            hook.closeAndReportException();
+            this.hook = null;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.atharion.commons.scheduler;
+
+import com.atharion.commons.metrics.Histogram;
+import com.atharion.commons.utils.function.LoaderUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.math.LongMath;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs repeating sync tasks from a single driver task, choosing the tick each task
+ * runs on (its phase within its interval) so that the measured cost of all tasks is
+ * spread as evenly as possible across ticks.
+ *
+ * <p>Without this, every task registered with the same interval & delay runs on the
+ * same tick, and the server sees a spike in tick time once per interval.</p>
+ *
+ * <p>The cost of each task is tracked as a moving average. New tasks are placed on the
+ * least loaded phase, and tasks are periodically moved as costs change. A task is only
+ * ever moved forward - its next run may be delayed by up to one interval, but it will
+ * never run early.</p>
+ *
+ * <p>All state is owned by the main thread. Tasks can be scheduled from any thread.</p>
+ */
+public final class TickPhaseBalancer {
+    // how often tasks are considered for moving
+    private static final long REBALANCE_INTERVAL_TICKS = 100;
+    // the max number of tasks moved in a single rebalance
+    private static final int MAX_MOVES_PER_REBALANCE = 4;
+    // a task is only moved if it reduces the load on its tick by at least this fraction...
+    private static final double MIN_RELATIVE_GAIN = 0.1;
+    // ...and by at least this many nanoseconds
+    private static final double MIN_ABSOLUTE_GAIN_NANOS = 50_000;
+    // the max number of tasks scored in a single rebalance
+    private static final int MAX_CANDIDATES_PER_REBALANCE = 16;
+    // the weight given to the latest measurement in a task's moving average
+    private static final double COST_ALPHA = 0.25;
+
+    /**
+     * The longest interval, in ticks, of a task which can be spread.
+     *
+     * <p>The balancer tracks the load on every phase of each interval, so tasks which
+     * repeat less often than this are left on their own timer.</p>
+     */
+    public static final int MAX_PERIOD_TICKS = 1200;
+
+    // tasks waiting to be placed by the driver
+    private final Queue<SpreadTask> incoming = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile BukkitTask driverTask = null;
+
+    private final AtomicInteger taskCount = new AtomicInteger(0);
+    private volatile long moves = 0;
+
+    // the following fields are only accessed by the main thread
+    private final Map<Integer, PeriodGroup> groups = new HashMap<>();
+    private long tick = 0;
+
+    TickPhaseBalancer() {
+
+    }
+
+    /**
+     * Schedules a repeating task, to be run at a phase chosen by the balancer.
+     *
+     * <p>The task first runs on the first tick after the delay which matches its phase,
+     * so the actual delay may be up to {@code intervalTicks - 1} ticks longer.</p>
+     *
+     * @param name the name of the task
+     * @param consumer the task to run
+     * @param delayTicks the minimum delay before the task begins
+     * @param intervalTicks the interval at which the task will repeat, at most {@link #MAX_PERIOD_TICKS}
+     * @return a task instance
+     */
+    @Nonnull
+    public Task schedule(@Nonnull String name, @Nonnull Consumer<Task> consumer, long delayTicks, long intervalTicks) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(consumer, "consumer");
+        Preconditions.checkArgument(intervalTicks > 0, "intervalTicks <= 0");
+        Preconditions.checkArgument(intervalTicks <= MAX_PERIOD_TICKS, "intervalTicks > MAX_PERIOD_TICKS");
+
+        SpreadTask task = new SpreadTask(name, consumer, (int) intervalTicks, Math.max(delayTicks, 0));
+        this.incoming.offer(task);
+        this.taskCount.incrementAndGet();
+        ensureStarted();
+        return task;
+    }
+
+    /**
+     * Gets the number of tasks currently being balanced.
+     *
+     * @return the number of tasks
+     */
+    public int getTaskCount() {
+        return this.taskCount.get();
+    }
+
+    /**
+     * Gets the total number of times a task has been moved to a different phase.
+     *
+     * @return the number of moves
+     */
+    public long getMoveCount() {
+        return this.moves;
+    }
+
+    private void ensureStarted() {
+        if (this.started.get() || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+        this.driverTask = Bukkit.getScheduler().runTaskTimer(LoaderUtils.getPlugin(), this::drive, 1L, 1L);
+    }
+
+    /**
+     * Stops the driver task. Tasks scheduled with the balancer will no longer run.
+     */
+    public void shutdown() {
+        BukkitTask task = this.driverTask;
+        if (task != null) {
+            task.cancel();
+            this.driverTask = null;
+        }
+    }
+
+    private void drive() {
+        long tick = ++this.tick;
+
+        if (!this.incoming.isEmpty()) {
+            computeLoads();
+            SpreadTask task;
+            while ((task = this.incoming.poll()) != null) {
+                place(task, tick);
+            }
+        }
+
+        for (PeriodGroup group : this.groups.values()) {
+            List<SpreadTask> tasks = group.phases[(int) (tick % group.period)];
+            if (tasks == null) {
+                continue;
+            }
+
+            // iterate by index - stopped tasks are removed as we go
+            for (int i = 0; i < tasks.size(); i++) {
+                SpreadTask task = tasks.get(i);
+                if (task.cancelled.get()) {
+                    removeAt(group, tasks, i--);
+                    continue;
+                }
+                if (tick >= task.notBefore) {
+                    task.run();
+                    if (task.cancelled.get()) {
+                        removeAt(group, tasks, i--);
+                    }
+                }
+            }
+        }
+
+        if (tick % REBALANCE_INTERVAL_TICKS == 0) {
+            rebalance(tick);
+        }
+    }
+
+    private void removeAt(PeriodGroup group, List<SpreadTask> tasks, int index) {
+        // order within a phase doesn't matter, so swap with the last element
+        int last = tasks.size() - 1;
+        tasks.set(index, tasks.get(last));
+        tasks.remove(last);
+        group.size--;
+        this.taskCount.decrementAndGet();
+    }
+
+    private void place(SpreadTask task, long tick) {
+        if (task.cancelled.get()) {
+            this.taskCount.decrementAndGet();
+            return;
+        }
+
+        // we don't know how expensive the task is yet - assume it's average, so that
+        // a batch of new tasks is spread out instead of being placed on the same phase
+        task.cost = averageCost();
+
+        PeriodGroup group = this.groups.computeIfAbsent(task.period, PeriodGroup::new);
+        int phase = bestPhase(task.period);
+        task.phase = phase;
+        task.notBefore = tick + task.delay;
+        group.add(task);
+        group.addLoad(phase, task.cost);
+    }
+
+    private double averageCost() {
+        double total = 0;
+        int count = 0;
+        for (PeriodGroup group : this.groups.values()) {
+            for (double load : group.load) {
+                total += load;
+            }
+            count += group.size;
+        }
+        return count == 0 ? 1 : Math.max(total / count, 1);
+    }
+
+    private void computeLoads() {
+        Iterator<PeriodGroup> it = this.groups.values().iterator();
+        while (it.hasNext()) {
+            PeriodGroup group = it.next();
+            if (group.size == 0) {
+                it.remove();
+                continue;
+            }
+            group.computeLoad();
+        }
+    }
+
+    private void rebalance(long tick) {
+        computeLoads();
+
+        List<SpreadTask> candidates = new ArrayList<>();
+        for (PeriodGroup group : this.groups.values()) {
+            for (List<SpreadTask> tasks : group.phases) {
+                if (tasks != null) {
+                    candidates.addAll(tasks);
+                }
+            }
+        }
+
+        // consider the most expensive tasks first, as they gain the most from being moved
+        candidates.sort((a, b) -> Double.compare(b.cost, a.cost));
+        if (candidates.size() > MAX_CANDIDATES_PER_REBALANCE) {
+            candidates = candidates.subList(0, MAX_CANDIDATES_PER_REBALANCE);
+        }
+
+        int moved = 0;
+        for (SpreadTask task : candidates) {
+            if (moved >= MAX_MOVES_PER_REBALANCE) {
+                break;
+            }
+            if (task.cancelled.get()) {
+                continue;
+            }
+
+            PeriodGroup group = this.groups.get(task.period);
+
+            // score the phases without the task itself
+            group.addLoad(task.phase, -task.cost);
+            double[] scores = scorePhases(task.period);
+            int best = task.phase;
+            for (int phase = 0; phase < scores.length; phase++) {
+                if (scores[phase] < scores[best]) {
+                    best = phase;
+                }
+            }
+
+            double gain = scores[task.phase] - scores[best];
+            if (best == task.phase || gain < MIN_ABSOLUTE_GAIN_NANOS || gain < scores[task.phase] * MIN_RELATIVE_GAIN) {
+                group.addLoad(task.phase, task.cost);
+                continue;
+            }
+
+            // don't let the task run again until it would have done at its old phase
+            task.notBefore = Math.max(task.notBefore, nextOccurrence(tick, task.period, task.phase));
+
+            group.remove(task);
+            task.phase = best;
+            group.add(task);
+            group.addLoad(best, task.cost);
+
+            moved++;
+            this.moves++;
+        }
+    }
+
+    private static long nextOccurrence(long tick, int period, int phase) {
+        long offset = Math.floorMod(phase - tick, (long) period);
+        return tick + (offset == 0 ? period : offset);
+    }
+
+    private int bestPhase(int period) {
+        double[] scores = scorePhases(period);
+        int best = 0;
+        for (int phase = 0; phase < scores.length; phase++) {
+            if (scores[phase] < scores[best]) {
+                best = phase;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Scores each phase of a task with the given period by the expected load of
+     * the other tasks which run on the same tick as it.
+     *
+     * A task with period p at phase φ and a task with period q at phase ψ run on
+     * the same tick iff φ ≡ ψ (mod gcd(p, q)), and when they do, it is on g/q of the
+     * first task's runs.
+     */
+    private double[] scorePhases(int period) {
+        double[] scores = new double[period];
+        for (PeriodGroup group : this.groups.values()) {
+            int g = (int) LongMath.gcd(period, group.period);
+            double[] folded = group.folded(g);
+            double factor = (double) g / group.period;
+            for (int phase = 0; phase < period; phase++) {
+                scores[phase] += folded[phase % g] * factor;
+            }
+        }
+        return scores;
+    }
+
+    private static final class PeriodGroup {
+        private final int period;
+        // the tasks at each phase, lazily created
+        private final List<SpreadTask>[] phases;
+        // the total cost of the tasks at each phase
+        private final double[] load;
+        // the load folded modulo each gcd it has been scored against, cleared by computeLoad
+        private final Map<Integer, double[]> folds = new HashMap<>();
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        PeriodGroup(int period) {
+            this.period = period;
+            this.phases = new List[period];
+            this.load = new double[period];
+        }
+
+        void add(SpreadTask task) {
+            List<SpreadTask> tasks = this.phases[task.phase];
+            if (tasks == null) {
+                tasks = new ArrayList<>(2);
+                this.phases[task.phase] = tasks;
+            }
+            tasks.add(task);
+            this.size++;
+        }
+
+        void remove(SpreadTask task) {
+            List<SpreadTask> tasks = this.phases[task.phase];
+            if (tasks != null && tasks.remove(task)) {
+                this.size--;
+            }
+        }
+
+        void addLoad(int phase, double cost) {
+            this.load[phase] += cost;
+            for (Map.Entry<Integer, double[]> fold : this.folds.entrySet()) {
+                fold.getValue()[phase % fold.getKey()] += cost;
+            }
+        }
+
+        double[] folded(int g) {
+            double[] folded = this.folds.get(g);
+            if (folded == null) {
+                folded = new double[g];
+                for (int phase = 0; phase < this.period; phase++) {
+                    folded[phase % g] += this.load[phase];
+                }
+                this.folds.put(g, folded);
+            }
+            return folded;
+        }
+
+        void computeLoad() {
+            this.folds.clear();
+            for (int phase = 0; phase < this.period; phase++) {
+                double load = 0;
+                List<SpreadTask> tasks = this.phases[phase];
+                if (tasks != null) {
+                    for (SpreadTask task : tasks) {
+                        load += task.cost;
+                    }
+                }
+                this.load[phase] = load;
+            }
+        }
+    }
+
+    private static final class SpreadTask implements Task {
+        private final String name;
+        private final Consumer<Task> backingTask;
+        private final int period;
+        private final long delay;
+
+        private final AtomicInteger counter = new AtomicInteger(0);
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final Histogram timings = new Histogram();
+
+        // the following fields are only accessed by the main thread
+        private int phase;
+        private long notBefore;
+        private double cost;
+
+        private SpreadTask(String name, Consumer<Task> backingTask, int period, long delay) {
+            this.name = name;
+            this.backingTask = backingTask;
+            this.period = period;
+            this.delay = delay;
+            TaskRegistry.register(this, backingTask);
+        }
+
+        void run() {
+            long start = System.nanoTime();
+            try {
+                this.backingTask.accept(this);
+                this.counter.incrementAndGet();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+            long duration = System.nanoTime() - start;
+            this.cost += (duration - this.cost) * COST_ALPHA;
+            this.timings.record(duration);
+            TaskRegistry.checkSlow(this, duration);
+        }
+
+        @Override
+        public int getTimesRan() {
+            return this.counter.get();
+        }
+
+        @Nonnull
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Nonnull
+        @Override
+        public Histogram getTimings() {
+            return this.timings;
+        }
+
+        @Override
+        public boolean stop() {
+            if (!this.cancelled.getAndSet(true)) {
+                TaskRegistry.unregister(this);
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int getBukkitId() {
+            // spread tasks share the balancer's bukkit task, so have no id of their own
+            return -1;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return this.cancelled.get();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.atharion.commons.scheduler;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed hierarchical timing wheel.
+ *
+ * <p>Timeouts are inserted and cancelled in O(1), regardless of how many are outstanding.
+ * Time advances in fixed ticks on a single worker thread, so a timeout fires at most one
+ * tick after its deadline.</p>
+ *
+ * <p>Tasks are run on the worker thread, and should therefore only hand work off
+ * to another executor.</p>
+ */
+public final class TimingWheel {
+    // each level of the wheel has 2^WHEEL_BITS slots
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    // the furthest a timeout can be placed into the wheel. timeouts with a later deadline
+    // are placed at the limit, and re-placed when they reach it.
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private static final AtomicIntegerFieldUpdater<Entry> ENTRY_STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+    private final long tickNanos;
+    private final long startTime;
+
+    private final Bucket[][] wheels = new Bucket[LEVELS][WHEEL_SIZE];
+
+    // timeouts waiting to be placed into the wheel by the worker
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    // timeouts waiting to be unlinked from the wheel by the worker
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean idle = false;
+    private volatile boolean shutdown = false;
+
+    // the following fields are only accessed by the worker thread
+    private long tick = 0;
+    private int linked = 0;
+
+    public TimingWheel(long tickDuration, @Nonnull TimeUnit unit, @Nonnull ThreadFactory threadFactory) {
+        Objects.requireNonNull(unit, "unit");
+        Objects.requireNonNull(threadFactory, "threadFactory");
+        Preconditions.checkArgument(tickDuration > 0, "tickDuration <= 0");
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startTime = System.nanoTime();
+
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                this.wheels[level][slot] = new Bucket();
+            }
+        }
+
+        this.worker = threadFactory.newThread(this::work);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run after the given delay.
+     *
+     * @param task the task
+     * @param delay the delay
+     * @param unit the unit of delay
+     * @return a handle which can be used to cancel the timeout
+     */
+    @Nonnull
+    public Timeout newTimeout(@Nonnull Runnable task, long delay, @Nonnull TimeUnit unit) {
+        Objects.requireNonNull(unit, "unit");
+        // avoid overflow when calculating the deadline
+        long delayNanos = Math.min(Math.max(unit.toNanos(delay), 0), Long.MAX_VALUE >> 2);
+        return newTimeoutAt(task, System.nanoTime() + delayNanos);
+    }
+
+    /**
+     * Schedules a task to run at the given {@link System#nanoTime()} time.
+     *
+     * @param task the task
+     * @param deadline the nano time to run the task at
+     * @return a handle which can be used to cancel the timeout
+     */
+    @Nonnull
+    public Timeout newTimeoutAt(@Nonnull Runnable task, long deadline) {
+        Objects.requireNonNull(task, "task");
+        if (this.shutdown) {
+            throw new RejectedExecutionException("TimingWheel has been shutdown");
+        }
+
+        // round up, so we never fire early
+        long elapsed = Math.max(deadline - this.startTime, 0);
+        long deadlineTick = (elapsed + this.tickNanos - 1) / this.tickNanos;
+
+        Entry entry = new Entry(task, deadlineTick);
+        this.pending.offer(entry);
+        if (this.idle) {
+            LockSupport.unpark(this.worker);
+        }
+        return entry;
+    }
+
+    /**
+     * Gets if the current thread is the worker thread of this wheel.
+     *
+     * @return if the current thread is the worker
+     */
+    public boolean isWorkerThread() {
+        return Thread.currentThread() == this.worker;
+    }
+
+    /**
+     * Stops the worker thread. Outstanding timeouts will not fire.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        LockSupport.unpark(this.worker);
+    }
+
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    public boolean isTerminated() {
+        return this.shutdown && !this.worker.isAlive();
+    }
+
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long millis = Math.max(unit.toMillis(timeout), 1);
+        this.worker.join(millis);
+        return !this.worker.isAlive();
+    }
+
+    private void work() {
+        while (!this.shutdown) {
+            // nothing to do, so wait until a timeout is added
+            if (this.linked == 0 && this.pending.isEmpty()) {
+                this.idle = true;
+                if (this.pending.isEmpty() && !this.shutdown) {
+                    LockSupport.park(this);
+                }
+                this.idle = false;
+
+                // the wheel is empty, so there's no need to step through the ticks we missed
+                this.tick = Math.max(this.tick, currentTick() - 1);
+                continue;
+            }
+
+            long wait = this.startTime + (this.tick + 1) * this.tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            advance(++this.tick);
+        }
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - this.startTime) / this.tickNanos;
+    }
+
+    private void advance(long tick) {
+        // move timeouts down from the upper levels once their range comes around
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = WHEEL_BITS * level;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                Entry entry = this.wheels[level][(int) ((tick >>> shift) & WHEEL_MASK)].clear();
+                while (entry != null) {
+                    Entry next = entry.next;
+                    entry.next = null;
+                    this.linked--;
+                    place(entry);
+                    entry = next;
+                }
+            }
+        }
+
+        Entry entry;
+        while ((entry = this.pending.poll()) != null) {
+            if (entry.state == Entry.ST_INIT) {
+                place(entry);
+            }
+        }
+
+        while ((entry = this.cancelled.poll()) != null) {
+            if (entry.bucket != null) {
+                entry.bucket.remove(entry);
+                this.linked--;
+            }
+        }
+
+        entry = this.wheels[0][(int) (tick & WHEEL_MASK)].clear();
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+            this.linked--;
+            if (entry.deadline > tick) {
+                // placed at the limit of the wheel - not due yet
+                place(entry);
+            } else {
+                entry.expire();
+            }
+            entry = next;
+        }
+    }
+
+    private void place(Entry entry) {
+        long delta = entry.deadline - this.tick;
+        if (delta <= 0) {
+            // already due, so place into the slot which is about to be expired
+            this.wheels[0][(int) (this.tick & WHEEL_MASK)].add(entry);
+            this.linked++;
+            return;
+        }
+
+        if (delta > MAX_DELTA) {
+            delta = MAX_DELTA;
+        }
+
+        long target = this.tick + delta;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            if (delta < (1L << (shift + WHEEL_BITS))) {
+                this.wheels[level][(int) ((target >>> shift) & WHEEL_MASK)].add(entry);
+                this.linked++;
+                return;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * A handle for a task scheduled in a {@link TimingWheel}.
+     */
+    public interface Timeout {
+
+        /**
+         * Cancels the timeout. The task will not run, and is released immediately.
+         *
+         * @return true if the timeout was cancelled by this call
+         */
+        boolean cancel();
+
+        /**
+         * Gets if the timeout was cancelled.
+         *
+         * @return if the timeout was cancelled
+         */
+        boolean isCancelled();
+
+        /**
+         * Gets if the timeout has expired, and its task has been run.
+         *
+         * @return if the timeout has expired
+         */
+        boolean isExpired();
+
+        /**
+         * Gets the remaining delay until the timeout expires.
+         *
+         * @param unit the unit to return the delay in
+         * @return the remaining delay
+         */
+        long getDelay(@Nonnull TimeUnit unit);
+
+    }
+
+    private static final class Bucket {
+        private Entry head;
+        private Entry tail;
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            entry.prev = this.tail;
+            if (this.tail == null) {
+                this.head = entry;
+            } else {
+                this.tail.next = entry;
+            }
+            this.tail = entry;
+        }
+
+        void remove(Entry entry) {
+            if (entry.prev == null) {
+                this.head = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+            if (entry.next == null) {
+                this.tail = entry.prev;
+            } else {
+                entry.next.prev = entry.prev;
+            }
+            entry.prev = null;
+            entry.next = null;
+            entry.bucket = null;
+        }
+
+        // detaches and returns the contents of the bucket. the returned
+        // entries are still chained together via their next pointers
+        Entry clear() {
+            Entry head = this.head;
+            for (Entry entry = head; entry != null; entry = entry.next) {
+                entry.prev = null;
+                entry.bucket = null;
+            }
+            this.head = null;
+            this.tail = null;
+            return head;
+        }
+    }
+
+    private final class Entry implements Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        // accessed via ENTRY_STATE, so can't be private
+        volatile int state = ST_INIT;
+        private volatile Runnable task;
+        private final long deadline;
+
+        // only accessed by the worker thread
+        private Entry prev;
+        private Entry next;
+        private Bucket bucket;
+
+        private Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        void expire() {
+            if (!ENTRY_STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+
+            Runnable task = this.task;
+            this.task = null;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!ENTRY_STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            // release the task straight away, then let the worker unlink the entry
+            this.task = null;
+            TimingWheel.this.cancelled.offer(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.state == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return this.state == ST_EXPIRED;
+        }
+
+        @Override
+        public long getDelay(@Nonnull TimeUnit unit) {
+            long deadline = TimingWheel.this.startTime + this.deadline * TimingWheel.this.tickNanos;
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.atharion.commons.scheduler;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual thread executors on Java 21+, without requiring the library to be
+ * compiled against it.
+ */
+final class VirtualThreads {
+
+    private static final boolean SUPPORTED;
+
+    static {
+        boolean supported;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            supported = true;
+        } catch (NoSuchMethodException e) {
+            supported = false;
+        }
+        SUPPORTED = supported;
+    }
+
+    /**
+     * Gets if virtual threads are available on the running JVM.
+     *
+     * @return if virtual threads are supported
+     */
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     *
+     * @param namePrefix the prefix for the names of threads created by the executor
+     * @return the executor, or null if virtual threads aren't supported
+     */
+    @Nullable
+    static ExecutorService newVirtualThreadPerTaskExecutor(@Nonnull String namePrefix) {
+        if (!SUPPORTED) {
+            return null;
+        }
+
+        try {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private VirtualThreads() {
+        throw new UnsupportedOperationException("This class cannot be instantiated");
+    }
+}
@@ -42,4 +42,28 @@ public interface ContextualTaskBuilder {
     @Nonnull
     Task run(@Nonnull Runnable runnable);
 
+    /**
+     * Returns a builder which gives the tasks it schedules the given name.
+     *
+     * <p>The name is used to identify the task in {@link Task#getTimings() timings}
+     * and slow task warnings.</p>
+     *
+     * @param name the name
+     * @return a naming builder
+     */
+    @Nonnull
+    ContextualTaskBuilder named(@Nonnull String name);
+
+    /**
+     * Returns a builder which spreads the tasks it schedules across ticks, instead of
+     * starting them exactly after the delay.
+     *
+     * <p>Spreading only applies to sync tasks.</p>
+     *
+     * @return a spreading builder
+     * @see Scheduler#runRepeatingSpread(Consumer, long, long)
+     */
+    @Nonnull
+    ContextualTaskBuilder spread();
+
 }
\ No newline at end of file
@@ -26,8 +26,11 @@
 package com.atharion.commons.scheduler.builder;
 
 import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.scheduler.TaskRegistry;
+import com.atharion.commons.utils.function.Delegates;
 
 import javax.annotation.Nonnull;
+import java.util.Objects;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -208,23 +211,50 @@ class TaskBuilderImpl implements TaskBuilder {
         private final ThreadContext context;
         private final long delay;
         private final long interval;
+        private final String name;
+        private final boolean spread;
 
         ContextualTaskBuilderTickImpl(ThreadContext context, long delay, long interval) {
+            this(context, delay, interval, null, false);
+        }
+
+        private ContextualTaskBuilderTickImpl(ThreadContext context, long delay, long interval, String name, boolean spread) {
             this.context = context;
             this.delay = delay;
             this.interval = interval;
+            this.name = name;
+            this.spread = spread;
         }
 
         @Nonnull
         @Override
         public Task consume(@Nonnull Consumer<Task> consumer) {
-            return Schedulers.get(this.context).runRepeating(consumer, this.delay, this.interval);
+            Objects.requireNonNull(consumer, "consumer");
+            String name = this.name != null ? this.name : TaskRegistry.nameOf(consumer);
+            if (this.spread) {
+                return Schedulers.get(this.context).runRepeatingSpread(name, consumer, this.delay, this.interval);
+            }
+            return Schedulers.get(this.context).runRepeating(name, consumer, this.delay, this.interval);
         }
 
         @Nonnull
         @Override
         public Task run(@Nonnull Runnable runnable) {
-            return Schedulers.get(this.context).runRepeating(runnable, this.delay, this.interval);
+            Objects.requireNonNull(runnable, "runnable");
+            return consume(Delegates.runnableToConsumer(runnable));
+        }
+
+        @Nonnull
+        @Override
+        public ContextualTaskBuilder named(@Nonnull String name) {
+            Objects.requireNonNull(name, "name");
+            return new ContextualTaskBuilderTickImpl(this.context, this.delay, this.interval, name, this.spread);
+        }
+
+        @Nonnull
+        @Override
+        public ContextualTaskBuilder spread() {
+            return this.spread ? this : new ContextualTaskBuilderTickImpl(this.context, this.delay, this.interval, this.name, true);
         }
     }
 
@@ -234,25 +264,52 @@ class TaskBuilderImpl implements TaskBuilder {
         private final TimeUnit delayUnit;
         private final long interval;
         private final TimeUnit intervalUnit;
+        private final String name;
+        private final boolean spread;
 
         ContextualTaskBuilderTimeImpl(ThreadContext context, long delay, TimeUnit delayUnit, long interval, TimeUnit intervalUnit) {
+            this(context, delay, delayUnit, interval, intervalUnit, null, false);
+        }
+
+        private ContextualTaskBuilderTimeImpl(ThreadContext context, long delay, TimeUnit delayUnit, long interval, TimeUnit intervalUnit, String name, boolean spread) {
             this.context = context;
             this.delay = delay;
             this.delayUnit = delayUnit;
             this.interval = interval;
             this.intervalUnit = intervalUnit;
+            this.name = name;
+            this.spread = spread;
         }
 
         @Nonnull
         @Override
         public Task consume(@Nonnull Consumer<Task> consumer) {
-            return Schedulers.get(this.context).runRepeating(consumer, this.delay, this.delayUnit, this.interval, this.intervalUnit);
+            Objects.requireNonNull(consumer, "consumer");
+            String name = this.name != null ? this.name : TaskRegistry.nameOf(consumer);
+            if (this.spread) {
+                return Schedulers.get(this.context).runRepeatingSpread(name, consumer, this.delay, this.delayUnit, this.interval, this.intervalUnit);
+            }
+            return Schedulers.get(this.context).runRepeating(name, consumer, this.delay, this.delayUnit, this.interval, this.intervalUnit);
         }
 
         @Nonnull
         @Override
         public Task run(@Nonnull Runnable runnable) {
-            return Schedulers.get(this.context).runRepeating(runnable, this.delay, this.delayUnit, this.interval, this.intervalUnit);
+            Objects.requireNonNull(runnable, "runnable");
+            return consume(Delegates.runnableToConsumer(runnable));
+        }
+
+        @Nonnull
+        @Override
+        public ContextualTaskBuilder named(@Nonnull String name) {
+            Objects.requireNonNull(name, "name");
+            return new ContextualTaskBuilderTimeImpl(this.context, this.delay, this.delayUnit, this.interval, this.intervalUnit, name, this.spread);
+        }
+
+        @Nonnull
+        @Override
+        public ContextualTaskBuilder spread() {
+            return this.spread ? this : new ContextualTaskBuilderTimeImpl(this.context, this.delay, this.delayUnit, this.interval, this.intervalUnit, this.name, true);
         }
     }
 }
\ No newline at end of file
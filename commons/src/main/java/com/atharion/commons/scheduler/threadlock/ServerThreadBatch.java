@@ -0,0 +1,183 @@
+package com.atharion.commons.scheduler.threadlock;
+
+import com.atharion.commons.concurrent.ThreadContext;
+import com.atharion.commons.concurrent.promise.Promise;
+import com.atharion.commons.scheduler.BatchingSyncExecutor;
+import com.atharion.commons.scheduler.HelperExecutors;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking alternative to {@link ServerThreadLock}, for work which needs to
+ * read or modify server state from an async thread.
+ *
+ * <p>Instead of parking the main thread until the calling thread has finished, the work
+ * itself is queued and handed back to the caller as a {@link Promise}. All pending work
+ * is run together in a single slot on the next tick, so the main thread never waits on
+ * another thread.</p>
+ *
+ * <p>Each tick, work is run until the tick budget is used up, and anything left over is
+ * carried over to the next tick. A flood of submissions is therefore spread over several
+ * ticks, rather than causing a single long one.</p>
+ *
+ * <p>Once the batch has been shutdown, new work is rejected with a
+ * {@link RejectedExecutionException}.</p>
+ */
+public final class ServerThreadBatch {
+    // the default amount of time the batch may spend running work each tick
+    public static final long DEFAULT_TICK_BUDGET_MILLIS = 5;
+
+    /**
+     * Gets the shared batch, which is shutdown alongside the other {@link HelperExecutors}.
+     *
+     * @return the shared batch
+     */
+    @Nonnull
+    public static ServerThreadBatch get() {
+        return HelperExecutors.serverThreadBatch();
+    }
+
+    private final BatchingSyncExecutor executor;
+
+    public ServerThreadBatch(long tickBudget, @Nonnull TimeUnit unit) {
+        this.executor = new BatchingSyncExecutor(tickBudget, unit);
+    }
+
+    public ServerThreadBatch() {
+        this(DEFAULT_TICK_BUDGET_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the supplier to run on the main thread in the next batch.
+     *
+     * @param supplier the work to run
+     * @param <T> the result type
+     * @return a promise of the result
+     * @throws RejectedExecutionException if the batch has been shutdown
+     */
+    @Nonnull
+    public <T> Promise<T> supply(@Nonnull Supplier<T> supplier) {
+        Objects.requireNonNull(supplier, "supplier");
+        Promise<T> promise = Promise.empty();
+        this.executor.execute(() -> {
+            try {
+                promise.supply(supplier.get());
+            } catch (Throwable t) {
+                promise.supplyException(t);
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Queues the callable to run on the main thread in the next batch.
+     *
+     * @param callable the work to run
+     * @param <T> the result type
+     * @return a promise of the result
+     * @throws RejectedExecutionException if the batch has been shutdown
+     */
+    @Nonnull
+    public <T> Promise<T> call(@Nonnull Callable<T> callable) {
+        Objects.requireNonNull(callable, "callable");
+        Promise<T> promise = Promise.empty();
+        this.executor.execute(() -> {
+            try {
+                promise.supply(callable.call());
+            } catch (Throwable t) {
+                promise.supplyException(t);
+            }
+        });
+        return promise;
+    }
+
+    /**
+     * Queues the runnable to run on the main thread in the next batch.
+     *
+     * @param runnable the work to run
+     * @return a promise which completes once the work has run
+     * @throws RejectedExecutionException if the batch has been shutdown
+     */
+    @Nonnull
+    public Promise<Void> run(@Nonnull Runnable runnable) {
+        Objects.requireNonNull(runnable, "runnable");
+        return supply(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the supplier on the main thread in the next batch, and blocks the calling
+     * thread (but not the main thread) until it has completed.
+     *
+     * <p>If called from the main thread, the supplier is run immediately.</p>
+     *
+     * @param supplier the work to run
+     * @param <T> the result type
+     * @return the result
+     * @throws CompletionException if the supplier threw an exception
+     * @throws RejectedExecutionException if the batch has been shutdown
+     */
+    public <T> T join(@Nonnull Supplier<T> supplier) {
+        Objects.requireNonNull(supplier, "supplier");
+        if (ThreadContext.forCurrentThread() == ThreadContext.SYNC) {
+            // waiting for the next batch from the main thread would never return
+            return supplier.get();
+        }
+        return supply(supplier).join();
+    }
+
+    /**
+     * Sets the amount of time the batch may spend running work each tick.
+     *
+     * @param tickBudget the budget
+     * @param unit the unit of the budget
+     */
+    public void setTickBudget(long tickBudget, @Nonnull TimeUnit unit) {
+        this.executor.setTickBudget(tickBudget, unit);
+    }
+
+    /**
+     * Gets the amount of time the batch may spend running work each tick.
+     *
+     * @param unit the unit to return the budget in
+     * @return the tick budget
+     */
+    public long getTickBudget(@Nonnull TimeUnit unit) {
+        return this.executor.getTickBudget(unit);
+    }
+
+    /**
+     * Gets the amount of work waiting for the next batch.
+     *
+     * @return the number of queued submissions
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueuedCount();
+    }
+
+    /**
+     * Gets the total number of times work was carried over to the next tick
+     * because the tick budget had been used up.
+     *
+     * @return the number of carried over submissions
+     */
+    public long getCarriedOverCount() {
+        return this.executor.getCarriedOverCount();
+    }
+
+    /**
+     * Stops the batch, and rejects any further work. If called from the main thread, any
+     * queued work is run immediately.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
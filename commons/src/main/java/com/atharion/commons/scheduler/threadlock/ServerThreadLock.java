@@ -33,7 +33,11 @@ import com.atharion.commons.terminable.Terminable;
  *
  * <p>It is highly recommended to use this interface with try-with-resource blocks.</p>
  *
+ * <p>The main thread is blocked for as long as the lock is held. Where possible,
+ * {@link ServerThreadBatch} should be used instead.</p>
+ *
  * @see ThreadContext#SYNC
+ * @see ServerThreadBatch
  */
 public interface ServerThreadLock extends Terminable {
 
@@ -29,6 +29,7 @@ import com.atharion.commons.Schedulers;
 import com.atharion.commons.packet.Protocol;
 import com.comphenix.protocol.PacketType;
 import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
 import com.comphenix.protocol.wrappers.BlockPosition;
 import com.comphenix.protocol.wrappers.nbt.NbtCompound;
 import com.comphenix.protocol.wrappers.nbt.NbtFactory;
@@ -42,6 +43,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * Implementation of {@link SignPromptFactory} using ProtocolLib.
@@ -51,6 +53,9 @@ public class PacketSignPromptFactory implements SignPromptFactory {
     private static final BlockData SIGN_BLOCK_DATA = Material.OAK_WALL_SIGN.createBlockData();
     private static final BlockData AIR_BLOCK_DATA = Material.AIR.createBlockData();
 
+    // shared, so the prompts of every player route through one packet listener
+    private static final Function<PacketEvent, Player> PACKET_PLAYER = PacketEvent::getPlayer;
+
     @Override
     public void openPrompt(@Nonnull Player player, @Nonnull List<String> lines, @Nonnull ResponseHandler responseHandler) {
         Location location = player.getLocation().clone();
@@ -83,7 +88,7 @@ public class PacketSignPromptFactory implements SignPromptFactory {
         final AtomicBoolean active = new AtomicBoolean(true);
 
         Protocol.subscribe(PacketType.Play.Client.UPDATE_SIGN)
-                .filter(e -> e.getPlayer().equals(player))
+                .forKey(PACKET_PLAYER, player)
                 .biHandler((sub, event) -> {
                     if (!active.getAndSet(false)) {
                         return;
@@ -0,0 +1,257 @@
+package com.atharion.commons.concurrent.promise;
+
+import com.atharion.commons.scheduler.HelperExecutors;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Races completion, cancellation and chaining against each other on {@link HelperPromise}.
+ *
+ * <p>Only the async contexts are used, as the sync ones need a running server.</p>
+ */
+public class HelperPromiseStressTest {
+    private static final int ITERATIONS = 2000;
+    private static final int THREADS = 4;
+    private static final long TIMEOUT_SECONDS = 30;
+    private static final Function<Integer, Integer> INCREMENT = i -> i + 1;
+
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "promise-stress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @AfterClass
+    public static void shutdown() {
+        POOL.shutdownNow();
+    }
+
+    /**
+     * Runs the actions at the same time on separate threads, and waits for them all to finish.
+     */
+    private static void race(Runnable... actions) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(actions.length);
+        for (Runnable action : actions) {
+            futures.add(POOL.submit(() -> {
+                start.await();
+                action.run();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void completeAndCancelHaveOneWinner() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Promise<Integer> promise = Promise.empty();
+            AtomicInteger callbacks = new AtomicInteger();
+            HelperPromise.whenComplete(promise, (v, t) -> callbacks.incrementAndGet(), false);
+
+            race(() -> promise.supply(1), promise::cancel);
+
+            assertTrue(promise.isDone());
+            if (!promise.isCancelled()) {
+                assertEquals(Integer.valueOf(1), promise.join());
+            }
+            assertEquals(1, callbacks.get());
+        }
+    }
+
+    @Test
+    public void completionsPushedDuringCompletionAllRun() throws Exception {
+        int perThread = 250;
+        for (int i = 0; i < ITERATIONS / 20; i++) {
+            Promise<Integer> promise = Promise.empty();
+            AtomicInteger callbacks = new AtomicInteger();
+
+            Runnable[] actions = new Runnable[THREADS + 1];
+            for (int t = 0; t < THREADS; t++) {
+                actions[t] = () -> {
+                    for (int n = 0; n < perThread; n++) {
+                        HelperPromise.whenComplete(promise, (v, ex) -> callbacks.incrementAndGet());
+                    }
+                };
+            }
+            actions[THREADS] = () -> promise.supply(1);
+            race(actions);
+
+            // whatever side of the completion they were pushed on, each callback runs exactly once
+            assertEquals(THREADS * perThread, callbacks.get());
+        }
+    }
+
+    @Test
+    public void stagesChainedDuringCompletionAllRun() throws Exception {
+        int perThread = 50;
+        for (int i = 0; i < ITERATIONS / 20; i++) {
+            Promise<Integer> promise = Promise.empty();
+            List<List<Promise<Integer>>> stages = new ArrayList<>();
+
+            Runnable[] actions = new Runnable[THREADS + 1];
+            for (int t = 0; t < THREADS; t++) {
+                List<Promise<Integer>> chained = new ArrayList<>(perThread);
+                stages.add(chained);
+                actions[t] = () -> {
+                    for (int n = 0; n < perThread; n++) {
+                        chained.add(promise.thenApplyAsync(INCREMENT));
+                    }
+                };
+            }
+            actions[THREADS] = () -> promise.supply(1);
+            race(actions);
+
+            for (List<Promise<Integer>> chained : stages) {
+                for (Promise<Integer> stage : chained) {
+                    assertEquals(Integer.valueOf(2), stage.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cancellingEveryStageCancelsUpstream() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Promise<Integer> upstream = Promise.empty();
+            Runnable[] actions = new Runnable[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                actions[t] = upstream.thenApplyAsync(INCREMENT)::cancel;
+            }
+            race(actions);
+
+            assertTrue(upstream.isCancelled());
+        }
+    }
+
+    @Test
+    public void cancellingSomeStagesKeepsUpstream() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Promise<Integer> upstream = Promise.empty();
+            Promise<Integer> kept = upstream.thenApplyAsync(INCREMENT);
+            Runnable[] actions = new Runnable[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                actions[t] = upstream.thenApplyAsync(INCREMENT)::cancel;
+            }
+            race(actions);
+
+            assertFalse(upstream.isDone());
+            upstream.supply(1);
+            assertEquals(Integer.valueOf(2), kept.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void cancellationPropagatesUpAChain() {
+        Promise<Integer> head = Promise.empty();
+        Promise<Integer> middle = head.thenApplyAsync(INCREMENT);
+        Promise<Integer> tail = middle.thenApplyAsync(INCREMENT);
+
+        tail.cancel();
+
+        assertTrue(middle.isCancelled());
+        assertTrue(head.isCancelled());
+    }
+
+    @Test
+    public void completionRacingStageCancellationSettles() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Promise<Integer> upstream = Promise.empty();
+            Promise<Integer> first = upstream.thenApplyAsync(INCREMENT);
+            Promise<Integer> second = upstream.thenApplyAsync(INCREMENT);
+
+            race(() -> upstream.supply(1), first::cancel, second::cancel);
+
+            assertTrue(upstream.isDone());
+            if (!upstream.isCancelled()) {
+                assertEquals(Integer.valueOf(1), upstream.join());
+            }
+        }
+    }
+
+    @Test
+    public void cancellingACompletedPromiseDoesNotAffectLaterStages() throws Exception {
+        Promise<Integer> promise = Promise.completed(1);
+
+        assertFalse(promise.cancel());
+
+        assertEquals(Integer.valueOf(2), promise.thenApplyAsync(INCREMENT).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void stagesChainedAfterCompletionRacingCancellationRun() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            Promise<Integer> upstream = Promise.empty();
+            Promise<Integer> stage = upstream.thenApplyAsync(INCREMENT);
+
+            race(() -> upstream.supply(1), stage::cancel);
+
+            // whichever won, a stage chained afterwards must complete
+            Promise<Integer> later = upstream.thenApplyAsync(INCREMENT);
+            if (upstream.isCancelled()) {
+                assertTrue(later.isCancelled());
+            } else {
+                assertEquals(Integer.valueOf(2), later.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    @Test
+    public void stagesOfACancelledPromiseAreCancelled() {
+        Promise<Integer> upstream = Promise.empty();
+        Promise<Integer> before = upstream.thenApplyAsync(INCREMENT);
+        upstream.cancel();
+        Promise<Integer> after = upstream.thenApplyAsync(INCREMENT);
+
+        assertTrue(before.isCancelled());
+        assertTrue(after.isCancelled());
+    }
+
+    @Test
+    public void stagesFuseOnTheirOwnContext() throws Exception {
+        int length = 8;
+        boolean fused = Promise.supplyingAsync(() -> {
+            Promise<Integer> head = Promise.empty();
+            Promise<Integer> tail = head;
+            for (int i = 0; i < length; i++) {
+                tail = tail.thenApplyAsync(INCREMENT);
+            }
+            head.supply(0);
+            return tail.isDone() && tail.join() == length;
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertTrue(fused);
+    }
+
+    @Test
+    public void longFusedChainDoesNotOverflowTheStack() throws Exception {
+        // far deeper than the stack could hold if fusion weren't bounded
+        int length = 100_000;
+        Promise<Integer> head = Promise.empty();
+        Promise<Integer> tail = head;
+        for (int i = 0; i < length; i++) {
+            tail = tail.thenApplyAsync(INCREMENT);
+        }
+
+        HelperExecutors.asyncHelper().execute(() -> head.supply(0));
+
+        assertEquals(Integer.valueOf(length), tail.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}